@@ -0,0 +1,84 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.security.PublicKey;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Classe Alvos com os métodos da aplicação medidos pelos benchmarks. O JMH não aceita benchmarks no pacote
+ * sem nome, e as classes desse pacote não podem ser importadas de um pacote com nome, por isso são
+ * obtidas por {@link MethodHandle}s. Como são constantes (static final), o JIT liga-as diretamente ao
+ * método chamado e o custo da chamada é o mesmo de uma chamada normal.
+ * As instâncias da aplicação (Peer) são tratadas como Object.
+ */
+final class Alvos {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    static final MethodHandle ENCRYPT = estatico("EncryptionUtil", "encrypt", byte[].class, byte[].class, SecretKey.class);
+    static final MethodHandle DECRYPT = estatico("EncryptionUtil", "decrypt", byte[].class, byte[].class, SecretKey.class);
+    static final MethodHandle ENCRYPT_AEAD = estatico("EncryptionUtil", "encryptAead", byte[].class, byte[].class, SecretKey.class, byte[].class);
+    static final MethodHandle DECRYPT_AEAD = estatico("EncryptionUtil", "decryptAead", byte[].class, byte[].class, SecretKey.class, byte[].class);
+    static final MethodHandle GENERATE_KEY = estatico("EncryptionUtil", "generateKey", SecretKey.class);
+    static final MethodHandle SHA256 = estatico("MotorCripto", "sha256", byte[].class, byte[].class);
+
+    // Frame deTexto(String), com o Frame visto como Object
+    static final MethodHandle FRAME_DE_TEXTO = estatico("Frame", "deTexto", classe("Frame"), String.class)
+            .asType(MethodType.methodType(Object.class, String.class));
+
+    // Métodos privados do Peer: byte[] criptografarMensagem(Object peer, String, SecretKeySpec) e
+    // String descriptografarMensagem(Object peer, byte[], SecretKey)
+    static final MethodHandle CRIPTOGRAFAR_MENSAGEM = dePeer("criptografarMensagem", byte[].class, String.class, SecretKeySpec.class);
+    static final MethodHandle DESCRIPTOGRAFAR_MENSAGEM = dePeer("descriptografarMensagem", String.class, byte[].class, SecretKey.class);
+
+    // void applyDiffieHellman(Object peer, String, PublicKey) e PublicKey getChavePublica(Object peer)
+    static final MethodHandle APPLY_DIFFIE_HELLMAN = dePeer("applyDiffieHellman", void.class, String.class, PublicKey.class);
+    static final MethodHandle GET_CHAVE_PUBLICA = dePeer("getChavePublica", PublicKey.class);
+
+    private Alvos() {
+    }
+
+    /**
+     * Cria um Peer (sem o iniciar) com as chaves de identidade de um modo.
+     *
+     * @param idPeer ID do Peer
+     * @param modo Nome da constante de ModoChaves (X25519 ou DH_2048)
+     * @return Peer
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Object novoPeer(String idPeer, String modo) throws Throwable {
+        Class modoChaves = classe("ModoChaves");
+        MethodHandle construtor = LOOKUP.findConstructor(classe("Peer"),
+                MethodType.methodType(void.class, int.class, String.class, modoChaves));
+        return construtor.invoke(0, idPeer, Enum.valueOf(modoChaves, modo));
+    }
+
+    private static MethodHandle estatico(String classe, String metodo, Class<?> retorno, Class<?>... parametros) {
+        try {
+            return LOOKUP.findStatic(classe(classe), metodo, MethodType.methodType(retorno, parametros));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle dePeer(String metodo, Class<?> retorno, Class<?>... parametros) {
+        try {
+            Class<?> peer = classe("Peer");
+            MethodHandle handle = MethodHandles.privateLookupIn(peer, LOOKUP)
+                    .findVirtual(peer, metodo, MethodType.methodType(retorno, parametros));
+            return handle.asType(handle.type().changeParameterType(0, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static Class<?> classe(String nome) {
+        try {
+            return Class.forName(nome);
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
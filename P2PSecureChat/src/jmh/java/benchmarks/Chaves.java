@@ -0,0 +1,57 @@
+package benchmarks;
+
+import java.security.PublicKey;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.SecretKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Custo da geração de uma chave AES e do acordo de chaves com um novo contacto (Peer.applyDiffieHellman),
+ * em cada modo de chaves.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Chaves {
+
+    /**
+     * Dois peers do mesmo modo: o acordo é feito pelo primeiro com a chave pública do segundo.
+     */
+    @State(Scope.Thread)
+    public static class Acordo {
+        @Param({"X25519", "DH_2048"})
+        String modo;
+
+        Object peer;
+        PublicKey chavePublicaContacto;
+
+        @Setup
+        public void preparar() throws Throwable {
+            peer = Alvos.novoPeer("bench", modo);
+            chavePublicaContacto = (PublicKey) Alvos.GET_CHAVE_PUBLICA.invokeExact(Alvos.novoPeer("contacto", modo));
+        }
+    }
+
+    @Benchmark
+    public SecretKey generateKey() throws Throwable {
+        return (SecretKey) Alvos.GENERATE_KEY.invokeExact();
+    }
+
+    // A chave derivada substitui a anterior do mesmo contacto no mapa do Peer
+    @Benchmark
+    public void applyDiffieHellman(Acordo acordo) throws Throwable {
+        Alvos.APPLY_DIFFIE_HELLMAN.invokeExact(acordo.peer, "contacto", acordo.chavePublicaContacto);
+    }
+}
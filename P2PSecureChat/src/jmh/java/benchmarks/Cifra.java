@@ -0,0 +1,86 @@
+package benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Custo por mensagem da cifra simétrica: EncryptionUtil (AES e AES-GCM) e os métodos do Peer que cifram
+ * e decifram o texto das mensagens no formato antigo, de 16 B a 1 MB.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Cifra {
+    @Param({"16", "256", "4096", "65536", "1048576"})
+    int tamanho;
+
+    private byte[] dados;
+    private String texto;
+    private SecretKey chave;
+    private SecretKeySpec chaveSpec;
+    private byte[] cifrado;
+    private byte[] cifradoAead;
+    private byte[] textoCifrado;
+    private Object peer;
+
+    @Setup
+    public void preparar() throws Throwable {
+        dados = new byte[tamanho];
+        ThreadLocalRandom.current().nextBytes(dados);
+        texto = "x".repeat(tamanho);
+        chave = (SecretKey) Alvos.GENERATE_KEY.invokeExact();
+        chaveSpec = new SecretKeySpec(chave.getEncoded(), "AES");
+        cifrado = (byte[]) Alvos.ENCRYPT.invokeExact(dados, chave);
+        cifradoAead = (byte[]) Alvos.ENCRYPT_AEAD.invokeExact(dados, chave, (byte[]) null);
+        peer = Alvos.novoPeer("bench", "X25519");
+        textoCifrado = (byte[]) Alvos.CRIPTOGRAFAR_MENSAGEM.invokeExact(peer, texto, chaveSpec);
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws Throwable {
+        return (byte[]) Alvos.ENCRYPT.invokeExact(dados, chave);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws Throwable {
+        return (byte[]) Alvos.DECRYPT.invokeExact(cifrado, chave);
+    }
+
+    @Benchmark
+    public byte[] encryptAead() throws Throwable {
+        return (byte[]) Alvos.ENCRYPT_AEAD.invokeExact(dados, chave, (byte[]) null);
+    }
+
+    @Benchmark
+    public byte[] decryptAead() throws Throwable {
+        return (byte[]) Alvos.DECRYPT_AEAD.invokeExact(cifradoAead, chave, (byte[]) null);
+    }
+
+    // Inclui a codificação UTF-8 do texto
+    @Benchmark
+    public byte[] criptografarMensagem() throws Throwable {
+        return (byte[]) Alvos.CRIPTOGRAFAR_MENSAGEM.invokeExact(peer, texto, chaveSpec);
+    }
+
+    // Inclui a descodificação UTF-8 do texto
+    @Benchmark
+    public String descriptografarMensagem() throws Throwable {
+        return (String) Alvos.DESCRIPTOGRAFAR_MENSAGEM.invokeExact(peer, textoCifrado, chave);
+    }
+}
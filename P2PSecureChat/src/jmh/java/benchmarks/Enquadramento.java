@@ -0,0 +1,71 @@
+package benchmarks;
+
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Custo por mensagem do hash de integridade (SHA-256), do Base64 e da divisão da linha do formato de
+ * texto antigo (grupo|idRemetente|mensagemCriptografada|hash) feita na receção, de 16 B a 1 MB de payload.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Enquadramento {
+    @Param({"16", "256", "4096", "65536", "1048576"})
+    int tamanho;
+
+    private byte[] dados;
+    private String dadosBase64;
+    private String linha;
+
+    @Setup
+    public void preparar() throws Throwable {
+        dados = new byte[tamanho];
+        ThreadLocalRandom.current().nextBytes(dados);
+        dadosBase64 = Base64.getEncoder().encodeToString(dados);
+        byte[] hash = (byte[]) Alvos.SHA256.invokeExact(dados);
+        linha = "|bench|" + dadosBase64 + "|" + Base64.getEncoder().encodeToString(hash);
+    }
+
+    @Benchmark
+    public byte[] sha256() throws Throwable {
+        return (byte[]) Alvos.SHA256.invokeExact(dados);
+    }
+
+    @Benchmark
+    public String base64Encode() {
+        return Base64.getEncoder().encodeToString(dados);
+    }
+
+    @Benchmark
+    public byte[] base64Decode() {
+        return Base64.getDecoder().decode(dadosBase64);
+    }
+
+    // Só a divisão da linha, como no processamento das mensagens de texto
+    @Benchmark
+    public String[] split() {
+        return linha.split("\\|");
+    }
+
+    // Divisão e descodificação Base64 do payload e do hash (Frame.deTexto)
+    @Benchmark
+    public Object frameDeTexto() throws Throwable {
+        return Alvos.FRAME_DE_TEXTO.invokeExact(linha);
+    }
+}
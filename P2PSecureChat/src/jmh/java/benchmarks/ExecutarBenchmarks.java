@@ -0,0 +1,31 @@
+package benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Ponto de entrada do jar de benchmarks: aceita as mesmas opções que o JMH (por exemplo, um filtro
+ * "Cifra.encrypt" ou "-p tamanho=16,1048576") e liga sempre o perfil de alocação (-prof gc), para que
+ * a referência de cada benchmark inclua os bytes alocados por operação.
+ *
+ * Uso: java -jar target/benchmarks.jar [opções do JMH]
+ */
+public class ExecutarBenchmarks {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions linha = new CommandLineOptions(args);
+        if (linha.shouldHelp()) {
+            linha.showHelp();
+            return;
+        }
+        Options opcoes = new OptionsBuilder().parent(linha).addProfiler(GCProfiler.class).build();
+        Runner runner = new Runner(opcoes);
+        if (linha.shouldList()) {
+            runner.list();
+            return;
+        }
+        runner.run();
+    }
+}
@@ -0,0 +1,99 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.Base64;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Classe ArmazemChaves que guarda o par de chaves de identidade de um Peer num ficheiro, para que o Peer
+ * mantenha a mesma chave pública entre arranques (os outros peers guardam a primeira chave que obtêm
+ * para cada ID pela DHT). O ficheiro tem o modo, a chave pública (X.509) e a chave privada (PKCS#8)
+ * em Base64, e só é legível pelo dono quando o sistema de ficheiros o permite.
+ */
+public final class ArmazemChaves {
+
+    private ArmazemChaves() {
+    }
+
+    /**
+     * Lê o par de chaves do ficheiro, ou gera um novo e guarda-o se o ficheiro ainda não existir.
+     *
+     * @param ficheiro Ficheiro das chaves
+     * @param modo Modo das chaves a gerar (ignorado se o ficheiro já existir)
+     * @return Par de chaves de identidade
+     * @throws IOException Caso o ficheiro não possa ser lido ou escrito
+     * @throws GeneralSecurityException Caso as chaves sejam inválidas ou não possam ser geradas
+     */
+    public static KeyPair carregarOuGerar(Path ficheiro, ModoChaves modo) throws IOException, GeneralSecurityException {
+        if (Files.exists(ficheiro)) {
+            return carregar(ficheiro);
+        }
+        KeyPair par = modo.gerarParDeChaves();
+        Properties propriedades = new Properties();
+        propriedades.setProperty("modo", modo.name());
+        propriedades.setProperty("publica", Base64.getEncoder().encodeToString(par.getPublic().getEncoded()));
+        propriedades.setProperty("privada", Base64.getEncoder().encodeToString(par.getPrivate().getEncoded()));
+        if (ficheiro.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(ficheiro.toAbsolutePath().getParent());
+        }
+        try (Writer out = new OutputStreamWriter(criarFicheiroPrivado(ficheiro), StandardCharsets.UTF_8)) {
+            propriedades.store(out, "Chaves de identidade do Peer (privada: não partilhar)");
+        }
+        return par;
+    }
+
+    /**
+     * Cria um ficheiro novo para chaves, já com permissões apenas para o dono (rw-------), para que não haja
+     * nenhum instante em que outros utilizadores o possam ler. Em sistemas de ficheiros sem permissões POSIX
+     * o ficheiro é criado com as permissões por omissão.
+     *
+     * @param ficheiro Ficheiro a criar (não pode existir)
+     * @return Stream de escrita no ficheiro
+     * @throws IOException Caso o ficheiro já exista ou não possa ser criado
+     */
+    static OutputStream criarFicheiroPrivado(Path ficheiro) throws IOException {
+        Set<OpenOption> opcoes = Set.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        try {
+            return Channels.newOutputStream(Files.newByteChannel(ficheiro, opcoes,
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"))));
+        } catch (UnsupportedOperationException e) {
+            return Channels.newOutputStream(Files.newByteChannel(ficheiro, opcoes)); // Sistema de ficheiros sem permissões POSIX
+        }
+    }
+
+    /**
+     * Lê um par de chaves guardado.
+     *
+     * @param ficheiro Ficheiro das chaves
+     * @return Par de chaves de identidade
+     * @throws IOException Caso o ficheiro não possa ser lido ou esteja incompleto
+     * @throws GeneralSecurityException Caso as chaves sejam inválidas
+     */
+    public static KeyPair carregar(Path ficheiro) throws IOException, GeneralSecurityException {
+        Properties propriedades = new Properties();
+        try (Reader in = Files.newBufferedReader(ficheiro, StandardCharsets.UTF_8)) {
+            propriedades.load(in);
+        }
+        String modo = propriedades.getProperty("modo");
+        String publica = propriedades.getProperty("publica");
+        String privada = propriedades.getProperty("privada");
+        if (modo == null || publica == null || privada == null) {
+            throw new IOException("Ficheiro de chaves incompleto: " + ficheiro);
+        }
+        ModoChaves modoChaves = ModoChaves.valueOf(modo);
+        return new KeyPair(modoChaves.decodificarChavePublica(Base64.getDecoder().decode(publica)),
+                modoChaves.decodificarChavePrivada(Base64.getDecoder().decode(privada)));
+    }
+}
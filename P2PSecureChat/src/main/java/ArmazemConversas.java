@@ -0,0 +1,54 @@
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Interface ArmazemConversas que define onde o Peer guarda o histórico das conversas.
+ * Uma conversa é identificada pelo ID do peer ou do grupo com quem é mantida, e as suas mensagens
+ * são numeradas pela ordem em que foram acrescentadas ({@link RegistoMensagem#sequencia()}).
+ */
+public interface ArmazemConversas {
+    /**
+     * Acrescenta uma mensagem ao fim de uma conversa.
+     *
+     * @param idConversa ID da conversa (peer ou grupo)
+     * @param idRemetente ID do Peer que escreveu a mensagem
+     * @param mensagem Mensagem a guardar
+     * @return Registo guardado, com a sua sequência na conversa
+     * @throws IOException Caso não seja possível guardar a mensagem
+     */
+    RegistoMensagem acrescentar(String idConversa, String idRemetente, String mensagem) throws IOException;
+
+    /**
+     * Obtém o número de mensagens de uma conversa.
+     *
+     * @param idConversa ID da conversa
+     * @return Número de mensagens (0 se a conversa não existir)
+     */
+    long tamanho(String idConversa);
+
+    /**
+     * Lê um intervalo de mensagens de uma conversa, pela ordem em que foram acrescentadas.
+     *
+     * @param idConversa ID da conversa
+     * @param desde Sequência da primeira mensagem a ler
+     * @param quantidade Número máximo de mensagens a ler
+     * @return Mensagens com sequência entre desde e desde + quantidade - 1 que existam
+     * @throws IOException Caso não seja possível ler a conversa
+     */
+    List<RegistoMensagem> ler(String idConversa, long desde, int quantidade) throws IOException;
+
+    /**
+     * Obtém os IDs de todas as conversas guardadas.
+     *
+     * @return IDs das conversas
+     */
+    Set<String> getConversas();
+
+    /**
+     * Fecha o armazém, libertando os recursos que usa.
+     *
+     * @throws IOException Caso ocorra um erro ao fechar
+     */
+    void fechar() throws IOException;
+}
@@ -0,0 +1,223 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Classe ArmazemMemoria que guarda as conversas apenas na memória; o histórico perde-se ao reiniciar.
+ *
+ * A representação é compacta: cada remetente é guardado uma única vez e as mensagens referem-no por um
+ * número inteiro; os textos ficam em UTF-8, seguidos uns aos outros em blocos de bytes; e cada mensagem
+ * ocupa apenas uma posição em três arrays (remetente, instante e início do texto). Não há nenhum objeto
+ * por mensagem: os {@link RegistoMensagem} são criados apenas quando as mensagens são lidas.
+ *
+ * Pode ser usado por várias threads: cada conversa tem o seu próprio lock de escrita, pelo que conversas
+ * diferentes recebem mensagens em paralelo, e as leituras não usam locks. Uma mensagem fica visível para
+ * as leituras quando o tamanho (volatile) da conversa é atualizado, depois de todos os seus dados estarem escritos;
+ * os dados já publicados nunca são alterados (ao crescer, os arrays são copiados).
+ */
+public class ArmazemMemoria implements ArmazemConversas {
+    // Tamanho de cada bloco de texto de uma conversa
+    static final int TAMANHO_BLOCO = 64 * 1024;
+
+    // Remetentes conhecidos: ID -> número, e número -> ID (o array é substituído por uma cópia maior ao crescer)
+    private final Map<String, Integer> numerosRemetentes = new ConcurrentHashMap<>();
+    private volatile String[] remetentes = new String[16];
+    private int numeroRemetentes; // Protegido pelo lock de numerosRemetentes
+
+    // Conversas (mensagens) por conversa identificada pelo ID do destinatário
+    private final Map<String, Conversa> conversas = new ConcurrentHashMap<>();
+
+    @Override
+    public RegistoMensagem acrescentar(String idConversa, String idRemetente, String mensagem) {
+        Conversa conversa = conversas.computeIfAbsent(idConversa, k -> new Conversa());
+        int numero = numeroRemetente(idRemetente);
+        byte[] texto = mensagem.getBytes(StandardCharsets.UTF_8);
+        long instante = System.currentTimeMillis();
+        int sequencia;
+        synchronized (conversa) { // Apenas as escritas na mesma conversa são serializadas
+            sequencia = conversa.acrescentar(numero, instante, texto);
+        }
+        return new RegistoMensagem(sequencia, instante, idRemetente, mensagem);
+    }
+
+    @Override
+    public long tamanho(String idConversa) {
+        Conversa conversa = conversas.get(idConversa);
+        return conversa == null ? 0 : conversa.tamanho;
+    }
+
+    @Override
+    public List<RegistoMensagem> ler(String idConversa, long desde, int quantidade) {
+        Conversa conversa = conversas.get(idConversa);
+        if (conversa == null) {
+            return new ArrayList<>();
+        }
+        int tamanho = conversa.tamanho; // Leitura volatile: os dados das primeiras tamanho mensagens estão visíveis
+        if (desde >= tamanho || quantidade <= 0) {
+            return new ArrayList<>();
+        }
+        Dados dados = conversa.dados;
+        String[] ids = remetentes;
+        int inicio = (int) Math.max(0, desde);
+        int fim = (int) Math.min(tamanho, desde + quantidade);
+        List<RegistoMensagem> mensagens = new ArrayList<>(fim - inicio);
+        for (int i = inicio; i < fim; i++) {
+            mensagens.add(new RegistoMensagem(i, dados.instantes()[i], ids[dados.remetentes()[i]], conversa.texto(dados, i)));
+        }
+        return mensagens;
+    }
+
+    @Override
+    public Set<String> getConversas() {
+        return new HashSet<>(conversas.keySet()); // Cópia: pode ser percorrida enquanto chegam mensagens
+    }
+
+    @Override
+    public void fechar() {
+        // Nada a libertar
+    }
+
+    /**
+     * Obtém o número de bytes ocupados pelos arrays das conversas e dos remetentes (capacidade reservada,
+     * sem contar os cabeçalhos dos objetos nem os mapas). Usado para medir o custo de cada mensagem.
+     *
+     * @return Bytes reservados
+     */
+    public long getBytesReservados() {
+        String[] ids = remetentes;
+        long bytes = (long) ids.length * 4;
+        for (String id : ids) {
+            if (id != null) {
+                bytes += id.length();
+            }
+        }
+        for (Conversa conversa : conversas.values()) {
+            synchronized (conversa) {
+                bytes += conversa.bytesReservados();
+            }
+        }
+        return bytes;
+    }
+
+    // Obtém o número de um remetente, registando-o se ainda não for conhecido
+    private int numeroRemetente(String idRemetente) {
+        Integer numero = numerosRemetentes.get(idRemetente); // Caso normal: remetente já conhecido, sem lock
+        if (numero != null) {
+            return numero;
+        }
+        synchronized (numerosRemetentes) {
+            numero = numerosRemetentes.get(idRemetente);
+            if (numero == null) {
+                String[] ids = remetentes;
+                if (numeroRemetentes == ids.length) {
+                    ids = Arrays.copyOf(ids, ids.length * 2);
+                }
+                numero = numeroRemetentes++;
+                ids[numero] = idRemetente;
+                remetentes = ids; // Publica o array antes de o número poder ser usado numa mensagem
+                numerosRemetentes.put(idRemetente, numero);
+            }
+            return numero;
+        }
+    }
+
+    /**
+     * Mensagens de uma conversa. O texto da mensagem i ocupa os bytes de inicios[i] a inicios[i + 1],
+     * numa sequência contínua dividida em blocos de {@link #TAMANHO_BLOCO}. Apenas o último bloco pode
+     * ser menor, para que uma conversa curta não reserve um bloco inteiro.
+     * As escritas são feitas com o lock da conversa. Os arrays nunca são substituídos no lugar: quando
+     * crescem é publicado um novo {@link Dados}, e um array ou bloco já visível para as leituras só é
+     * alterado em posições que ainda não foram publicadas.
+     */
+    private static final class Conversa {
+        volatile int tamanho; // Escrito depois dos dados da mensagem: publica-a para as leituras
+        volatile Dados dados = new Dados(new int[8], new long[8], new int[9], new byte[1][]);
+        int bytesTexto; // Total de bytes de texto (offset do próximo texto), apenas usado nas escritas
+
+        // Acrescenta uma mensagem e devolve a sua sequência
+        int acrescentar(int remetente, long instante, byte[] texto) {
+            if ((long) bytesTexto + texto.length > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Conversa demasiado grande para a memória; use o LogMensagens");
+            }
+            int n = tamanho;
+            Dados d = dados;
+            if (n == d.remetentes().length) {
+                int capacidade = n + (n >> 1);
+                d = new Dados(Arrays.copyOf(d.remetentes(), capacidade), Arrays.copyOf(d.instantes(), capacidade),
+                        Arrays.copyOf(d.inicios(), capacidade + 1), d.blocos());
+                dados = d;
+            }
+            d.remetentes()[n] = remetente;
+            d.instantes()[n] = instante;
+            d = escrever(d, texto);
+            d.inicios()[n + 1] = bytesTexto;
+            tamanho = n + 1;
+            return n;
+        }
+
+        // Copia o texto para o fim da sequência de blocos, criando ou aumentando blocos quando é preciso
+        private Dados escrever(Dados d, byte[] texto) {
+            int copiados = 0;
+            while (copiados < texto.length) {
+                int bloco = bytesTexto / TAMANHO_BLOCO;
+                int offset = bytesTexto % TAMANHO_BLOCO;
+                int n = Math.min(texto.length - copiados, TAMANHO_BLOCO - offset);
+                byte[][] blocos = d.blocos();
+                byte[] atual = bloco < blocos.length ? blocos[bloco] : null;
+                if (atual == null || atual.length < offset + n) { // O último bloco cresce até TAMANHO_BLOCO
+                    int capacidade = Math.min(TAMANHO_BLOCO, Math.max(offset + n, atual == null ? 256 : atual.length * 2));
+                    blocos = Arrays.copyOf(blocos, Math.max(blocos.length, bloco + 1));
+                    blocos[bloco] = atual == null ? new byte[capacidade] : Arrays.copyOf(atual, capacidade);
+                    d = new Dados(d.remetentes(), d.instantes(), d.inicios(), blocos);
+                    dados = d;
+                }
+                System.arraycopy(texto, copiados, blocos[bloco], offset, n);
+                copiados += n;
+                bytesTexto += n;
+            }
+            return d;
+        }
+
+        // Descodifica o texto da mensagem i (já publicada)
+        String texto(Dados d, int i) {
+            int inicio = d.inicios()[i];
+            int fim = d.inicios()[i + 1];
+            int bloco = inicio / TAMANHO_BLOCO;
+            int offset = inicio % TAMANHO_BLOCO;
+            if (offset + (fim - inicio) <= TAMANHO_BLOCO) { // Caso normal: o texto está num único bloco
+                return new String(d.blocos()[bloco], offset, fim - inicio, StandardCharsets.UTF_8);
+            }
+            byte[] texto = new byte[fim - inicio];
+            for (int copiados = 0; copiados < texto.length; ) {
+                int n = Math.min(texto.length - copiados, TAMANHO_BLOCO - offset);
+                System.arraycopy(d.blocos()[bloco], offset, texto, copiados, n);
+                copiados += n;
+                bloco++;
+                offset = 0;
+            }
+            return new String(texto, StandardCharsets.UTF_8);
+        }
+
+        long bytesReservados() {
+            Dados d = dados;
+            long bytes = (long) d.remetentes().length * (4 + 8 + 4) + (long) d.blocos().length * 4;
+            for (byte[] bloco : d.blocos()) {
+                if (bloco != null) {
+                    bytes += bloco.length;
+                }
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Arrays de uma conversa: remetente, instante e início do texto de cada mensagem, e blocos de texto.
+     */
+    private record Dados(int[] remetentes, long[] instantes, int[] inicios, byte[][] blocos) {
+    }
+}
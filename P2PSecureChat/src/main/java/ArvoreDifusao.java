@@ -0,0 +1,48 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Classe ArvoreDifusao que organiza os membros de um grupo numa árvore de difusão com raiz no autor da mensagem.
+ * Os membros são ordenados pela lista do grupo, rodada de forma que o autor fique na posição 0;
+ * os filhos da posição i são as posições i*fanout+1 a i*fanout+fanout. Todos os membros têm a mesma
+ * lista do grupo (enviada na criação), pelo que cada um calcula a mesma árvore sem coordenação.
+ */
+public class ArvoreDifusao {
+    private final List<String> membros;
+    private final int origem;
+    private final int fanout;
+
+    /**
+     * Construtor da classe ArvoreDifusao.
+     *
+     * @param membros Membros do grupo, pela ordem em que foram definidos na criação do grupo
+     * @param idOrigem ID do autor da mensagem (raiz da árvore)
+     * @param fanout Número máximo de filhos de cada membro; 0 ou menos envia diretamente a todos os membros
+     */
+    public ArvoreDifusao(List<String> membros, String idOrigem, int fanout) {
+        this.membros = membros;
+        this.origem = membros.indexOf(idOrigem);
+        this.fanout = fanout > 0 ? Math.min(fanout, Math.max(1, membros.size())) : Math.max(1, membros.size() - 1);
+    }
+
+    /**
+     * Obtém os membros a quem um membro deve retransmitir a mensagem.
+     *
+     * @param idMembro ID do membro
+     * @return Filhos do membro na árvore (vazio se for uma folha ou não pertencer ao grupo)
+     */
+    public List<String> filhos(String idMembro) {
+        int indice = membros.indexOf(idMembro);
+        if (origem < 0 || indice < 0) {
+            return Collections.emptyList();
+        }
+        int n = membros.size();
+        long posicao = Math.floorMod(indice - origem, n);
+        List<String> filhos = new ArrayList<>(Math.min(fanout, n)); // O fanout pode vir de um frame recebido
+        for (long filho = posicao * fanout + 1; filho <= posicao * fanout + fanout && filho < n; filho++) {
+            filhos.add(membros.get((int) ((origem + filho) % n)));
+        }
+        return filhos;
+    }
+}
@@ -0,0 +1,76 @@
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Classe BenchmarkChaves que compara os modos de acordo de chaves ({@link ModoChaves}):
+ * o tempo de geração de um par de chaves de identidade, o tempo de arranque de um Peer (que inclui
+ * essa geração) e o tempo do acordo de chaves com cada novo contacto
+ * ({@link Peer#applyDiffieHellman(String, PublicKey)}).
+ *
+ * Uso: java -cp target/classes BenchmarkChaves [numeroPeers] [numeroContactos]
+ */
+public class BenchmarkChaves {
+    // Número de repetições de aquecimento do JIT antes de cada medição
+    private static final int AQUECIMENTO = 200;
+
+    public static void main(String[] args) throws Exception {
+        int numeroPeers = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int numeroContactos = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        System.out.printf("%-8s %22s %22s %22s%n", "Modo", "Geração (ms/par)", "Arranque (ms/peer)", "Acordo (ms/contacto)");
+        for (ModoChaves modo : ModoChaves.values()) {
+            medirGeracao(modo, AQUECIMENTO);
+            double geracao = medirGeracao(modo, numeroPeers);
+
+            medirArranque(modo, AQUECIMENTO);
+            double arranque = medirArranque(modo, numeroPeers);
+
+            medirAcordo(modo, AQUECIMENTO);
+            double acordo = medirAcordo(modo, numeroContactos);
+
+            System.out.printf("%-8s %22.3f %22.3f %22.3f%n", modo, geracao, arranque, acordo);
+        }
+    }
+
+    // Tempo médio (ms) da geração de um par de chaves de identidade
+    private static double medirGeracao(ModoChaves modo, int numeroPares) throws Exception {
+        long inicio = System.nanoTime();
+        for (int i = 0; i < numeroPares; i++) {
+            modo.gerarParDeChaves();
+        }
+        return (System.nanoTime() - inicio) / 1e6 / numeroPares;
+    }
+
+    // Tempo médio (ms) da construção de um Peer, que gera as chaves de identidade do modo. Os Peers são
+    // parados depois da medição, para não acumularem as threads do conjunto de ligações entre medições
+    private static double medirArranque(ModoChaves modo, int numeroPeers) throws Exception {
+        List<Peer> peers = new ArrayList<>(numeroPeers);
+        long inicio = System.nanoTime();
+        for (int i = 0; i < numeroPeers; i++) {
+            peers.add(new Peer(0, "peer" + i, modo));
+        }
+        double tempo = (System.nanoTime() - inicio) / 1e6 / numeroPeers;
+        for (Peer peer : peers) {
+            peer.parar();
+        }
+        return tempo;
+    }
+
+    // Tempo médio (ms) do acordo de chaves de um Peer com cada um de vários contactos novos
+    private static double medirAcordo(ModoChaves modo, int numeroContactos) throws Exception {
+        Peer peer = new Peer(0, "local", modo);
+        List<PublicKey> chaves = new ArrayList<>(numeroContactos);
+        for (int i = 0; i < numeroContactos; i++) {
+            chaves.add(modo.gerarParDeChaves().getPublic());
+        }
+
+        long inicio = System.nanoTime();
+        for (int i = 0; i < numeroContactos; i++) {
+            peer.applyDiffieHellman("contacto" + i, chaves.get(i));
+        }
+        double tempo = (System.nanoTime() - inicio) / 1e6 / numeroContactos;
+        peer.parar();
+        return tempo;
+    }
+}
@@ -0,0 +1,143 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javax.crypto.SecretKey;
+
+/**
+ * Classe BenchmarkCompressao que compara os codecs da compressão das mensagens ({@link ModoCompressao}),
+ * com e sem dicionário partilhado, em vários tipos de mensagens: os bytes de cada mensagem no fio (frame
+ * binário completo, com a cifra AES-GCM) e o tempo de CPU por mensagem da compressão e cifra no envio e da
+ * decifra e descompressão na receção, as mesmas etapas que o Peer executa.
+ *
+ * Os dicionários são gerados com mensagens do mesmo tipo, mas diferentes das medidas.
+ *
+ * Uso: java -cp target/classes BenchmarkCompressao [tamanhoMensagem] [numeroMensagens]
+ */
+public class BenchmarkCompressao {
+    // Número de passagens de aquecimento do JIT antes de cada medição
+    private static final int AQUECIMENTO = 3;
+
+    // Tamanho dos dicionários gerados (o Deflate usa no máximo 32 KB)
+    private static final int TAMANHO_DICIONARIO = 16 * 1024;
+
+    private static final String[] PALAVRAS = {"olá", "então", "amanhã", "reunião", "projeto", "mensagem", "grupo",
+            "enviar", "ficheiro", "obrigado", "hoje", "às", "horas", "podes", "ver", "isso", "depois", "está", "tudo",
+            "bem", "combinado", "peer", "chave", "servidor", "porta", "ligação", "rede", "teste", "versão", "nova"};
+
+    public static void main(String[] args) throws Exception {
+        int tamanho = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int numero = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        SecretKey chave = EncryptionUtil.generateKey();
+
+        System.out.printf("Mensagens de ~%d B, %d por medição (mínimo para comprimir: 0 B)%n%n", tamanho, numero);
+        System.out.printf("%-10s %-15s %-10s %12s %12s %8s %16s %16s%n", "Mensagens", "Codec", "Dicionário",
+                "Original (B)", "No fio (B)", "Rácio", "Envio (µs/msg)", "Receção (µs/msg)");
+        for (String tipo : new String[]{"conversa", "registos", "aleatorias"}) {
+            List<byte[]> mensagens = gerar(tipo, tamanho, numero, new Random(1));
+            byte[] dicionario = concatenar(gerar(tipo, tamanho, TAMANHO_DICIONARIO / tamanho + 1, new Random(2)), TAMANHO_DICIONARIO);
+            for (ModoCompressao modo : ModoCompressao.values()) {
+                for (boolean comDicionario : new boolean[]{false, true}) {
+                    if (modo == ModoCompressao.NENHUMA && comDicionario) {
+                        continue;
+                    }
+                    Compressao compressao = new Compressao(modo, 0);
+                    if (comDicionario) {
+                        compressao.setDicionario("conversa", dicionario);
+                    }
+                    for (int i = 0; i < AQUECIMENTO; i++) {
+                        medir(compressao, chave, mensagens);
+                    }
+                    double[] r = medir(compressao, chave, mensagens);
+                    System.out.printf("%-10s %-15s %-10s %12.0f %12.0f %8.3f %16.2f %16.2f%n", tipo, modo.getNome(),
+                            comDicionario ? "sim" : "não", r[0], r[1], r[1] / r[0], r[2], r[3]);
+                }
+            }
+        }
+    }
+
+    // Média por mensagem: bytes originais, bytes no fio, µs de envio e µs de receção
+    private static double[] medir(Compressao compressao, SecretKey chave, List<byte[]> mensagens)
+            throws GeneralSecurityException, IOException {
+        byte[] dadosAssociados = Frame.dadosAssociados("", "remetente");
+        List<Frame> frames = new ArrayList<>(mensagens.size());
+        long original = 0;
+        long noFio = 0;
+
+        long inicio = System.nanoTime();
+        for (byte[] mensagem : mensagens) {
+            byte[] claro = mensagem;
+            byte[] aad = dadosAssociados;
+            byte flags = Frame.FLAG_AEAD;
+            byte[] comprimido = compressao.comprimir("conversa", claro);
+            if (comprimido != null) {
+                claro = comprimido;
+                aad = Frame.dadosAssociadosComprimidos(aad);
+                flags |= Frame.FLAG_COMPRIMIDO;
+            }
+            Frame frame = new Frame(Frame.MENSAGEM, "", "remetente", EncryptionUtil.encryptAead(claro, chave, aad), null);
+            frame.setFlags(flags);
+            frame.setIdCorrelacao(Frame.novoIdCorrelacao());
+            noFio += frame.codificar(true).length;
+            frames.add(frame);
+        }
+        long envio = System.nanoTime() - inicio;
+
+        inicio = System.nanoTime();
+        for (int i = 0; i < frames.size(); i++) {
+            Frame frame = frames.get(i);
+            boolean comprimido = (frame.getFlags() & Frame.FLAG_COMPRIMIDO) != 0;
+            byte[] claro = EncryptionUtil.decryptAead(frame.getPayload(), chave,
+                    comprimido ? Frame.dadosAssociadosComprimidos(dadosAssociados) : dadosAssociados);
+            if (comprimido) {
+                claro = compressao.descomprimir(claro);
+            }
+            if (claro.length != mensagens.get(i).length) {
+                throw new IllegalStateException("Mensagem " + i + " alterada");
+            }
+            original += claro.length;
+        }
+        long rececao = System.nanoTime() - inicio;
+
+        int n = mensagens.size();
+        return new double[]{(double) original / n, (double) noFio / n, envio / 1e3 / n, rececao / 1e3 / n};
+    }
+
+    // Gera mensagens de um tipo: conversa (texto), registos (linhas estruturadas) ou aleatórias (incompressíveis)
+    private static List<byte[]> gerar(String tipo, int tamanho, int numero, Random random) {
+        List<byte[]> mensagens = new ArrayList<>(numero);
+        for (int i = 0; i < numero; i++) {
+            if (tipo.equals("aleatorias")) {
+                byte[] dados = new byte[tamanho];
+                random.nextBytes(dados);
+                mensagens.add(dados);
+                continue;
+            }
+            StringBuilder texto = new StringBuilder();
+            while (texto.length() < tamanho) {
+                if (tipo.equals("conversa")) {
+                    texto.append(PALAVRAS[random.nextInt(PALAVRAS.length)]).append(random.nextInt(8) == 0 ? ". " : " ");
+                } else {
+                    texto.append(String.format("{\"nivel\":\"INFO\",\"peer\":\"peer%d\",\"porta\":%d,\"evento\":\"%s\",\"ms\":%d}%n",
+                            random.nextInt(50), 22000 + random.nextInt(50), PALAVRAS[random.nextInt(PALAVRAS.length)],
+                            random.nextInt(1000)));
+                }
+            }
+            mensagens.add(texto.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return mensagens;
+    }
+
+    private static byte[] concatenar(List<byte[]> partes, int tamanho) {
+        byte[] dados = new byte[tamanho];
+        int posicao = 0;
+        for (byte[] parte : partes) {
+            int n = Math.min(parte.length, tamanho - posicao);
+            System.arraycopy(parte, 0, dados, posicao, n);
+            posicao += n;
+        }
+        return dados;
+    }
+}
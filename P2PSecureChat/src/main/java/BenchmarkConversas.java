@@ -0,0 +1,62 @@
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Classe BenchmarkConversas que mede a memória ocupada por mensagem no histórico em memória.
+ * Compara o {@link ArmazemMemoria} com a representação anterior (um ArrayList por conversa que
+ * alterna o remetente e a mensagem como Strings) através da diferença de heap usado depois de um GC.
+ *
+ * Uso: java -cp target/classes BenchmarkConversas [numeroMensagens] [tamanhoMensagem] [numeroConversas]
+ */
+public class BenchmarkConversas {
+    public static void main(String[] args) {
+        int numeroMensagens = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int tamanhoMensagem = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+        int numeroConversas = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+
+        System.out.printf("%d mensagens de %d carateres em %d conversas%n", numeroMensagens, tamanhoMensagem, numeroConversas);
+
+        long antes = heapUsado();
+        Map<String, List<String>> listas = new HashMap<>();
+        for (int i = 0; i < numeroMensagens; i++) {
+            List<String> conversa = listas.computeIfAbsent("conversa" + (i % numeroConversas), k -> new ArrayList<>());
+            conversa.add(new String("peer" + (i % 7))); // Cada mensagem recebida traz a sua cópia do ID do remetente
+            conversa.add(mensagem(i, tamanhoMensagem));
+        }
+        double bytesListas = (double) (heapUsado() - antes) / numeroMensagens;
+        Reference.reachabilityFence(listas); // As listas têm de continuar vivas durante a medição
+        System.out.printf("%-30s %10.1f bytes/mensagem%n", "ArrayList<String> alternada", bytesListas);
+        listas = null;
+
+        antes = heapUsado();
+        ArmazemMemoria armazem = new ArmazemMemoria();
+        for (int i = 0; i < numeroMensagens; i++) {
+            armazem.acrescentar("conversa" + (i % numeroConversas), new String("peer" + (i % 7)), mensagem(i, tamanhoMensagem));
+        }
+        double bytesArmazem = (double) (heapUsado() - antes) / numeroMensagens;
+        Reference.reachabilityFence(armazem);
+        System.out.printf("%-30s %10.1f bytes/mensagem (arrays reservados: %.1f)%n", "ArmazemMemoria",
+                bytesArmazem, (double) armazem.getBytesReservados() / numeroMensagens);
+        System.out.printf("Texto UTF-8 da mensagem: %d bytes%n", mensagem(0, tamanhoMensagem).length());
+    }
+
+    private static String mensagem(int i, int tamanho) {
+        StringBuilder sb = new StringBuilder(tamanho);
+        sb.append(i).append(' ');
+        while (sb.length() < tamanho) {
+            sb.append('x');
+        }
+        return sb.toString();
+    }
+
+    private static long heapUsado() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,183 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+
+/**
+ * Classe Compressao com a etapa de compressão das mensagens, aplicada ao texto em claro antes da cifra
+ * autenticada e desfeita depois da decifra. Só são comprimidas as mensagens a partir de um tamanho mínimo,
+ * e só quando ficam mais pequenas; o frame indica-o com {@link Frame#FLAG_COMPRIMIDO}.
+ *
+ * Cada conversa (peer ou grupo) pode ter um dicionário partilhado, com texto parecido com o das mensagens,
+ * que melhora muito a compressão de mensagens curtas. O dicionário é identificado pelo seu CRC32, pelo que
+ * o destinatário tem de ter o mesmo dicionário (com qualquer nome) para descomprimir.
+ *
+ * Formato do texto em claro comprimido (inteiros em big-endian):
+ * <pre>
+ *   codec (1) | ID do dicionário (4, 0 sem dicionário) | tamanho original (4) | dados comprimidos
+ * </pre>
+ *
+ * Atenção: comprimir antes de cifrar faz o tamanho da mensagem cifrada depender do seu conteúdo. Se um atacante
+ * conseguir pôr texto seu na mesma mensagem que um segredo e observar os tamanhos, pode descobrir o segredo
+ * (ataques CRIME/BREACH). Por isso a compressão está desligada por omissão.
+ *
+ * Propriedades do sistema: p2p.compressao (codec, ver {@link ModoCompressao}), p2p.compressao.minimoBytes
+ * (por omissão 256) e p2p.compressao.dicionarios (diretório com um ficheiro idConversa.dic por conversa).
+ */
+public class Compressao {
+    // Tamanho do cabeçalho do texto em claro comprimido
+    private static final int CABECALHO = 9;
+
+    // Extensão dos ficheiros de dicionário
+    private static final String EXTENSAO = ".dic";
+
+    private final ModoCompressao modo;
+    private final int minimoBytes;
+
+    // Dicionário de cada conversa, e todos os dicionários conhecidos pelo seu ID (para descomprimir)
+    private final Map<String, byte[]> dicionarios = new ConcurrentHashMap<>();
+    private final Map<Integer, byte[]> dicionariosPorId = new ConcurrentHashMap<>();
+
+    /**
+     * Construtor da classe Compressao.
+     *
+     * @param modo Codec usado no envio
+     * @param minimoBytes Tamanho mínimo (bytes) de uma mensagem para ser comprimida
+     */
+    public Compressao(ModoCompressao modo, int minimoBytes) {
+        this.modo = modo;
+        this.minimoBytes = minimoBytes;
+    }
+
+    /**
+     * Cria a etapa de compressão configurada nas propriedades do sistema. Se os dicionários não puderem ser
+     * lidos, as mensagens são comprimidas sem eles.
+     *
+     * @return Etapa de compressão
+     */
+    public static Compressao doSistema() {
+        Compressao compressao = new Compressao(ModoCompressao.doSistema(), Integer.getInteger("p2p.compressao.minimoBytes", 256));
+        String diretorio = System.getProperty("p2p.compressao.dicionarios");
+        if (diretorio != null) {
+            try {
+                compressao.carregarDicionarios(Paths.get(diretorio));
+            } catch (IOException e) {
+                Logger.aviso("Não foi possível ler os dicionários de compressão: " + e.getMessage());
+            }
+        }
+        return compressao;
+    }
+
+    /**
+     * Carrega os dicionários de um diretório: cada ficheiro idConversa.dic é o dicionário dessa conversa.
+     *
+     * @param diretorio Diretório dos dicionários
+     * @throws IOException Caso o diretório ou um ficheiro não possam ser lidos
+     */
+    public void carregarDicionarios(Path diretorio) throws IOException {
+        try (DirectoryStream<Path> ficheiros = Files.newDirectoryStream(diretorio, "*" + EXTENSAO)) {
+            for (Path ficheiro : ficheiros) {
+                String nome = ficheiro.getFileName().toString();
+                setDicionario(nome.substring(0, nome.length() - EXTENSAO.length()), Files.readAllBytes(ficheiro));
+            }
+        }
+    }
+
+    /**
+     * Define o dicionário partilhado de uma conversa. Os destinatários têm de ter o mesmo dicionário.
+     *
+     * @param idConversa ID do peer ou do grupo
+     * @param dicionario Dicionário (o Deflate usa, no máximo, os últimos 32 KB), ou null para deixar de o usar
+     */
+    public void setDicionario(String idConversa, byte[] dicionario) {
+        if (dicionario == null) {
+            dicionarios.remove(idConversa);
+            return;
+        }
+        dicionarios.put(idConversa, dicionario);
+        dicionariosPorId.put(idDicionario(dicionario), dicionario);
+    }
+
+    public ModoCompressao getModo() {
+        return modo;
+    }
+
+    public int getMinimoBytes() {
+        return minimoBytes;
+    }
+
+    /**
+     * Comprime o texto em claro de uma mensagem, se for maior do que o mínimo e ficar mais pequeno.
+     *
+     * @param idConversa ID do peer ou do grupo (escolhe o dicionário)
+     * @param dados Texto em claro
+     * @return Texto em claro comprimido, com o cabeçalho, ou null se não compensar comprimir
+     */
+    public byte[] comprimir(String idConversa, byte[] dados) {
+        if (modo == ModoCompressao.NENHUMA || dados.length < minimoBytes) {
+            return null;
+        }
+        byte[] dicionario = dicionarios.get(idConversa);
+        byte[] comprimidos = modo.comprimir(dados, dicionario);
+        if (CABECALHO + comprimidos.length >= dados.length) {
+            return null; // Dados incompressíveis (por exemplo, já comprimidos ou cifrados)
+        }
+        return ByteBuffer.allocate(CABECALHO + comprimidos.length)
+                .put(modo.getId())
+                .putInt(dicionario != null ? idDicionario(dicionario) : 0)
+                .putInt(dados.length)
+                .put(comprimidos)
+                .array();
+    }
+
+    /**
+     * Descomprime o texto em claro de uma mensagem recebida, com o codec e o dicionário que ela indica.
+     *
+     * @param comprimido Texto em claro comprimido, com o cabeçalho
+     * @return Texto em claro original
+     * @throws IOException Caso o codec ou o dicionário sejam desconhecidos, ou os dados estejam corrompidos
+     */
+    public byte[] descomprimir(byte[] comprimido) throws IOException {
+        if (comprimido.length < CABECALHO) {
+            throw new IOException("Mensagem comprimida truncada");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(comprimido);
+        ModoCompressao codec = ModoCompressao.doId(buffer.get());
+        int id = buffer.getInt();
+        int tamanhoOriginal = buffer.getInt();
+        if (codec == null || codec == ModoCompressao.NENHUMA) {
+            throw new IOException("Codec de compressão desconhecido: " + comprimido[0]);
+        }
+        if (tamanhoOriginal < 0 || tamanhoOriginal > ProtocoloBinario.TAMANHO_MAXIMO) {
+            throw new IOException("Tamanho original inválido: " + tamanhoOriginal);
+        }
+        byte[] dicionario = null;
+        if (id != 0) {
+            dicionario = dicionariosPorId.get(id);
+            if (dicionario == null) {
+                throw new IOException("Dicionário de compressão desconhecido: " + Integer.toHexString(id));
+            }
+        }
+        byte[] dados = new byte[comprimido.length - CABECALHO];
+        buffer.get(dados);
+        try {
+            return codec.descomprimir(dados, tamanhoOriginal, dicionario);
+        } catch (DataFormatException e) {
+            throw new IOException("Mensagem comprimida inválida: " + e.getMessage(), e);
+        }
+    }
+
+    // ID de um dicionário: o seu CRC32 (nunca 0, que indica que não há dicionário)
+    private static int idDicionario(byte[] dicionario) {
+        CRC32 crc = new CRC32();
+        crc.update(dicionario);
+        int id = (int) crc.getValue();
+        return id != 0 ? id : 1;
+    }
+}
@@ -0,0 +1,468 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Classe ConnectionPool que mantém ligações TCP persistentes para outros peers.
+ * Cada destino (identificado pela sua entrada na DHT) tem no máximo uma ligação aberta,
+ * que é reutilizada por mensagens consecutivas. As ligações são abertas de forma preguiçosa,
+ * reabertas quando falham e fechadas quando ficam inativas durante demasiado tempo.
+ * Ao abrir uma ligação pela primeira vez para um peer são negociadas as capacidades
+ * ({@link Negociacao}), que decidem o formato (binário ou texto) em que os frames são escritos.
+ * Um peer antigo (que não responde ao HELLO) lê cada ligação aceite até ao fim na sua única thread de
+ * aceitação: com ele, como antes, cada frame usa uma ligação nova fechada logo depois da escrita, e o
+ * resultado da negociação fica guardado para não voltar a esperar pelo HELLO.
+ */
+public class ConnectionPool {
+    // Tempo máximo (ms), por omissão, para estabelecer uma ligação TCP
+    public static final int TIMEOUT_LIGACAO_MS = 3000;
+
+    // Prazo (System.nanoTime) dos envios sem tempo máximo
+    public static final long SEM_PRAZO = Long.MAX_VALUE;
+
+    // Tempo de inatividade (ms) a partir do qual se verifica se o outro lado fechou a ligação antes de a reutilizar
+    private static final long VERIFICAR_APOS_INATIVIDADE_MS = 1000;
+
+    // Tempo máximo (ms) que uma ligação pode ficar inativa antes de ser fechada
+    private final long tempoMaximoInativoMs;
+
+    // Ligações por ID do peer destinatário
+    private final Map<String, Ligacao> ligacoes = new ConcurrentHashMap<>();
+
+    // Cache de endereços já resolvidos, para evitar uma consulta de DNS por mensagem
+    private final Map<InetSocketAddress, InetSocketAddress> enderecosResolvidos = new ConcurrentHashMap<>();
+
+    // Tarefa periódica que fecha as ligações inativas
+    private final ScheduledExecutorService limpeza;
+
+    // Tempo máximo (ms) para estabelecer uma ligação TCP
+    private volatile int timeoutLigacaoMs = TIMEOUT_LIGACAO_MS;
+
+    // Ligações abertas com sucesso, tentativas falhadas e bytes escritos desde a criação (para as métricas)
+    private final LongAdder aberturas = new LongAdder();
+    private final LongAdder falhasLigacao = new LongAdder();
+    private final LongAdder bytesEnviados = new LongAdder();
+
+    /**
+     * Construtor da classe ConnectionPool.
+     *
+     * @param tempoMaximoInativoMs Tempo máximo (ms) que uma ligação pode ficar inativa antes de ser fechada
+     */
+    public ConnectionPool(long tempoMaximoInativoMs) {
+        this.tempoMaximoInativoMs = tempoMaximoInativoMs;
+        this.limpeza = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-limpeza");
+            t.setDaemon(true); // Não impede a JVM de terminar
+            return t;
+        });
+        long periodo = Math.max(1, tempoMaximoInativoMs / 2);
+        limpeza.scheduleAtFixedRate(this::fecharInativas, periodo, periodo, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Envia um frame para o peer especificado, reutilizando a ligação existente.
+     * O frame é escrito no formato binário se o peer o suportar, ou no formato de texto antigo caso contrário.
+     * Se a ligação não existir ou tiver falhado, é (re)aberta e o envio é repetido uma vez.
+     *
+     * @param idPeer ID do peer destinatário (chave da DHT)
+     * @param endereco Endereço do peer registado na DHT
+     * @param frame Frame a enviar
+     * @throws IOException Caso não seja possível entregar o frame ao peer
+     */
+    public void enviar(String idPeer, InetSocketAddress endereco, Frame frame) throws IOException {
+        enviar(idPeer, endereco, frame, SEM_PRAZO);
+    }
+
+    /**
+     * Envia um frame para o peer especificado até um prazo. A abertura da ligação, a negociação e a escrita
+     * terminam no prazo, e depois dele o envio nunca é repetido: um envio abortado ({@link #abortar(String)})
+     * não chega ao peer mais tarde.
+     *
+     * @param idPeer ID do peer destinatário (chave da DHT)
+     * @param endereco Endereço do peer registado na DHT
+     * @param frame Frame a enviar
+     * @param prazo Instante (System.nanoTime) até ao qual o envio pode ser feito, ou {@link #SEM_PRAZO}
+     * @throws IOException Caso não seja possível entregar o frame ao peer, ou o prazo tenha passado
+     */
+    public void enviar(String idPeer, InetSocketAddress endereco, Frame frame, long prazo) throws IOException {
+        Ligacao ligacao = ligacoes.computeIfAbsent(idPeer, k -> new Ligacao());
+        ligacao.lock.lock();
+        try {
+            IOException ultimoErro = null;
+            for (int tentativa = 0; tentativa < 2; tentativa++) {
+                try {
+                    if (!ligacao.utilizavel(endereco)) {
+                        ligacao.fechar();
+                        abrir(ligacao, endereco, prazo);
+                    }
+                    restanteMs(prazo);
+                    byte[] bytes = frame.codificar(ligacao.capacidades.contains(Negociacao.BINARIO));
+                    ligacao.out.write(bytes);
+                    ligacao.out.flush();
+                    bytesEnviados.add(bytes.length);
+                    ligacao.ultimoUso = System.currentTimeMillis();
+                    if (ligacao.capacidades.isEmpty()) {
+                        ligacao.fechar(); // Peer antigo: liberta a sua thread de aceitação para os outros remetentes
+                    }
+                    return;
+                } catch (IOException e) {
+                    ultimoErro = e;
+                }
+                ligacao.fechar(); // Descarta a ligação e tenta novamente com uma nova
+                if (prazo != SEM_PRAZO && System.nanoTime() - prazo >= 0) {
+                    break; // Depois do prazo (por exemplo, num envio abortado) o envio não é repetido
+                }
+            }
+            throw ultimoErro;
+        } finally {
+            ligacao.lock.unlock();
+        }
+    }
+
+    /**
+     * Obtém as capacidades de um peer, abrindo (e negociando) a ligação se ainda não forem conhecidas.
+     * Permite ao remetente escolher o modo de cifra antes de construir o frame.
+     *
+     * @param idPeer ID do peer destinatário (chave da DHT)
+     * @param endereco Endereço do peer registado na DHT
+     * @return Capacidades negociadas (vazio para peers antigos)
+     * @throws IOException Caso não seja possível ligar ao peer
+     */
+    public Set<String> capacidades(String idPeer, InetSocketAddress endereco) throws IOException {
+        return capacidades(idPeer, endereco, SEM_PRAZO);
+    }
+
+    /**
+     * Obtém as capacidades de um peer, abrindo (e negociando) a ligação até um prazo se ainda não forem conhecidas.
+     *
+     * @param idPeer ID do peer destinatário (chave da DHT)
+     * @param endereco Endereço do peer registado na DHT
+     * @param prazo Instante (System.nanoTime) até ao qual a ligação pode ser aberta, ou {@link #SEM_PRAZO}
+     * @return Capacidades negociadas (vazio para peers antigos)
+     * @throws IOException Caso não seja possível ligar ao peer até ao prazo
+     */
+    public Set<String> capacidades(String idPeer, InetSocketAddress endereco, long prazo) throws IOException {
+        Ligacao ligacao = ligacoes.computeIfAbsent(idPeer, k -> new Ligacao());
+        Set<String> capacidades = ligacao.capacidades;
+        if (capacidades != null) {
+            return capacidades;
+        }
+        ligacao.lock.lock();
+        try {
+            if (ligacao.capacidades == null) {
+                ligacao.fechar();
+                abrir(ligacao, endereco, prazo);
+                if (ligacao.capacidades.isEmpty()) {
+                    ligacao.fechar(); // Peer antigo: o frame vai numa ligação nova, sem nova negociação
+                }
+            }
+            return ligacao.capacidades;
+        } finally {
+            ligacao.lock.unlock();
+        }
+    }
+
+    // Abre uma ligação (com o lock da ligação) até ao prazo e conta o resultado
+    private void abrir(Ligacao ligacao, InetSocketAddress endereco, long prazo) throws IOException {
+        try {
+            InetSocketAddress resolvido = resolver(endereco); // A consulta de DNS não pode ser interrompida
+            ligacao.abrir(endereco, resolvido, prazo, Math.min(timeoutLigacaoMs, restanteMs(prazo)));
+            aberturas.increment();
+        } catch (IOException e) {
+            falhasLigacao.increment();
+            throw e;
+        }
+    }
+
+    /**
+     * Descarta a ligação e o endereço em cache de um peer, por exemplo quando o seu endereço na DHT muda.
+     *
+     * @param idPeer ID do peer
+     */
+    public void invalidar(String idPeer) {
+        Ligacao ligacao = ligacoes.get(idPeer);
+        if (ligacao != null) {
+            ligacao.lock.lock();
+            try {
+                if (ligacao.endereco != null) {
+                    enderecosResolvidos.remove(ligacao.endereco);
+                }
+                ligacao.fechar();
+                ligacao.capacidades = null; // O peer pode ter mudado de versão
+            } finally {
+                ligacao.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Fecha imediatamente a ligação de um peer, ou a que está a ser aberta, sem esperar pelo lock.
+     * Usado quando um envio com prazo ({@link #enviar(String, InetSocketAddress, Frame, long)}) o excede: a thread
+     * bloqueada na ligação, na negociação ou na escrita recebe uma exceção e, com o prazo passado, não repete o envio.
+     *
+     * @param idPeer ID do peer
+     */
+    public void abortar(String idPeer) {
+        Ligacao ligacao = ligacoes.get(idPeer);
+        if (ligacao != null) {
+            fecharSocket(ligacao.aAbrir);
+            fecharSocket(ligacao.socket);
+        }
+    }
+
+    private static void fecharSocket(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignorado: a ligação vai ser descartada pela thread que a usa
+            }
+        }
+    }
+
+    // Tempo (ms) que falta até ao prazo; lança SocketTimeoutException se já tiver passado
+    private static int restanteMs(long prazo) throws SocketTimeoutException {
+        if (prazo == SEM_PRAZO) {
+            return Integer.MAX_VALUE;
+        }
+        long restante = TimeUnit.NANOSECONDS.toMillis(prazo - System.nanoTime());
+        if (restante <= 0) {
+            throw new SocketTimeoutException("Prazo do envio excedido");
+        }
+        return (int) Math.min(restante, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Define o tempo máximo para estabelecer uma ligação TCP.
+     *
+     * @param timeoutLigacaoMs Tempo máximo (ms)
+     */
+    public void setTimeoutLigacaoMs(int timeoutLigacaoMs) {
+        this.timeoutLigacaoMs = timeoutLigacaoMs;
+    }
+
+    /**
+     * Obtém o tempo máximo para estabelecer uma ligação TCP.
+     *
+     * @return Tempo máximo (ms)
+     */
+    public int getTimeoutLigacaoMs() {
+        return timeoutLigacaoMs;
+    }
+
+    /**
+     * Fecha todas as ligações e termina a tarefa de limpeza.
+     */
+    public void fechar() {
+        limpeza.shutdownNow();
+        for (Ligacao ligacao : ligacoes.values()) {
+            ligacao.lock.lock();
+            try {
+                ligacao.fechar();
+            } finally {
+                ligacao.lock.unlock();
+            }
+        }
+        ligacoes.clear();
+    }
+
+    /**
+     * Obtém as capacidades negociadas com um peer.
+     *
+     * @param idPeer ID do peer
+     * @return Capacidades do peer, ou null se ainda não tiverem sido negociadas
+     */
+    public Set<String> getCapacidades(String idPeer) {
+        Ligacao ligacao = ligacoes.get(idPeer);
+        return ligacao == null ? null : ligacao.capacidades;
+    }
+
+    /**
+     * Obtém o número de ligações atualmente abertas.
+     *
+     * @return Número de ligações abertas
+     */
+    public int getLigacoesAbertas() {
+        int abertas = 0;
+        for (Ligacao ligacao : ligacoes.values()) {
+            if (ligacao.socket != null) {
+                abertas++;
+            }
+        }
+        return abertas;
+    }
+
+    /**
+     * Obtém o número de ligações abertas com sucesso desde a criação do pool (incluindo as reaberturas).
+     *
+     * @return Ligações abertas
+     */
+    public long getAberturas() {
+        return aberturas.sum();
+    }
+
+    /**
+     * Obtém o número de tentativas de ligação falhadas (ligação recusada, tempo esgotado ou negociação falhada).
+     *
+     * @return Tentativas falhadas
+     */
+    public long getFalhasLigacao() {
+        return falhasLigacao.sum();
+    }
+
+    /**
+     * Obtém o número de bytes de frames escritos nas ligações.
+     *
+     * @return Bytes enviados
+     */
+    public long getBytesEnviados() {
+        return bytesEnviados.sum();
+    }
+
+    // Resolve o endereço uma única vez e guarda o resultado em cache
+    private InetSocketAddress resolver(InetSocketAddress endereco) throws IOException {
+        InetSocketAddress resolvido = enderecosResolvidos.get(endereco);
+        if (resolvido == null) {
+            resolvido = endereco.isUnresolved()
+                    ? new InetSocketAddress(endereco.getHostString(), endereco.getPort())
+                    : endereco;
+            if (resolvido.isUnresolved()) {
+                throw new IOException("Não foi possível resolver o endereço " + endereco);
+            }
+            enderecosResolvidos.put(endereco, resolvido);
+        }
+        return resolvido;
+    }
+
+    // Fecha as ligações que estão inativas há mais tempo do que o permitido
+    private void fecharInativas() {
+        long agora = System.currentTimeMillis();
+        for (Ligacao ligacao : ligacoes.values()) {
+            if (ligacao.socket != null && agora - ligacao.ultimoUso > tempoMaximoInativoMs
+                    && ligacao.lock.tryLock()) { // Uma ligação ocupada não está inativa
+                try {
+                    if (ligacao.socket != null && agora - ligacao.ultimoUso > tempoMaximoInativoMs) {
+                        ligacao.fechar();
+                    }
+                } finally {
+                    ligacao.lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Ligação persistente para um peer. Todos os acessos são feitos com o lock da ligação.
+     * É usado um ReentrantLock (e não synchronized) para que uma thread virtual bloqueada
+     * na escrita não prenda a thread da plataforma que a executa.
+     */
+    private static final class Ligacao {
+        final ReentrantLock lock = new ReentrantLock();
+        InetSocketAddress endereco; // Endereço (tal como registado na DHT) usado para abrir a ligação
+        volatile Socket socket; // Lido sem lock pela tarefa de limpeza
+        volatile Socket aAbrir; // Socket em ligação ou negociação, para que abortar() o possa fechar
+        OutputStream out;
+        volatile long ultimoUso;
+        volatile Set<String> capacidades; // Capacidades negociadas com o peer (null enquanto desconhecidas)
+
+        // Abre uma nova ligação para o endereço resolvido, negociando as capacidades se ainda não forem conhecidas
+        void abrir(InetSocketAddress endereco, InetSocketAddress resolvido, long prazo, int timeoutLigacaoMs) throws IOException {
+            Socket novo = new Socket();
+            aAbrir = novo;
+            try {
+                novo.setTcpNoDelay(true); // Mensagens pequenas não devem esperar pelo algoritmo de Nagle
+                novo.connect(resolvido, timeoutLigacaoMs);
+                out = new BufferedOutputStream(novo.getOutputStream());
+                if (capacidades == null) {
+                    capacidades = negociar(novo, out, prazo);
+                }
+                this.socket = novo; // Antes de limpar aAbrir, para que abortar() encontre sempre o socket
+            } catch (IOException e) {
+                novo.close();
+                throw e;
+            } finally {
+                aAbrir = null;
+            }
+            this.endereco = endereco;
+            this.ultimoUso = System.currentTimeMillis();
+        }
+
+        // Verifica se a ligação atual pode ser reutilizada para o endereço pedido
+        boolean utilizavel(InetSocketAddress enderecoPedido) {
+            if (socket == null || socket.isClosed() || !enderecoPedido.equals(endereco)) {
+                return false;
+            }
+            if (System.currentTimeMillis() - ultimoUso < VERIFICAR_APOS_INATIVIDADE_MS) {
+                return true;
+            }
+            // Depois da negociação o peer remoto nunca escreve nesta ligação: ler -1 significa que a fechou
+            try {
+                socket.setSoTimeout(1);
+                return socket.getInputStream().read() != -1;
+            } catch (SocketTimeoutException e) {
+                return true; // Nada para ler, a ligação continua aberta
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        // Envia o HELLO e espera pela resposta; um peer antigo não responde e fica com o formato de texto.
+        // Se o prazo do envio terminar antes do tempo da negociação, a falta de resposta não prova que o peer é antigo
+        private static Set<String> negociar(Socket socket, OutputStream out, long prazo) throws IOException {
+            out.write((Negociacao.linhaHello(Negociacao.capacidadesLocais()) + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            int restante = restanteMs(prazo);
+            if (restante < Negociacao.TIMEOUT_MS) {
+                socket.setSoTimeout(restante);
+                return lerHello(socket, true);
+            }
+            socket.setSoTimeout(Negociacao.TIMEOUT_MS);
+            return lerHello(socket, false);
+        }
+
+        private static Set<String> lerHello(Socket socket, boolean limitadoPeloPrazo) throws IOException {
+            try {
+                InputStream in = socket.getInputStream();
+                ByteArrayOutputStream linha = new ByteArrayOutputStream();
+                int b;
+                while ((b = in.read()) != -1 && b != '\n' && linha.size() < 1024) {
+                    linha.write(b);
+                }
+                Set<String> remotas = Negociacao.lerHello(linha.toString(StandardCharsets.UTF_8));
+                return remotas != null ? remotas : Collections.emptySet();
+            } catch (SocketTimeoutException e) {
+                if (limitadoPeloPrazo) {
+                    throw e;
+                }
+                return Collections.emptySet(); // Peer antigo: usa apenas o formato de texto
+            }
+        }
+
+        void fechar() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Ignorado: a ligação vai ser descartada de qualquer forma
+                }
+            }
+            socket = null;
+            out = null;
+        }
+    }
+}
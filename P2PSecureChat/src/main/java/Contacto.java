@@ -0,0 +1,14 @@
+import java.net.InetSocketAddress;
+import java.security.PublicKey;
+
+/**
+ * Registo Contacto com o que a DHT guarda sobre um Peer: o seu ID, o identificador do nó (SHA-1 do ID),
+ * o endereço (a mesma porta serve as mensagens em TCP e a DHT em UDP) e a chave pública de identidade.
+ *
+ * @param idPeer ID do Peer
+ * @param id Identificador do nó na DHT
+ * @param endereco Endereço do Peer
+ * @param chavePublica Chave pública de identidade do Peer
+ */
+public record Contacto(String idPeer, IdNo id, InetSocketAddress endereco, PublicKey chavePublica) {
+}
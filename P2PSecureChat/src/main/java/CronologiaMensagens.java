@@ -0,0 +1,106 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Classe CronologiaMensagens que junta os eventos JFR de cada mensagem ({@link EventosMensagem}) a partir
+ * de uma ou mais gravações (por exemplo, a do remetente e a do destinatário) pelo ID de correlação, e
+ * mostra a cronologia das mensagens mais lentas ou de uma mensagem escolhida.
+ * Os instantes dos eventos são os do relógio de cada máquina: entre máquinas diferentes, o intervalo entre
+ * a escrita no remetente e a receção no destinatário só é exato com os relógios sincronizados.
+ *
+ * Uso: java -cp bin CronologiaMensagens ficheiro.jfr... [--id idCorrelacao] [--lentas N]
+ */
+public class CronologiaMensagens {
+    // Prefixo dos nomes dos eventos das mensagens
+    private static final String PREFIXO = "p2p.";
+
+    public static void main(String[] args) throws IOException {
+        List<Path> ficheiros = new ArrayList<>();
+        Long id = null;
+        int lentas = 10;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--id" -> id = Long.parseLong(args[++i]);
+                case "--lentas" -> lentas = Integer.parseInt(args[++i]);
+                default -> ficheiros.add(Paths.get(args[i]));
+            }
+        }
+        if (ficheiros.isEmpty()) {
+            System.err.println("Uso: CronologiaMensagens ficheiro.jfr... [--id idCorrelacao] [--lentas N]");
+            System.exit(2);
+        }
+
+        Map<Long, List<RecordedEvent>> mensagens = ler(ficheiros);
+        System.out.println(mensagens.size() + " mensagens com ID de correlação em " + ficheiros.size() + " gravações");
+        if (id != null) {
+            List<RecordedEvent> eventos = mensagens.get(id);
+            if (eventos == null) {
+                System.out.println("Não há eventos da mensagem " + id);
+            } else {
+                imprimir(id, eventos);
+            }
+            return;
+        }
+
+        // As mensagens mais lentas, do início do primeiro evento ao fim do último
+        List<Map.Entry<Long, List<RecordedEvent>>> ordenadas = new ArrayList<>(mensagens.entrySet());
+        ordenadas.sort(Comparator.comparing((Map.Entry<Long, List<RecordedEvent>> e) -> duracao(e.getValue())).reversed());
+        for (int i = 0; i < Math.min(lentas, ordenadas.size()); i++) {
+            imprimir(ordenadas.get(i).getKey(), ordenadas.get(i).getValue());
+        }
+    }
+
+    // Lê os eventos das mensagens de todas as gravações, agrupados pelo ID de correlação
+    private static Map<Long, List<RecordedEvent>> ler(List<Path> ficheiros) throws IOException {
+        Map<Long, List<RecordedEvent>> mensagens = new HashMap<>();
+        for (Path ficheiro : ficheiros) {
+            try (RecordingFile gravacao = new RecordingFile(ficheiro)) {
+                while (gravacao.hasMoreEvents()) {
+                    RecordedEvent evento = gravacao.readEvent();
+                    if (!evento.getEventType().getName().startsWith(PREFIXO) || !evento.hasField("idCorrelacao")) {
+                        continue;
+                    }
+                    long id = evento.getLong("idCorrelacao");
+                    if (id != 0) {
+                        mensagens.computeIfAbsent(id, k -> new ArrayList<>()).add(evento);
+                    }
+                }
+            }
+        }
+        return mensagens;
+    }
+
+    private static Duration duracao(List<RecordedEvent> eventos) {
+        Instant inicio = eventos.stream().map(RecordedEvent::getStartTime).min(Comparator.naturalOrder()).orElseThrow();
+        Instant fim = eventos.stream().map(RecordedEvent::getEndTime).max(Comparator.naturalOrder()).orElseThrow();
+        return Duration.between(inicio, fim);
+    }
+
+    // Uma linha por evento, por ordem de início, com o instante relativo ao primeiro e a duração em ms
+    private static void imprimir(long id, List<RecordedEvent> eventos) {
+        eventos.sort(Comparator.comparing(RecordedEvent::getStartTime));
+        Instant inicio = eventos.get(0).getStartTime();
+        System.out.printf("%nMensagem %d: %.3f ms%n", id, duracao(eventos).toNanos() / 1e6);
+        for (RecordedEvent evento : eventos) {
+            String grupo = evento.getString("idGrupo");
+            System.out.printf("  +%9.3f ms  %9.3f ms  %-17s %s com %s%s  %d B%n",
+                    Duration.between(inicio, evento.getStartTime()).toNanos() / 1e6,
+                    evento.getDuration().toNanos() / 1e6,
+                    evento.getEventType().getLabel(),
+                    evento.getString("idPeer"),
+                    evento.getString("idRemoto"),
+                    grupo == null || grupo.isEmpty() ? "" : " [" + grupo + "]",
+                    evento.getLong("tamanho"));
+        }
+    }
+}
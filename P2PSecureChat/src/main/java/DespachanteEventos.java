@@ -0,0 +1,246 @@
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Classe DespachanteEventos que entrega as notificações de novas mensagens, novos peers e novos grupos
+ * aos {@link PeerGUIListener} numa thread própria, para que a receção de mensagens não espere pela interface gráfica.
+ *
+ * As notificações pendentes são agrupadas por conversa: várias mensagens da mesma conversa que chegam
+ * antes da entrega seguinte dão origem a uma única notificação, com a última mensagem. As entregas são
+ * feitas em lotes, no máximo um por intervalo (por omissão 16 ms, cerca de uma imagem a 60 Hz).
+ * A fila é limitada a {@link #CAPACIDADE} conversas pendentes; quem publica nunca bloqueia, e as
+ * notificações de conversas novas que não cabem na fila são descartadas (e contadas).
+ * Os novos peers e grupos nunca são descartados (cada um é notificado uma única vez), pelo que os
+ * ouvintes podem manter as suas listas apenas com estas diferenças, sem voltar a ler tudo.
+ */
+public class DespachanteEventos {
+    // Nome da propriedade de sistema com o intervalo mínimo entre entregas, em milissegundos
+    public static final String PROPRIEDADE_INTERVALO = "p2p.intervaloEventosMs";
+
+    // Número máximo de conversas com notificações pendentes
+    static final int CAPACIDADE = 1024;
+
+    private final List<PeerGUIListener> listeners;
+    private final long intervaloNanos;
+
+    // Notificações pendentes: conversa -> última mensagem (protegido pelo lock deste objeto)
+    private Map<String, String> pendentes = new LinkedHashMap<>();
+    private Set<String> peersPendentes = new LinkedHashSet<>();
+    private Set<String> gruposPendentes = new LinkedHashSet<>();
+    private Thread thread;
+    private boolean parado;
+
+    private final LongAdder publicados = new LongAdder();
+    private final LongAdder coalescidos = new LongAdder();
+    private final LongAdder descartados = new LongAdder();
+    private final LongAdder lotes = new LongAdder();
+
+    /**
+     * Construtor da classe DespachanteEventos com o intervalo da propriedade {@value #PROPRIEDADE_INTERVALO}.
+     *
+     * @param listeners Lista (partilhada) dos ouvintes a notificar
+     */
+    public DespachanteEventos(List<PeerGUIListener> listeners) {
+        this(listeners, Long.getLong(PROPRIEDADE_INTERVALO, 16));
+    }
+
+    /**
+     * Construtor da classe DespachanteEventos.
+     *
+     * @param listeners Lista (partilhada) dos ouvintes a notificar
+     * @param intervaloMs Intervalo mínimo entre duas entregas, em milissegundos
+     */
+    public DespachanteEventos(List<PeerGUIListener> listeners, long intervaloMs) {
+        this.listeners = listeners;
+        this.intervaloNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, intervaloMs));
+    }
+
+    /**
+     * Publica a notificação de uma nova mensagem. Não bloqueia: a entrega é feita pela thread do despachante.
+     *
+     * @param idConversa ID da conversa (peer ou grupo)
+     * @param mensagem Mensagem recebida ou enviada
+     */
+    public void publicar(String idConversa, String mensagem) {
+        if (listeners.isEmpty()) {
+            return; // Ninguém a notificar (por exemplo, um peer sem interface gráfica)
+        }
+        publicados.increment();
+        synchronized (this) {
+            if (parado) {
+                return;
+            }
+            if (pendentes.containsKey(idConversa)) {
+                coalescidos.increment(); // Já há uma notificação pendente desta conversa: fica só a última mensagem
+            } else if (pendentes.size() >= CAPACIDADE) {
+                descartados.increment();
+                return;
+            }
+            pendentes.put(idConversa, mensagem);
+            acordar();
+        }
+    }
+
+    /**
+     * Publica o registo de um peer que ainda não era conhecido. Não bloqueia.
+     *
+     * @param idPeer ID do novo peer
+     */
+    public void publicarPeer(String idPeer) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            if (!parado && peersPendentes.add(idPeer)) {
+                acordar();
+            }
+        }
+    }
+
+    /**
+     * Publica a entrada num grupo que ainda não era conhecido. Não bloqueia.
+     *
+     * @param idGrupo ID do novo grupo
+     */
+    public void publicarGrupo(String idGrupo) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            if (!parado && gruposPendentes.add(idGrupo)) {
+                acordar();
+            }
+        }
+    }
+
+    // Inicia a thread do despachante na primeira publicação, ou acorda-a (chamado com o lock deste objeto)
+    private void acordar() {
+        if (thread == null) {
+            thread = Thread.ofPlatform().daemon().name("despachante-eventos").start(this::entregar);
+        } else {
+            notify();
+        }
+    }
+
+    // Indica se há notificações por entregar (chamado com o lock deste objeto)
+    private boolean haPendentes() {
+        return !pendentes.isEmpty() || !peersPendentes.isEmpty() || !gruposPendentes.isEmpty();
+    }
+
+    /**
+     * Para a thread do despachante; as notificações ainda pendentes são descartadas.
+     */
+    public void parar() {
+        synchronized (this) {
+            parado = true;
+            pendentes = new LinkedHashMap<>();
+            peersPendentes = new LinkedHashSet<>();
+            gruposPendentes = new LinkedHashSet<>();
+            notify();
+        }
+    }
+
+    // Ciclo da thread do despachante: espera por notificações e entrega-as em lotes, respeitando o intervalo
+    private void entregar() {
+        long proximaEntrega = System.nanoTime();
+        while (true) {
+            Map<String, String> lote;
+            Set<String> peers;
+            Set<String> grupos;
+            try {
+                synchronized (this) {
+                    while (!haPendentes() && !parado) {
+                        wait();
+                    }
+                    if (parado) {
+                        return;
+                    }
+                }
+                long espera = proximaEntrega - System.nanoTime();
+                if (espera > 0) {
+                    TimeUnit.NANOSECONDS.sleep(espera); // Entretanto, as novas mensagens juntam-se ao lote
+                }
+                synchronized (this) {
+                    if (parado) {
+                        return;
+                    }
+                    lote = pendentes;
+                    pendentes = new LinkedHashMap<>();
+                    peers = peersPendentes;
+                    peersPendentes = new LinkedHashSet<>();
+                    grupos = gruposPendentes;
+                    gruposPendentes = new LinkedHashSet<>();
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            proximaEntrega = System.nanoTime() + intervaloNanos;
+            lotes.increment();
+            EventosMensagem.NotificacaoInterface notificacao = new EventosMensagem.NotificacaoInterface();
+            notificacao.begin();
+            for (PeerGUIListener listener : listeners) {
+                try {
+                    // Primeiro o diretório, para que as conversas das mensagens já tenham o seu peer ou grupo
+                    if (!peers.isEmpty()) {
+                        listener.onPeersAdded(peers);
+                    }
+                    if (!grupos.isEmpty()) {
+                        listener.onGroupsAdded(grupos);
+                    }
+                    if (!lote.isEmpty()) {
+                        listener.onNewMessages(lote);
+                    }
+                } catch (RuntimeException e) {
+                    e.printStackTrace(); // Um ouvinte com erro não impede a entrega aos outros
+                }
+            }
+            if (notificacao.shouldCommit()) {
+                notificacao.conversas = lote.size();
+                notificacao.peers = peers.size();
+                notificacao.grupos = grupos.size();
+                notificacao.commit();
+            }
+        }
+    }
+
+    /**
+     * Obtém o número de notificações publicadas.
+     *
+     * @return Notificações publicadas
+     */
+    public long getPublicados() {
+        return publicados.sum();
+    }
+
+    /**
+     * Obtém o número de notificações juntadas a uma notificação pendente da mesma conversa.
+     *
+     * @return Notificações coalescidas
+     */
+    public long getCoalescidos() {
+        return coalescidos.sum();
+    }
+
+    /**
+     * Obtém o número de notificações descartadas por a fila estar cheia.
+     *
+     * @return Notificações descartadas
+     */
+    public long getDescartados() {
+        return descartados.sum();
+    }
+
+    /**
+     * Obtém o número de lotes entregues aos ouvintes.
+     *
+     * @return Lotes entregues
+     */
+    public long getLotes() {
+        return lotes.sum();
+    }
+}
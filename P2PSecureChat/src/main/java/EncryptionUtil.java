@@ -8,15 +8,37 @@ public class EncryptionUtil {
     private static final String ALGORITHM = "AES";
 
     public static byte[] encrypt(byte[] data, SecretKey key) throws GeneralSecurityException {
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
-        cipher.init(Cipher.ENCRYPT_MODE, key);
-        return cipher.doFinal(data);
+        return MotorCripto.executar(ALGORITHM, Cipher.ENCRYPT_MODE, key, data);
     }
 
     public static byte[] decrypt(byte[] data, SecretKey key) throws GeneralSecurityException {
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
-        cipher.init(Cipher.DECRYPT_MODE, key);
-        return cipher.doFinal(data);
+        return MotorCripto.executar(ALGORITHM, Cipher.DECRYPT_MODE, key, data);
+    }
+
+    /**
+     * Cifra e autentica os dados com AES-GCM (confidencialidade e integridade numa única passagem).
+     *
+     * @param data Dados a cifrar
+     * @param key Chave AES
+     * @param associatedData Dados autenticados mas não cifrados, ou null
+     * @return nonce seguido do texto cifrado e da tag de autenticação
+     * @throws GeneralSecurityException Caso ocorra um erro durante a cifra
+     */
+    public static byte[] encryptAead(byte[] data, SecretKey key, byte[] associatedData) throws GeneralSecurityException {
+        return MotorCripto.cifrarAead(key, associatedData, data);
+    }
+
+    /**
+     * Verifica e decifra dados cifrados com {@link #encryptAead(byte[], SecretKey, byte[])}.
+     *
+     * @param data nonce seguido do texto cifrado e da tag de autenticação
+     * @param key Chave AES
+     * @param associatedData Os mesmos dados associados usados na cifra, ou null
+     * @return Dados decifrados
+     * @throws GeneralSecurityException Caso a autenticação falhe ou ocorra um erro durante a decifra
+     */
+    public static byte[] decryptAead(byte[] data, SecretKey key, byte[] associatedData) throws GeneralSecurityException {
+        return MotorCripto.decifrarAead(key, associatedData, data);
     }
 
     public static SecretKey generateKey() throws GeneralSecurityException {
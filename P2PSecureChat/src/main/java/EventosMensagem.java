@@ -0,0 +1,139 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Classe EventosMensagem com os eventos do JDK Flight Recorder (JFR) emitidos pelo Peer em cada etapa do
+ * envio e da receção de uma mensagem. Cada evento tem a duração da etapa e o ID de correlação da mensagem,
+ * que viaja no frame ({@link Frame#getIdCorrelacao()}), de forma que as etapas de uma mensagem no remetente
+ * e no destinatário podem ser juntadas a partir das gravações dos dois peers ({@link CronologiaMensagens}).
+ *
+ * Com o JFR desligado, criar, iniciar e terminar um evento não tem efeito (o JIT elimina o objeto).
+ * Os eventos não guardam a pilha de chamadas, que é a parte mais cara de um evento.
+ *
+ * Uso: java -XX:StartFlightRecording=filename=peer.jfr -cp bin PeerDaemon ...
+ *      jfr print --events 'p2p.*' peer.jfr
+ */
+public final class EventosMensagem {
+    private EventosMensagem() {
+    }
+
+    /**
+     * Etapa do envio ou da receção de uma mensagem.
+     */
+    @Category({"P2PSecureChat", "Mensagens"})
+    @StackTrace(false)
+    abstract static class Etapa extends Event {
+        @Label("ID de correlação")
+        @Description("Igual no remetente e no destinatário; 0 se o frame não o trouxer (formato de texto antigo)")
+        long idCorrelacao;
+
+        @Label("Peer")
+        String idPeer;
+
+        @Label("Peer remoto")
+        @Description("Destinatário no envio, remetente na receção")
+        String idRemoto;
+
+        @Label("Grupo")
+        String idGrupo;
+
+        @Label("Tamanho do payload")
+        @DataAmount
+        long tamanho;
+
+        /**
+         * Termina a etapa e grava o evento, se estiver ativo na gravação.
+         *
+         * @param idCorrelacao ID de correlação da mensagem
+         * @param idPeer ID deste Peer
+         * @param idRemoto ID do outro Peer
+         * @param idGrupo ID do grupo, ou "" para mensagens privadas
+         * @param tamanho Tamanho do payload (cifrado) em bytes
+         */
+        void terminar(long idCorrelacao, String idPeer, String idRemoto, String idGrupo, long tamanho) {
+            if (shouldCommit()) {
+                this.idCorrelacao = idCorrelacao;
+                this.idPeer = idPeer;
+                this.idRemoto = idRemoto;
+                this.idGrupo = idGrupo;
+                this.tamanho = tamanho;
+                commit();
+            }
+        }
+    }
+
+    @Name("p2p.Envio")
+    @Label("Envio")
+    @Description("Envio de uma mensagem a um peer: procura, acordo de chaves, ligação, cifra e escrita")
+    static final class Envio extends Etapa {
+        @Label("Entregue")
+        boolean entregue;
+    }
+
+    @Name("p2p.AcordoChaves")
+    @Label("Acordo de chaves")
+    @Description("Acordo de chaves (X25519 ou Diffie-Hellman) com um peer sem chave simétrica")
+    static final class AcordoChaves extends Etapa {
+    }
+
+    @Name("p2p.Ligacao")
+    @Label("Ligação")
+    @Description("Obtenção da ligação ao peer, com a abertura e a negociação se ainda não estiver aberta")
+    static final class Ligacao extends Etapa {
+    }
+
+    @Name("p2p.Cifra")
+    @Label("Cifra")
+    @Description("Compressão (se estiver ligada) e cifra da mensagem, ou cifra e hash SHA-256 com peers antigos")
+    static final class Cifra extends Etapa {
+    }
+
+    @Name("p2p.Escrita")
+    @Label("Escrita")
+    @Description("Escrita do frame na ligação e flush")
+    static final class Escrita extends Etapa {
+    }
+
+    @Name("p2p.Rececao")
+    @Label("Receção")
+    @Description("Processamento de um frame recebido: acordo de chaves, decifra, verificação e armazenamento")
+    static final class Rececao extends Etapa {
+    }
+
+    @Name("p2p.Decifra")
+    @Label("Decifra")
+    @Description("Decifra e verificação da integridade (tag AES-GCM ou hash SHA-256), e descompressão")
+    static final class Decifra extends Etapa {
+    }
+
+    @Name("p2p.Armazenamento")
+    @Label("Armazenamento")
+    @Description("Armazenamento da mensagem, entrega aos subscritores e publicação da notificação da interface")
+    static final class Armazenamento extends Etapa {
+    }
+
+    /**
+     * Entrega de um lote de notificações à interface gráfica. As notificações são agrupadas por conversa,
+     * por isso este evento não tem ID de correlação: junta-se à mensagem pela conversa e pelo instante.
+     */
+    @Name("p2p.NotificacaoInterface")
+    @Label("Notificação da interface")
+    @Description("Entrega de um lote de notificações aos ouvintes da interface gráfica")
+    @Category({"P2PSecureChat", "Interface"})
+    @StackTrace(false)
+    static final class NotificacaoInterface extends Event {
+        @Label("Conversas")
+        int conversas;
+
+        @Label("Peers novos")
+        int peers;
+
+        @Label("Grupos novos")
+        int grupos;
+    }
+}
@@ -0,0 +1,66 @@
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Classe FilaEnvio que executa as tarefas de envio para um destino pela ordem em que foram pedidas.
+ * As tarefas correm numa thread virtual criada apenas enquanto a fila tem trabalho, pelo que
+ * destinos diferentes são servidos em paralelo mas as mensagens para o mesmo destino não se trocam.
+ */
+public class FilaEnvio implements Executor {
+    private final Queue<Runnable> tarefas = new ArrayDeque<>();
+    private boolean emExecucao;
+
+    @Override
+    public void execute(Runnable tarefa) {
+        synchronized (tarefas) {
+            tarefas.add(tarefa);
+            if (emExecucao) {
+                return; // A thread virtual atual vai executar a tarefa
+            }
+            emExecucao = true;
+        }
+        Thread.ofVirtual().name("envio-virtual").start(this::drenar);
+    }
+
+    /**
+     * Espera até que todas as tarefas pedidas tenham terminado, ou até ao prazo.
+     *
+     * @param prazo Instante (System.nanoTime) até ao qual se espera
+     * @return true se a fila ficou vazia, false se o prazo terminou antes
+     * @throws InterruptedException Caso a thread seja interrompida durante a espera
+     */
+    public boolean esperar(long prazo) throws InterruptedException {
+        synchronized (tarefas) {
+            while (emExecucao) {
+                long restante = TimeUnit.NANOSECONDS.toMillis(prazo - System.nanoTime());
+                if (restante <= 0) {
+                    return false;
+                }
+                tarefas.wait(restante);
+            }
+            return true;
+        }
+    }
+
+    // Executa as tarefas pendentes até a fila ficar vazia
+    private void drenar() {
+        while (true) {
+            Runnable tarefa;
+            synchronized (tarefas) {
+                tarefa = tarefas.poll();
+                if (tarefa == null) {
+                    emExecucao = false;
+                    tarefas.notifyAll(); // Acorda quem espera pelo fim dos envios
+                    return;
+                }
+            }
+            try {
+                tarefa.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,255 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Classe Frame que representa uma unidade de dados trocada entre peers.
+ * Um Frame pode ser codificado no formato binário versionado ({@link ProtocoloBinario})
+ * ou, para peers antigos, no formato de texto grupo|idRemetente|Base64(mensagem)|Base64(hash).
+ */
+public class Frame {
+    // Tipos de frame
+    public static final byte MENSAGEM = 1;    // Mensagem (privada ou de grupo)
+    public static final byte CRIAR_GRUPO = 2; // Criação de um grupo, com a lista de membros
+    public static final byte LOTE = 3;        // Várias mensagens privadas num único payload AEAD (LoteMensagens)
+
+    // Flags
+    public static final byte FLAG_AEAD = 0x01;       // Payload cifrado com AES-GCM (nonce|texto cifrado|tag), sem campo hash
+    public static final byte FLAG_COMPRIMIDO = 0x02; // Texto em claro comprimido antes da cifra (Compressao); requer FLAG_AEAD
+
+    private final byte tipo;
+    private byte flags;
+    private final String idGrupo;      // "" para mensagens privadas
+    private final String idRemetente;
+    private final byte[] payload;      // Mensagem (normalmente criptografada)
+    private final byte[] hash;         // Hash SHA-256 da mensagem original (null com FLAG_AEAD)
+    private List<String> membros = Collections.emptyList(); // Membros do grupo (apenas CRIAR_GRUPO)
+    private String origem;             // Autor de uma mensagem de grupo retransmitida (null se não for retransmitida)
+    private long idMensagem;           // ID da mensagem de grupo atribuído pelo autor (apenas com origem)
+    private int fanout;                // Fanout da árvore de difusão escolhido pelo autor (apenas com origem)
+    private long idCorrelacao;         // ID que segue a mensagem entre peers nos eventos JFR (0 se não houver)
+
+    // Codificações já calculadas, reutilizadas quando o mesmo frame é enviado a vários peers
+    private byte[] binario;
+    private byte[] texto;
+
+    /**
+     * Construtor da classe Frame.
+     *
+     * @param tipo Tipo do frame
+     * @param idGrupo ID do grupo, ou "" se for uma mensagem privada
+     * @param idRemetente ID do Peer remetente
+     * @param payload Conteúdo do frame
+     * @param hash Hash SHA-256 da mensagem original, ou null se o payload for autenticado (FLAG_AEAD)
+     */
+    public Frame(byte tipo, String idGrupo, String idRemetente, byte[] payload, byte[] hash) {
+        this.tipo = tipo;
+        this.idGrupo = idGrupo;
+        this.idRemetente = idRemetente;
+        this.payload = payload;
+        this.hash = hash;
+    }
+
+    /**
+     * Interpreta uma linha no formato de texto antigo (grupo|idRemetente|mensagem|hash).
+     * O tipo do frame é sempre MENSAGEM; cabe ao Peer decidir se se trata da criação de um grupo.
+     *
+     * @param linha Linha recebida
+     * @return Frame correspondente, ou null se a linha não tiver 4 partes
+     */
+    public static Frame deTexto(String linha) {
+        String[] partes = linha.split("\\|");
+        if (partes.length != 4) {
+            return null;
+        }
+        Base64.Decoder decoder = Base64.getDecoder();
+        return new Frame(MENSAGEM, partes[0], partes[1], decoder.decode(partes[2]), decoder.decode(partes[3]));
+    }
+
+    /**
+     * Obtém a codificação do frame no formato pedido. O resultado é calculado uma única vez por formato.
+     *
+     * @param binario true para o formato binário, false para o formato de texto antigo
+     * @return Bytes a escrever na ligação
+     */
+    public synchronized byte[] codificar(boolean binario) {
+        if (binario) {
+            if (this.binario == null) {
+                this.binario = ProtocoloBinario.codificar(this);
+            }
+            return this.binario;
+        }
+        if (this.texto == null) {
+            if (flags != 0 || hash == null || origem != null) {
+                throw new IllegalStateException("Este frame não pode ser enviado no formato de texto antigo");
+            }
+            Base64.Encoder encoder = Base64.getEncoder();
+            String linha = idGrupo + "|" + idRemetente + "|" + encoder.encodeToString(payload) + "|" + encoder.encodeToString(hash) + "\n";
+            this.texto = linha.getBytes(StandardCharsets.UTF_8);
+        }
+        return this.texto;
+    }
+
+    /**
+     * Gera um ID de correlação para uma mensagem nova. É aleatório, e não um contador, para que seja
+     * único entre todos os peers sem coordenação; nunca é 0.
+     *
+     * @return ID de correlação
+     */
+    public static long novoIdCorrelacao() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+
+    /**
+     * Obtém os dados autenticados (mas não cifrados) de uma mensagem AEAD: o grupo e o remetente.
+     * Ligam o texto cifrado ao cabeçalho, para que não possa ser reenviado como vindo de outro peer ou grupo.
+     *
+     * @param idGrupo ID do grupo, ou "" para mensagens privadas
+     * @param idRemetente ID do Peer remetente
+     * @return Dados associados
+     */
+    public static byte[] dadosAssociados(String idGrupo, String idRemetente) {
+        byte[] grupo = idGrupo.getBytes(StandardCharsets.UTF_8);
+        byte[] remetente = idRemetente.getBytes(StandardCharsets.UTF_8);
+        byte[] dados = new byte[grupo.length + 1 + remetente.length];
+        System.arraycopy(grupo, 0, dados, 0, grupo.length);
+        System.arraycopy(remetente, 0, dados, grupo.length + 1, remetente.length); // Separados por um byte 0
+        return dados;
+    }
+
+    /**
+     * Obtém os dados associados de um lote de mensagens ({@link #LOTE}). Começam por um byte 0xFF, que nunca
+     * aparece em UTF-8, para que o payload de um lote nunca seja aceite como uma mensagem simples, nem o contrário.
+     *
+     * @param idRemetente ID do Peer remetente
+     * @return Dados associados
+     */
+    public static byte[] dadosAssociadosLote(String idRemetente) {
+        byte[] remetente = idRemetente.getBytes(StandardCharsets.UTF_8);
+        byte[] dados = new byte[1 + remetente.length];
+        dados[0] = (byte) 0xFF;
+        System.arraycopy(remetente, 0, dados, 1, remetente.length);
+        return dados;
+    }
+
+    /**
+     * Obtém os dados associados de uma mensagem de grupo retransmitida pela árvore de difusão: os dados associados
+     * normais precedidos de um byte 0xFD, seguidos do autor, do ID da mensagem e do fanout. Assim nenhum peer no
+     * caminho pode alterar o autor, contornar a deteção de duplicados com outro ID ou mudar a forma da árvore.
+     *
+     * @param idGrupo ID do grupo
+     * @param idRemetente ID do Peer que envia o frame (o autor ou quem o retransmite)
+     * @param origem ID do autor da mensagem
+     * @param idMensagem ID da mensagem atribuído pelo autor
+     * @param fanout Fanout da árvore de difusão escolhido pelo autor
+     * @return Dados associados
+     */
+    public static byte[] dadosAssociadosDifusao(String idGrupo, String idRemetente, String origem, long idMensagem, int fanout) {
+        byte[] normais = dadosAssociados(idGrupo, idRemetente);
+        byte[] autor = origem.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(1 + normais.length + 1 + autor.length + 12)
+                .put((byte) 0xFD)
+                .put(normais)
+                .put((byte) 0) // Separador, como entre o grupo e o remetente
+                .put(autor)
+                .putLong(idMensagem)
+                .putInt(fanout)
+                .array();
+    }
+
+    /**
+     * Obtém os dados associados de um payload comprimido ({@link #FLAG_COMPRIMIDO}): os dados associados normais
+     * precedidos de um byte 0xFE, que também nunca aparece em UTF-8. Assim a flag fica autenticada: retirá-la
+     * ou acrescentá-la num frame faz falhar a decifra.
+     *
+     * @param dadosAssociados Dados associados do frame sem compressão
+     * @return Dados associados
+     */
+    public static byte[] dadosAssociadosComprimidos(byte[] dadosAssociados) {
+        byte[] dados = new byte[1 + dadosAssociados.length];
+        dados[0] = (byte) 0xFE;
+        System.arraycopy(dadosAssociados, 0, dados, 1, dadosAssociados.length);
+        return dados;
+    }
+
+    public byte getTipo() {
+        return tipo;
+    }
+
+    public byte getFlags() {
+        return flags;
+    }
+
+    public void setFlags(byte flags) {
+        this.flags = flags;
+    }
+
+    public String getIdGrupo() {
+        return idGrupo;
+    }
+
+    public String getIdRemetente() {
+        return idRemetente;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public byte[] getHash() {
+        return hash;
+    }
+
+    public List<String> getMembros() {
+        return membros;
+    }
+
+    public void setMembros(List<String> membros) {
+        this.membros = new ArrayList<>(membros);
+    }
+
+    public String getOrigem() {
+        return origem;
+    }
+
+    public void setOrigem(String origem) {
+        this.origem = origem;
+    }
+
+    public long getIdMensagem() {
+        return idMensagem;
+    }
+
+    public void setIdMensagem(long idMensagem) {
+        this.idMensagem = idMensagem;
+    }
+
+    public int getFanout() {
+        return fanout;
+    }
+
+    public void setFanout(int fanout) {
+        this.fanout = fanout;
+    }
+
+    public long getIdCorrelacao() {
+        return idCorrelacao;
+    }
+
+    /**
+     * Define o ID de correlação, que só é enviado no formato binário (o formato de texto antigo não tem onde o pôr).
+     *
+     * @param idCorrelacao ID de correlação, ou 0 para não o enviar
+     */
+    public void setIdCorrelacao(long idCorrelacao) {
+        this.idCorrelacao = idCorrelacao;
+    }
+}
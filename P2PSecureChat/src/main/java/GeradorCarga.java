@@ -0,0 +1,339 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Classe GeradorCarga que mede o débito e a latência de ponta a ponta das mensagens, desde a chamada a
+ * {@link Peer#enviarMensagem(String, String)} ou {@link Peer#enviarMensagemGrupo(String, String)} até
+ * {@link Peer#armazenarMensagem(String, String, String)} no destinatário, com os peers de um
+ * {@link SimuladorRede} em loopback.
+ *
+ * A carga é de ciclo aberto: cada peer (e cada grupo) envia a um ritmo fixo e a latência conta a partir
+ * do instante em que a mensagem devia ter sido enviada, que vai no início do texto. Assim, se os envios se
+ * atrasarem por saturação, o atraso aparece na latência em vez de baixar a carga sem ser medido.
+ * As mensagens do período de aquecimento (procuras na DHT, acordos de chaves, JIT) são entregues mas não
+ * entram nas medições. No fim é indicado o débito, os percentis da latência, a memória alocada e os erros.
+ *
+ * Uso: java -cp target/classes GeradorCarga [--peers 50] [--taxa 1000] [--grupos 0] [--membros 8]
+ *      [--taxaGrupo 0] [--duracao 10] [--aquecimento 2] [--tamanho 64] [--portaBase 24000]
+ *      (taxas em mensagens por segundo no total, tempos em segundos)
+ * ou, com Maven: mvn -Pcarga verify -Dcarga.args="--peers 100 --taxa 5000"
+ */
+public class GeradorCarga {
+    // Tempo máximo de espera, depois do fim dos envios, pelas mensagens ainda em trânsito
+    private static final long TEMPO_MAXIMO_ENTREGA_MS = 10_000;
+
+    // Separa o instante previsto do envio do resto do texto da mensagem
+    private static final char SEPARADOR = ';';
+
+    private final Histograma latenciaDireta = new Histograma();
+    private final Histograma latenciaGrupo = new Histograma();
+    private final LongAdder esperadasDiretas = new LongAdder();
+    private final LongAdder esperadasGrupo = new LongAdder();
+    private final LongAdder entreguesDiretas = new LongAdder();
+    private final LongAdder entreguesGrupo = new LongAdder();
+    private final LongAdder falhasGrupo = new LongAdder();
+    private final LongAdder erros = new LongAdder();
+
+    // Origem dos instantes escritos nas mensagens (System.nanoTime pode ser negativo)
+    private final long origem = System.nanoTime();
+
+    // Só as mensagens previstas a partir deste instante (System.nanoTime) entram nas medições
+    private volatile long inicioMedicao = Long.MAX_VALUE;
+
+    public static void main(String[] args) throws Exception {
+        Properties config = lerArgumentos(args);
+        int numeroPeers = inteiro(config, "peers", 50);
+        int taxa = inteiro(config, "taxa", 1000);
+        int numeroGrupos = inteiro(config, "grupos", 0);
+        int membros = Math.min(inteiro(config, "membros", 8), numeroPeers);
+        int taxaGrupo = inteiro(config, "taxaGrupo", 0);
+        int duracao = inteiro(config, "duracao", 10);
+        int aquecimento = inteiro(config, "aquecimento", 2);
+        int tamanho = inteiro(config, "tamanho", 64);
+        int portaBase = inteiro(config, "portaBase", 24000);
+
+        // Os logs de centenas de peers tornariam a medição inútil: só o relatório é escrito
+        PrintStream saida = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        saida.printf("%d peers, %d mensagens/s diretas; %d grupos de %d membros, %d mensagens/s de grupo; "
+                + "%d carateres, %d s (+%d s de aquecimento)%n",
+                numeroPeers, taxa, numeroGrupos, membros, taxaGrupo, tamanho, duracao, aquecimento);
+
+        SimuladorRede simulador = new SimuladorRede(numeroPeers, portaBase);
+        long inicio = System.nanoTime();
+        simulador.iniciar();
+        saida.printf("Arranque e entrada na rede: %d ms%n", (System.nanoTime() - inicio) / 1_000_000);
+
+        GeradorCarga gerador = new GeradorCarga();
+        List<Peer> peers = simulador.getPeers();
+        List<List<Peer>> grupos = gerador.criarGrupos(peers, numeroGrupos, membros);
+        gerador.subscrever(peers, grupos);
+
+        ResultadoCarga resultado = gerador.executar(peers, grupos, taxa, taxaGrupo, duracao, aquecimento, tamanho);
+        resultado.imprimir(gerador, saida);
+
+        simulador.parar();
+        System.exit(gerador.getErros() == 0 ? 0 : 1); // Com perdas ou falhas, o build com -Pcarga falha
+    }
+
+    // Cria os grupos com membros aleatórios e espera que todos os membros os conheçam
+    private List<List<Peer>> criarGrupos(List<Peer> peers, int numeroGrupos, int membros) throws Exception {
+        List<List<Peer>> grupos = new ArrayList<>();
+        for (int g = 0; g < numeroGrupos; g++) {
+            List<Peer> baralhados = new ArrayList<>(peers);
+            Collections.shuffle(baralhados);
+            List<Peer> grupo = List.copyOf(baralhados.subList(0, membros));
+            List<String> ids = new ArrayList<>();
+            for (Peer membro : grupo) {
+                ids.add(membro.getIdPeer());
+            }
+            grupo.get(0).enviarMensagemGrupo(idGrupo(g), String.join("|", ids));
+            grupos.add(grupo);
+        }
+        long limite = System.currentTimeMillis() + TEMPO_MAXIMO_ENTREGA_MS;
+        for (int g = 0; g < grupos.size(); g++) {
+            for (Peer membro : grupos.get(g)) {
+                while (!membro.isGrupo(idGrupo(g)) && System.currentTimeMillis() < limite) {
+                    Thread.sleep(10);
+                }
+            }
+        }
+        return grupos;
+    }
+
+    // Cada peer mede as mensagens que recebe de cada outro peer e de cada grupo de que é membro
+    private void subscrever(List<Peer> peers, List<List<Peer>> grupos) {
+        for (Peer recetor : peers) {
+            String idRecetor = recetor.getIdPeer();
+            for (Peer remetente : peers) {
+                if (remetente != recetor) {
+                    recetor.subscreverMensagens(remetente.getIdPeer(), registo -> {
+                        if (!registo.remetente().equals(idRecetor)) {
+                            entregue(registo.mensagem(), entreguesDiretas, latenciaDireta);
+                        }
+                    });
+                }
+            }
+        }
+        for (int g = 0; g < grupos.size(); g++) {
+            for (Peer membro : grupos.get(g)) {
+                String idMembro = membro.getIdPeer();
+                membro.subscreverMensagens(idGrupo(g), registo -> {
+                    if (!registo.remetente().equals(idMembro)) {
+                        entregue(registo.mensagem(), entreguesGrupo, latenciaGrupo);
+                    }
+                });
+            }
+        }
+    }
+
+    // Regista a entrega de uma mensagem da carga (as outras, como a criação dos grupos, são ignoradas)
+    private void entregue(String mensagem, LongAdder entregues, Histograma latencia) {
+        long decorrido = instantePrevisto(mensagem);
+        if (decorrido < 0) {
+            return;
+        }
+        long previsto = origem + decorrido;
+        entregues.increment();
+        if (previsto >= inicioMedicao) {
+            latencia.registar(System.nanoTime() - previsto);
+        }
+    }
+
+    // Número total de mensagens perdidas, falhas de envio a membros e exceções
+    private long getErros() {
+        return esperadasDiretas.sum() - entreguesDiretas.sum() + esperadasGrupo.sum() - entreguesGrupo.sum()
+                + falhasGrupo.sum() + erros.sum();
+    }
+
+    // Envia a carga durante o aquecimento e a duração pedida, e espera pelas mensagens em trânsito
+    private ResultadoCarga executar(List<Peer> peers, List<List<Peer>> grupos, int taxa, int taxaGrupo,
+                                    int duracao, int aquecimento, int tamanho) throws InterruptedException {
+        String enchimento = "x".repeat(tamanho);
+        long inicio = System.nanoTime();
+        inicioMedicao = inicio + aquecimento * 1_000_000_000L;
+        long fim = inicioMedicao + duracao * 1_000_000_000L;
+
+        Medicao antes = null;
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            if (taxa > 0 && peers.size() > 1) {
+                long intervalo = 1_000_000_000L * peers.size() / taxa; // Cada peer envia taxa / peers mensagens/s
+                for (Peer peer : peers) {
+                    executor.execute(() -> enviarDiretas(peer, peers, intervalo, inicio, fim, enchimento));
+                }
+            }
+            if (taxaGrupo > 0 && !grupos.isEmpty()) {
+                long intervalo = 1_000_000_000L * grupos.size() / taxaGrupo;
+                for (int g = 0; g < grupos.size(); g++) {
+                    String idGrupo = idGrupo(g);
+                    List<Peer> grupo = grupos.get(g);
+                    executor.execute(() -> enviarGrupo(idGrupo, grupo, intervalo, inicio, fim, enchimento));
+                }
+            }
+            esperarAte(inicioMedicao);
+            antes = Medicao.agora();
+            esperarAte(fim);
+        } // Espera que os envios atrasados terminem
+        Medicao depois = Medicao.agora();
+
+        long limite = System.currentTimeMillis() + TEMPO_MAXIMO_ENTREGA_MS;
+        while ((entreguesDiretas.sum() < esperadasDiretas.sum() || entreguesGrupo.sum() < esperadasGrupo.sum())
+                && System.currentTimeMillis() < limite) {
+            Thread.sleep(20);
+        }
+        return new ResultadoCarga(antes, depois);
+    }
+
+    // Um peer envia mensagens a peers aleatórios, uma a cada intervalo
+    private void enviarDiretas(Peer peer, List<Peer> peers, long intervalo, long inicio, long fim, String enchimento) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (long previsto = inicio + random.nextLong(intervalo); previsto < fim; previsto += intervalo) {
+            esperarAte(previsto);
+            Peer destino;
+            do {
+                destino = peers.get(random.nextInt(peers.size()));
+            } while (destino == peer);
+            esperadasDiretas.increment();
+            try {
+                peer.enviarMensagem(destino.getIdPeer(), (previsto - origem) + String.valueOf(SEPARADOR) + enchimento);
+            } catch (RuntimeException e) {
+                erros.increment();
+            }
+        }
+    }
+
+    // Um membro aleatório de um grupo envia uma mensagem ao grupo a cada intervalo
+    private void enviarGrupo(String idGrupo, List<Peer> grupo, long intervalo, long inicio, long fim, String enchimento) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (long previsto = inicio + random.nextLong(intervalo); previsto < fim; previsto += intervalo) {
+            esperarAte(previsto);
+            Peer remetente = grupo.get(random.nextInt(grupo.size()));
+            esperadasGrupo.add(grupo.size() - 1);
+            try {
+                ResultadoEnvioGrupo resultado = remetente.enviarMensagemGrupo(idGrupo, (previsto - origem) + String.valueOf(SEPARADOR) + enchimento);
+                falhasGrupo.add(resultado.getResultados().size() - resultado.getEntregues());
+            } catch (Exception e) {
+                erros.increment();
+            }
+        }
+    }
+
+    // Lê o instante previsto do envio (relativo à origem) no início da mensagem, sem criar objetos; -1 se não for da carga
+    private static long instantePrevisto(String mensagem) {
+        long valor = 0;
+        for (int i = 0; i < mensagem.length(); i++) {
+            char c = mensagem.charAt(i);
+            if (c == SEPARADOR) {
+                return i > 0 ? valor : -1;
+            }
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            valor = valor * 10 + (c - '0');
+        }
+        return -1;
+    }
+
+    private static void esperarAte(long instante) {
+        long espera;
+        while ((espera = instante - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(espera);
+        }
+    }
+
+    private static String idGrupo(int g) {
+        return "carga" + g;
+    }
+
+    private static Properties lerArgumentos(String[] args) {
+        Properties config = new Properties();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Argumento inválido: " + args[i]);
+            }
+            config.setProperty(args[i].substring(2), args[i + 1]);
+        }
+        return config;
+    }
+
+    private static int inteiro(Properties config, String chave, int omissao) {
+        String valor = config.getProperty(chave);
+        return valor == null ? omissao : Integer.parseInt(valor);
+    }
+
+    /**
+     * Registo Medicao com os contadores da JVM num instante: memória alocada por todas as threads e
+     * número e tempo das recolhas de lixo.
+     *
+     * @param instante System.nanoTime
+     * @param alocados Bytes alocados desde o arranque da JVM, ou -1 se a JVM não os medir
+     * @param recolhas Número de recolhas de lixo
+     * @param tempoRecolhasMs Tempo total das recolhas de lixo
+     */
+    private record Medicao(long instante, long alocados, long recolhas, long tempoRecolhasMs) {
+        static Medicao agora() {
+            long alocados = -1;
+            if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                    && threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                alocados = threads.getTotalThreadAllocatedBytes();
+            }
+            long recolhas = 0;
+            long tempo = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                recolhas += Math.max(gc.getCollectionCount(), 0);
+                tempo += Math.max(gc.getCollectionTime(), 0);
+            }
+            return new Medicao(System.nanoTime(), alocados, recolhas, tempo);
+        }
+    }
+
+    // Resultado da execução: as medições da JVM no início e no fim do período medido
+    private record ResultadoCarga(Medicao antes, Medicao depois) {
+        void imprimir(GeradorCarga gerador, PrintStream saida) {
+            double segundos = (depois.instante() - antes.instante()) / 1e9;
+            long medidas = gerador.latenciaDireta.getTotal() + gerador.latenciaGrupo.getTotal();
+
+            saida.printf("%nEntregas medidas: %d em %.2f s (%.0f mensagens/s)%n", medidas, segundos, medidas / segundos);
+            imprimirLatencia(saida, "Diretas", gerador.latenciaDireta);
+            imprimirLatencia(saida, "Grupo", gerador.latenciaGrupo);
+
+            if (antes.alocados() >= 0) {
+                long alocados = depois.alocados() - antes.alocados();
+                saida.printf("Alocação: %.1f MB/s, %.0f bytes por entrega%n",
+                        alocados / segundos / 1e6, medidas == 0 ? 0.0 : (double) alocados / medidas);
+            }
+            saida.printf("Recolhas de lixo: %d (%d ms)%n",
+                    depois.recolhas() - antes.recolhas(), depois.tempoRecolhasMs() - antes.tempoRecolhasMs());
+
+            long perdidasDiretas = gerador.esperadasDiretas.sum() - gerador.entreguesDiretas.sum();
+            long perdidasGrupo = gerador.esperadasGrupo.sum() - gerador.entreguesGrupo.sum();
+            saida.printf("Diretas entregues: %d/%d; de grupo entregues: %d/%d%n",
+                    gerador.entreguesDiretas.sum(), gerador.esperadasDiretas.sum(),
+                    gerador.entreguesGrupo.sum(), gerador.esperadasGrupo.sum());
+            saida.printf("Erros: %d perdidas, %d falhas de envio a membros, %d exceções%n",
+                    perdidasDiretas + perdidasGrupo, gerador.falhasGrupo.sum(), gerador.erros.sum());
+        }
+
+        private static void imprimirLatencia(PrintStream saida, String nome, Histograma latencia) {
+            if (latencia.getTotal() == 0) {
+                return;
+            }
+            saida.printf("%-8s latência (ms): média %.3f  p50 %.3f  p90 %.3f  p99 %.3f  p99.9 %.3f  máx %.3f  (%d)%n",
+                    nome, latencia.getMedia() / 1e6, latencia.percentil(50) / 1e6, latencia.percentil(90) / 1e6,
+                    latencia.percentil(99) / 1e6, latencia.percentil(99.9) / 1e6, latencia.getMaximo() / 1e6,
+                    latencia.getTotal());
+        }
+    }
+}
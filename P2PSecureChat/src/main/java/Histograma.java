@@ -0,0 +1,136 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Classe Histograma que conta valores não negativos (por exemplo, latências em nanossegundos) em intervalos
+ * log-lineares, como o HdrHistogram: os valores até 127 têm um intervalo cada um e, a partir daí, cada
+ * potência de 2 é dividida em 64 intervalos iguais. O erro relativo dos percentis é, no máximo, 1/64
+ * (cerca de 1,6%), com um tamanho fixo, independente do número de valores registados.
+ * Pode ser usado por várias threads sem locks.
+ */
+public class Histograma {
+    // Bits de precisão de cada potência de 2 (64 intervalos)
+    private static final int BITS_SUB = 6;
+    private static final int SUB = 1 << BITS_SUB;
+
+    // Valores abaixo deste limite têm um intervalo cada um
+    private static final int LINEAR = 2 * SUB;
+
+    // Intervalos: os lineares mais 64 por potência de 2 de 2^7 a 2^62
+    private static final int INTERVALOS = LINEAR + (62 - BITS_SUB) * SUB;
+
+    private final AtomicLongArray contagens = new AtomicLongArray(INTERVALOS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder soma = new LongAdder();
+    private final LongAccumulator maximo = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Regista um valor.
+     *
+     * @param valor Valor (os negativos contam como 0)
+     */
+    public void registar(long valor) {
+        valor = Math.max(valor, 0);
+        contagens.incrementAndGet(indice(valor));
+        total.increment();
+        soma.add(valor);
+        maximo.accumulate(valor);
+    }
+
+    /**
+     * Obtém o número de valores registados.
+     *
+     * @return Número de valores
+     */
+    public long getTotal() {
+        return total.sum();
+    }
+
+    /**
+     * Obtém a média dos valores registados.
+     *
+     * @return Média, ou 0 se não houver valores
+     */
+    public double getMedia() {
+        long n = total.sum();
+        return n == 0 ? 0 : (double) soma.sum() / n;
+    }
+
+    /**
+     * Obtém a soma dos valores registados.
+     *
+     * @return Soma
+     */
+    public long getSoma() {
+        return soma.sum();
+    }
+
+    /**
+     * Obtém o maior valor registado.
+     *
+     * @return Máximo, ou 0 se não houver valores
+     */
+    public long getMaximo() {
+        return maximo.get();
+    }
+
+    /**
+     * Obtém um percentil dos valores registados (o limite superior do intervalo em que cai).
+     *
+     * @param percentil Percentil entre 0 e 100
+     * @return Valor do percentil, ou 0 se não houver valores
+     */
+    public long percentil(double percentil) {
+        long n = 0;
+        long[] copia = new long[INTERVALOS];
+        for (int i = 0; i < INTERVALOS; i++) {
+            copia[i] = contagens.get(i);
+            n += copia[i];
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long alvo = Math.max(1, (long) Math.ceil(percentil / 100 * n));
+        long acumulado = 0;
+        for (int i = 0; i < INTERVALOS; i++) {
+            acumulado += copia[i];
+            if (acumulado >= alvo) {
+                return Math.min(limiteSuperior(i), getMaximo());
+            }
+        }
+        return getMaximo();
+    }
+
+    /**
+     * Apaga todos os valores registados (os que forem registados ao mesmo tempo podem ficar ou não).
+     */
+    public void reiniciar() {
+        for (int i = 0; i < INTERVALOS; i++) {
+            contagens.set(i, 0);
+        }
+        total.reset();
+        soma.reset();
+        maximo.reset();
+    }
+
+    // Intervalo de um valor: linear abaixo de LINEAR, depois os BITS_SUB bits mais significativos
+    private static int indice(long valor) {
+        if (valor < LINEAR) {
+            return (int) valor;
+        }
+        int expoente = 63 - Long.numberOfLeadingZeros(valor); // >= BITS_SUB + 1
+        int mantissa = (int) (valor >>> (expoente - BITS_SUB)) - SUB; // 0..SUB-1
+        return LINEAR + (expoente - BITS_SUB - 1) * SUB + mantissa;
+    }
+
+    // Maior valor que cai num intervalo
+    private static long limiteSuperior(int indice) {
+        if (indice < LINEAR) {
+            return indice;
+        }
+        int expoente = (indice - LINEAR) / SUB + BITS_SUB + 1;
+        long mantissa = (indice - LINEAR) % SUB + SUB;
+        return ((mantissa + 1) << (expoente - BITS_SUB)) - 1;
+    }
+}
@@ -0,0 +1,134 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
+
+/**
+ * Classe IdNo que representa o identificador de 160 bits de um nó na DHT ({@link Kademlia}).
+ * O identificador de um Peer é o SHA-1 do seu ID, pelo que qualquer nó pode verificar que um contacto
+ * anunciado tem o identificador certo. A distância entre dois identificadores é o seu XOR.
+ */
+public final class IdNo implements Comparable<IdNo> {
+    // Número de bits (e de k-buckets da tabela de encaminhamento)
+    public static final int BITS = 160;
+
+    // Número de bytes do identificador
+    public static final int BYTES = BITS / 8;
+
+    private final byte[] bytes;
+
+    private IdNo(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Obtém o identificador do nó de um Peer.
+     *
+     * @param idPeer ID do Peer
+     * @return SHA-1 do ID
+     */
+    public static IdNo doPeer(String idPeer) {
+        try {
+            return new IdNo(MessageDigest.getInstance("SHA-1").digest(idPeer.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 não suportado", e);
+        }
+    }
+
+    /**
+     * Cria um identificador a partir dos seus bytes.
+     *
+     * @param bytes {@value #BYTES} bytes (copiados)
+     * @return Identificador
+     */
+    public static IdNo deBytes(byte[] bytes) {
+        if (bytes.length != BYTES) {
+            throw new IllegalArgumentException("Um ID de nó tem " + BYTES + " bytes, não " + bytes.length);
+        }
+        return new IdNo(bytes.clone());
+    }
+
+    /**
+     * Gera um identificador aleatório que cai num dado k-bucket relativamente a um identificador base
+     * (usado para refrescar esse bucket com uma procura).
+     *
+     * @param base Identificador base (normalmente o do próprio nó)
+     * @param indiceBucket Índice do bucket: o bit mais significativo em que o resultado difere da base
+     * @param random Gerador de números aleatórios
+     * @return Identificador à distância [2^indice, 2^(indice+1)) da base
+     */
+    public static IdNo aleatorioNoBucket(IdNo base, int indiceBucket, Random random) {
+        byte[] distancia = new byte[BYTES];
+        random.nextBytes(distancia);
+        int byteBit = BYTES - 1 - indiceBucket / 8;
+        int bit = indiceBucket % 8;
+        Arrays.fill(distancia, 0, byteBit, (byte) 0); // Bits acima do índice a zero
+        distancia[byteBit] = (byte) ((distancia[byteBit] & ((1 << bit) - 1)) | (1 << bit));
+        for (int i = 0; i < BYTES; i++) {
+            distancia[i] ^= base.bytes[i];
+        }
+        return new IdNo(distancia);
+    }
+
+    /**
+     * Calcula a distância XOR a outro identificador.
+     *
+     * @param outro Outro identificador
+     * @return Distância (também um identificador de 160 bits, comparável com {@link #compareTo(IdNo)})
+     */
+    public IdNo distancia(IdNo outro) {
+        byte[] xor = new byte[BYTES];
+        for (int i = 0; i < BYTES; i++) {
+            xor[i] = (byte) (bytes[i] ^ outro.bytes[i]);
+        }
+        return new IdNo(xor);
+    }
+
+    /**
+     * Obtém o índice do k-bucket em que outro identificador cai: a posição do bit mais significativo da distância.
+     *
+     * @param outro Outro identificador
+     * @return Índice entre 0 e {@value #BITS} - 1, ou -1 se os identificadores forem iguais
+     */
+    public int indiceBucket(IdNo outro) {
+        for (int i = 0; i < BYTES; i++) {
+            int xor = (bytes[i] ^ outro.bytes[i]) & 0xff;
+            if (xor != 0) {
+                return (BYTES - 1 - i) * 8 + (31 - Integer.numberOfLeadingZeros(xor));
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Obtém uma cópia dos bytes do identificador.
+     *
+     * @return {@value #BYTES} bytes
+     */
+    public byte[] getBytes() {
+        return bytes.clone();
+    }
+
+    // Compara como inteiros de 160 bits sem sinal (ordena distâncias da menor para a maior)
+    @Override
+    public int compareTo(IdNo outro) {
+        return Arrays.compareUnsigned(bytes, outro.bytes);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof IdNo outro && Arrays.equals(bytes, outro.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(bytes);
+    }
+
+    @Override
+    public String toString() {
+        return HexFormat.of().formatHex(bytes, 0, 4); // Prefixo, suficiente para os logs
+    }
+}
@@ -0,0 +1,640 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Classe Kademlia que implementa um nó de uma DHT ao estilo Kademlia, para encontrar o endereço e a chave
+ * pública de um Peer a partir do seu ID sem que cada Peer tenha de conhecer todos os outros à partida.
+ *
+ * Cada nó tem um identificador de 160 bits ({@link IdNo}, o SHA-1 do ID do Peer) e guarda os contactos
+ * numa {@link TabelaEncaminhamento} com k-buckets por distância XOR. Uma procura é iterativa: pergunta
+ * (FIND_NODE ou FIND_VALUE) aos {@value #ALFA} contactos mais próximos do alvo ainda não consultados,
+ * junta os contactos que eles devolvem e repete até ter consultado os {@value #K} mais próximos; cada
+ * ronda aproxima-se do alvo, pelo que uma procura precisa de O(log n) pedidos.
+ * O valor guardado para cada ID é o contacto do Peer (endereço e chave pública): cada Peer publica o seu
+ * nos {@value #K} nós mais próximos com STORE, e o próprio Peer responde por si.
+ *
+ * Os pedidos são datagramas UDP na mesma porta que o Peer usa para as mensagens em TCP. O ID de nó de um
+ * contacto é sempre calculado a partir do ID do Peer (nunca é aceite da rede), e um nó só pode guardar
+ * com STORE o seu próprio contacto, com o endereço de onde enviou o pedido. As chaves públicas obtidas
+ * pela DHT não são autenticadas: o Peer guarda a primeira que obtém para cada ID. Uma mudança de endereço
+ * de um contacto já conhecido só é aceite pelo Peer depois de {@link #confirmarEndereco}: o contacto tem de
+ * provar, no novo endereço, que tem a chave privada da chave pública guardada (DESAFIO e PROVA).
+ */
+public class Kademlia {
+    // Nome da propriedade de sistema que desliga a DHT ("off")
+    public static final String PROPRIEDADE = "p2p.dht";
+
+    // Número de contactos por k-bucket e número de nós mais próximos que uma procura devolve
+    public static final int K = 20;
+
+    // Número de pedidos em paralelo em cada ronda de uma procura
+    public static final int ALFA = 3;
+
+    // Tempo máximo de resposta a um pedido
+    static final int TIMEOUT_RPC_MS = 500;
+
+    private static final int TAMANHO_MAXIMO_DATAGRAMA = 65507;
+
+    // Número máximo de chaves públicas descodificadas guardadas
+    private static final int MAXIMO_CHAVES_DESCODIFICADAS = 4096;
+
+    // Tipos das mensagens
+    private static final byte PING = 1;
+    private static final byte PONG = 2;
+    private static final byte FIND_NODE = 3;
+    private static final byte NOS = 4;
+    private static final byte FIND_VALUE = 5;
+    private static final byte VALOR = 6;
+    private static final byte STORE = 7;
+    private static final byte DESAFIO = 8;
+    private static final byte PROVA = 9;
+
+    // Tamanho do nonce de um desafio
+    private static final int TAMANHO_NONCE = 16;
+
+    // Separa as provas de endereço de outros usos da chave do acordo
+    private static final byte[] ROTULO_PROVA = "p2p-dht-prova".getBytes(StandardCharsets.UTF_8);
+
+    private final String idPeer;
+    private final IdNo id;
+    private final int porta;
+    private final Contacto proprio;
+    private final TabelaEncaminhamento tabela;
+
+    // Contactos publicados neste nó por outros nós (STORE)
+    private final Map<IdNo, Contacto> valores = new ConcurrentHashMap<>();
+
+    // Pedidos à espera de resposta, por ID de pedido
+    private final Map<Long, CompletableFuture<Resposta>> pendentes = new ConcurrentHashMap<>();
+    private final AtomicLong proximoPedido = new AtomicLong(new SecureRandom().nextLong());
+
+    // Contactos antigos a ser testados antes de serem substituídos num bucket cheio
+    private final Set<IdNo> testesEmCurso = ConcurrentHashMap.newKeySet();
+
+    // Chaves públicas já descodificadas, por ID do Peer: cada resposta traz até K contactos, quase sempre
+    // já vistos, e descodificar uma chave X.509 custa muito mais do que comparar os seus bytes
+    private final Map<String, ChaveDescodificada> chavesDescodificadas = new ConcurrentHashMap<>();
+
+    private final Random random = new Random();
+    private final SecureRandom seguro = new SecureRandom();
+    private final LongAdder pedidosEnviados = new LongAdder();
+    private volatile Consumer<Contacto> aoConhecer = contacto -> { };
+    private volatile AcordoChaves acordo;
+    private DatagramSocket socket;
+
+    /**
+     * Acordo de chaves com a chave privada de identidade do Peer, que a DHT não conhece.
+     */
+    @FunctionalInterface
+    public interface AcordoChaves {
+        /**
+         * @param chavePublica Chave pública de identidade de outro Peer
+         * @return Chave do acordo entre a chave privada deste Peer e a chave pública
+         * @throws GeneralSecurityException Caso o acordo não seja possível (por exemplo, modos diferentes)
+         */
+        SecretKey acordar(PublicKey chavePublica) throws GeneralSecurityException;
+    }
+
+    /**
+     * Resposta a um pedido: o contacto que respondeu, o endereço de onde respondeu e, consoante o tipo,
+     * os nós mais próximos, o valor ou a prova de um desafio.
+     */
+    private record Resposta(Contacto remetente, InetSocketAddress origem, List<Contacto> nos, Contacto valor, byte[] prova) {
+    }
+
+    /**
+     * Chave pública e a sua codificação, tal como foi recebida.
+     */
+    private record ChaveDescodificada(ModoChaves modo, byte[] codificada, PublicKey chave) {
+    }
+
+    /**
+     * Resultado de uma procura: o valor, se foi encontrado, e os nós mais próximos do alvo que responderam.
+     */
+    private record Procura(Contacto valor, List<Contacto> maisProximos) {
+    }
+
+    /**
+     * Construtor da classe Kademlia.
+     *
+     * @param idPeer ID do Peer
+     * @param porta Porta UDP (a mesma do Peer)
+     * @param chavePublica Chave pública de identidade do Peer, publicada na DHT
+     */
+    public Kademlia(String idPeer, int porta, PublicKey chavePublica) {
+        this.idPeer = idPeer;
+        this.id = IdNo.doPeer(idPeer);
+        this.porta = porta;
+        this.proprio = new Contacto(idPeer, id, null, chavePublica); // Endereço: o de onde os pedidos são enviados
+        this.tabela = new TabelaEncaminhamento(id, K);
+    }
+
+    /**
+     * Indica se a DHT está ativa segundo a propriedade de sistema {@value #PROPRIEDADE} (por omissão, ativa).
+     *
+     * @return false se a propriedade for "off"
+     */
+    public static boolean ativaNoSistema() {
+        return !"off".equalsIgnoreCase(System.getProperty(PROPRIEDADE, "on").trim());
+    }
+
+    /**
+     * Abre a porta UDP e começa a responder aos pedidos dos outros nós.
+     *
+     * @throws SocketException Caso a porta não possa ser aberta
+     */
+    public void iniciar() throws SocketException {
+        DatagramSocket socketUdp = new DatagramSocket(porta);
+        socketUdp.setReceiveBufferSize(1 << 20); // Absorve as rajadas de pedidos durante a entrada de muitos nós
+        socket = socketUdp;
+        // Thread de plataforma: uma thread virtual bloqueada em DatagramSocket.receive ocupa uma thread do
+        // escalonador, e com centenas de nós no mesmo processo o escalonador esgota-se
+        Thread.ofPlatform().daemon().name("dht-" + porta).start(() -> receber(socketUdp));
+    }
+
+    /**
+     * Fecha a porta UDP.
+     */
+    public void parar() {
+        if (socket != null) {
+            socket.close();
+        }
+    }
+
+    /**
+     * Entra na rede através de nós já conhecidos: procura os nós mais próximos de si próprio, refresca
+     * os buckets mais distantes e publica o seu contacto.
+     *
+     * @param bootstrap Endereços de nós que já estão na rede
+     * @return true se ficou a conhecer pelo menos um nó
+     */
+    public boolean juntar(InetSocketAddress... bootstrap) {
+        for (InetSocketAddress endereco : bootstrap) {
+            try {
+                pedir(endereco, PING, null).join(); // A resposta coloca o nó na tabela
+            } catch (CompletionException e) {
+                Logger.aviso("Nó de entrada da DHT não responde: " + endereco);
+            }
+        }
+        procurar(id, false);
+        // Refresca os buckets mais distantes que o vizinho mais próximo, com uma procura de um ID em cada um
+        int maisProximo = tabela.indiceMaisProximo();
+        if (maisProximo >= 0) {
+            for (int i = maisProximo + 1; i < IdNo.BITS; i++) {
+                procurar(IdNo.aleatorioNoBucket(id, i, random), false);
+            }
+        }
+        publicar();
+        return tabela.tamanho() > 0;
+    }
+
+    /**
+     * Publica o contacto deste Peer nos {@value #K} nós mais próximos do seu ID.
+     */
+    public void publicar() {
+        for (Contacto contacto : procurar(id, false).maisProximos()) {
+            pedir(contacto.endereco(), STORE, null);
+        }
+    }
+
+    /**
+     * Procura o contacto (endereço e chave pública) de um Peer pelo seu ID.
+     * Bloqueia durante a procura (algumas rondas de pedidos de, no máximo, {@value #TIMEOUT_RPC_MS} ms).
+     *
+     * @param idPeerProcurado ID do Peer
+     * @return Contacto do Peer, ou null se não for encontrado
+     */
+    public Contacto procurarContacto(String idPeerProcurado) {
+        IdNo alvo = IdNo.doPeer(idPeerProcurado);
+        Contacto contacto = tabela.obter(alvo);
+        if (contacto == null) {
+            contacto = valores.get(alvo);
+        }
+        if (contacto != null) {
+            return contacto;
+        }
+        Procura procura = procurar(alvo, true);
+        if (procura.valor() != null) {
+            return procura.valor();
+        }
+        for (Contacto proximo : procura.maisProximos()) {
+            if (proximo.id().equals(alvo)) {
+                return proximo;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Define quem é avisado quando um contacto entra na tabela ou muda de endereço.
+     *
+     * @param aoConhecer Recebe o contacto (chamado nas threads da DHT)
+     */
+    public void setAoConhecer(Consumer<Contacto> aoConhecer) {
+        this.aoConhecer = aoConhecer;
+    }
+
+    /**
+     * Define o acordo de chaves usado para responder aos desafios e verificar as provas de endereço.
+     * Sem ele, os desafios são ignorados e nenhum endereço é confirmado.
+     *
+     * @param acordo Acordo com a chave privada de identidade do Peer
+     */
+    public void setAcordoChaves(AcordoChaves acordo) {
+        this.acordo = acordo;
+    }
+
+    /**
+     * Confirma que um contacto está no endereço que anuncia: envia um desafio (um nonce aleatório) para esse
+     * endereço e só aceita uma resposta vinda dele com o HMAC do nonce, calculado com a chave do acordo entre
+     * as chaves de identidade dos dois Peers. Só quem tem a chave privada da chave pública esperada a calcula.
+     * Um nó que reencaminhe o desafio para o Peer verdadeiro também passa, mas fica apenas no meio de
+     * mensagens que continuam cifradas para esse Peer.
+     *
+     * @param contacto Contacto com o novo endereço
+     * @param chaveEsperada Chave pública que o contacto tem de provar que tem
+     * @return true se a prova for válida; false se for inválida ou não houver resposta em {@value #TIMEOUT_RPC_MS} ms
+     */
+    public CompletableFuture<Boolean> confirmarEndereco(Contacto contacto, PublicKey chaveEsperada) {
+        AcordoChaves acordoChaves = acordo;
+        if (acordoChaves == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        byte[] nonce = new byte[TAMANHO_NONCE];
+        seguro.nextBytes(nonce);
+        return enviarPedido(contacto.endereco(), DESAFIO, nonce).handle((resposta, erro) -> {
+            if (erro != null || resposta.prova() == null || !resposta.origem().equals(contacto.endereco())
+                    || !resposta.remetente().idPeer().equals(contacto.idPeer())) {
+                return false;
+            }
+            try {
+                byte[] esperada = prova(acordoChaves.acordar(chaveEsperada), nonce, contacto.idPeer(), idPeer);
+                return MessageDigest.isEqual(esperada, resposta.prova());
+            } catch (GeneralSecurityException e) {
+                Logger.aviso("Não foi possível verificar a prova de endereço de " + contacto.idPeer() + ": " + e.getMessage());
+                return false;
+            }
+        });
+    }
+
+    public TabelaEncaminhamento getTabela() {
+        return tabela;
+    }
+
+    public IdNo getIdNo() {
+        return id;
+    }
+
+    /**
+     * Obtém o número de pedidos enviados por este nó (para medir o custo das procuras).
+     *
+     * @return Pedidos enviados
+     */
+    public long getPedidosEnviados() {
+        return pedidosEnviados.sum();
+    }
+
+    // Procura iterativa: pergunta aos ALFA mais próximos ainda não consultados até ter consultado os K mais próximos
+    private Procura procurar(IdNo alvo, boolean procurarValor) {
+        TreeMap<IdNo, Contacto> candidatos = new TreeMap<>(); // Por distância ao alvo
+        for (Contacto contacto : tabela.maisProximos(alvo, K)) {
+            candidatos.put(contacto.id().distancia(alvo), contacto);
+        }
+        Set<IdNo> consultados = new HashSet<>();
+        while (true) {
+            List<Contacto> ronda = new ArrayList<>(ALFA);
+            int vistos = 0;
+            for (Contacto contacto : candidatos.values()) {
+                if (ronda.size() == ALFA || vistos++ == K) {
+                    break;
+                }
+                if (consultados.add(contacto.id())) {
+                    ronda.add(contacto);
+                }
+            }
+            if (ronda.isEmpty()) {
+                break; // Os K mais próximos conhecidos já foram todos consultados
+            }
+            List<CompletableFuture<Resposta>> respostas = new ArrayList<>(ronda.size());
+            for (Contacto contacto : ronda) {
+                respostas.add(pedir(contacto.endereco(), procurarValor ? FIND_VALUE : FIND_NODE, alvo));
+            }
+            for (int i = 0; i < ronda.size(); i++) {
+                Contacto contacto = ronda.get(i);
+                try {
+                    Resposta resposta = respostas.get(i).join();
+                    if (resposta.valor() != null && resposta.valor().id().equals(alvo)) {
+                        return new Procura(resposta.valor(), new ArrayList<>(candidatos.values()));
+                    }
+                    for (Contacto proximo : resposta.nos()) {
+                        if (!proximo.id().equals(id)) {
+                            candidatos.putIfAbsent(proximo.id().distancia(alvo), proximo);
+                        }
+                    }
+                } catch (CompletionException e) {
+                    candidatos.remove(contacto.id().distancia(alvo)); // Não respondeu: deixa de contar para os K mais próximos
+                    tabela.remover(contacto.id());
+                }
+            }
+        }
+        List<Contacto> maisProximos = new ArrayList<>(K);
+        for (Contacto contacto : candidatos.values()) {
+            if (maisProximos.size() == K) {
+                break;
+            }
+            maisProximos.add(contacto);
+        }
+        return new Procura(null, maisProximos);
+    }
+
+    // Regista um contacto que comunicou com este nó; num bucket cheio, testa o mais antigo antes de o substituir
+    private void conhecer(Contacto contacto) {
+        if (contacto.id().equals(id)) {
+            return;
+        }
+        Contacto anterior = tabela.obter(contacto.id());
+        Contacto antigo = tabela.atualizar(contacto);
+        if (antigo == null) {
+            if (anterior == null || !anterior.endereco().equals(contacto.endereco())) {
+                avisar(contacto);
+            }
+            return;
+        }
+        if (testesEmCurso.add(antigo.id())) {
+            pedir(antigo.endereco(), PING, null).whenComplete((resposta, erro) -> {
+                testesEmCurso.remove(antigo.id());
+                if (erro != null) { // O mais antigo não responde: o novo fica com o seu lugar
+                    tabela.substituir(antigo, contacto);
+                    avisar(contacto);
+                }
+            });
+        }
+    }
+
+    private void avisar(Contacto contacto) {
+        try {
+            aoConhecer.accept(contacto);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private CompletableFuture<Resposta> pedir(InetSocketAddress destino, byte tipo, IdNo alvo) {
+        return enviarPedido(destino, tipo, alvo != null ? alvo.getBytes() : null);
+    }
+
+    // Envia um pedido; a resposta completa o future, ou este falha ao fim de TIMEOUT_RPC_MS
+    private CompletableFuture<Resposta> enviarPedido(InetSocketAddress destino, byte tipo, byte[] corpo) {
+        long idPedido = proximoPedido.incrementAndGet();
+        CompletableFuture<Resposta> resposta = new CompletableFuture<>();
+        pendentes.put(idPedido, resposta);
+        resposta.orTimeout(TIMEOUT_RPC_MS, TimeUnit.MILLISECONDS).whenComplete((r, e) -> pendentes.remove(idPedido));
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = cabecalho(bytes, tipo, idPedido);
+            if (corpo != null) {
+                out.write(corpo);
+            }
+            enviar(destino, bytes);
+            pedidosEnviados.increment();
+        } catch (IOException e) {
+            resposta.completeExceptionally(e);
+        }
+        return resposta;
+    }
+
+    // Ciclo de receção dos datagramas
+    private void receber(DatagramSocket socketUdp) {
+        byte[] buffer = new byte[TAMANHO_MAXIMO_DATAGRAMA];
+        while (!socketUdp.isClosed()) {
+            DatagramPacket pacote = new DatagramPacket(buffer, buffer.length);
+            try {
+                socketUdp.receive(pacote);
+            } catch (IOException e) {
+                if (!socketUdp.isClosed()) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+            try {
+                tratar(pacote);
+            } catch (IOException | GeneralSecurityException | RuntimeException e) {
+                Logger.aviso("Datagrama da DHT inválido de " + pacote.getSocketAddress() + ": " + e);
+            }
+        }
+    }
+
+    // Trata um pedido ou uma resposta
+    private void tratar(DatagramPacket pacote) throws IOException, GeneralSecurityException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(pacote.getData(), pacote.getOffset(), pacote.getLength()));
+        byte tipo = in.readByte();
+        long idPedido = in.readLong();
+        Contacto remetente = lerContacto(in, pacote.getAddress());
+        // Quem comunica connosco está vivo: entra (ou sobe) na tabela antes de a resposta ser entregue a quem a espera
+        conhecer(remetente);
+        switch (tipo) {
+            case PING:
+                responder(remetente, PONG, idPedido, null, null);
+                break;
+            case STORE:
+                valores.put(remetente.id(), remetente); // Apenas o próprio contacto, com o endereço de origem
+                responder(remetente, PONG, idPedido, null, null);
+                break;
+            case FIND_NODE:
+            case FIND_VALUE: {
+                IdNo alvo = lerId(in);
+                Contacto valor = null;
+                if (tipo == FIND_VALUE) {
+                    valor = alvo.equals(id) ? proprio : valores.get(alvo);
+                    if (valor == null) {
+                        valor = tabela.obter(alvo);
+                    }
+                }
+                if (valor != null) {
+                    responder(remetente, VALOR, idPedido, null, valor);
+                } else {
+                    responder(remetente, NOS, idPedido, tabela.maisProximos(alvo, K), null);
+                }
+                break;
+            }
+            case DESAFIO: {
+                byte[] nonce = new byte[TAMANHO_NONCE];
+                in.readFully(nonce);
+                AcordoChaves acordoChaves = acordo;
+                if (acordoChaves != null) { // Prova que este nó tem a chave privada da chave pública que anuncia
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+                    cabecalho(bytes, PROVA, idPedido).write(prova(acordoChaves.acordar(remetente.chavePublica()), nonce,
+                            idPeer, remetente.idPeer()));
+                    enviar(remetente.endereco(), bytes);
+                }
+                break;
+            }
+            case PONG:
+            case NOS:
+            case VALOR:
+            case PROVA: {
+                List<Contacto> nos = new ArrayList<>();
+                Contacto valor = null;
+                byte[] prova = null;
+                if (tipo == NOS) {
+                    int n = in.readUnsignedShort();
+                    for (int i = 0; i < n; i++) {
+                        nos.add(lerContacto(in, pacote.getAddress()));
+                    }
+                } else if (tipo == VALOR) {
+                    valor = lerContacto(in, pacote.getAddress());
+                } else if (tipo == PROVA) {
+                    prova = in.readNBytes(TAMANHO_MAXIMO_DATAGRAMA);
+                }
+                CompletableFuture<Resposta> pendente = pendentes.remove(idPedido);
+                if (pendente != null) {
+                    pendente.complete(new Resposta(remetente, (InetSocketAddress) pacote.getSocketAddress(), nos, valor, prova));
+                }
+                break;
+            }
+            default:
+                Logger.aviso("Tipo de mensagem da DHT desconhecido: " + tipo);
+        }
+    }
+
+    // Prova de um desafio: HMAC-SHA256 do nonce e dos IDs de quem prova e de quem desafia (não serve ao contrário)
+    private static byte[] prova(SecretKey chaveAcordo, byte[] nonce, String idQuemProva, String idQuemDesafia)
+            throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(chaveAcordo.getEncoded(), "HmacSHA256"));
+        mac.update(ROTULO_PROVA);
+        mac.update(nonce);
+        mac.update(idQuemProva.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        mac.update(idQuemDesafia.getBytes(StandardCharsets.UTF_8));
+        return mac.doFinal();
+    }
+
+    private void responder(Contacto destino, byte tipo, long idPedido, List<Contacto> nos, Contacto valor) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(tipo == NOS ? 2048 : 128);
+        DataOutputStream out = cabecalho(bytes, tipo, idPedido);
+        if (nos != null) {
+            out.writeShort(nos.size());
+            for (Contacto contacto : nos) {
+                escreverContacto(out, contacto);
+            }
+        }
+        if (valor != null) {
+            escreverContacto(out, valor);
+        }
+        enviar(destino.endereco(), bytes);
+    }
+
+    // Escreve o tipo, o ID do pedido e o contacto deste nó
+    private DataOutputStream cabecalho(ByteArrayOutputStream bytes, byte tipo, long idPedido) throws IOException {
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(tipo);
+        out.writeLong(idPedido);
+        escreverContacto(out, proprio);
+        return out;
+    }
+
+    private void enviar(InetSocketAddress destino, ByteArrayOutputStream bytes) throws IOException {
+        DatagramSocket socketUdp = socket;
+        if (socketUdp == null) {
+            throw new IOException("DHT não iniciada");
+        }
+        socketUdp.send(new DatagramPacket(bytes.toByteArray(), bytes.size(), destino));
+    }
+
+    // Contacto: ID do Peer, endereço IP (vazio = o de origem do datagrama), porta e chave pública (modo e X.509)
+    private void escreverContacto(DataOutputStream out, Contacto contacto) throws IOException {
+        out.writeUTF(contacto.idPeer());
+        if (contacto.endereco() == null) {
+            out.writeByte(0);
+            out.writeShort(porta);
+        } else {
+            byte[] ip = contacto.endereco().getAddress().getAddress();
+            out.writeByte(ip.length);
+            out.write(ip);
+            out.writeShort(contacto.endereco().getPort());
+        }
+        try {
+            out.writeByte(ModoChaves.daChave(contacto.chavePublica()).ordinal());
+        } catch (InvalidKeyException e) {
+            throw new IOException(e);
+        }
+        byte[] chave = contacto.chavePublica().getEncoded();
+        out.writeShort(chave.length);
+        out.write(chave);
+    }
+
+    private Contacto lerContacto(DataInputStream in, InetAddress origem) throws IOException, InvalidKeyException {
+        String idPeerContacto = in.readUTF();
+        int tamanhoIp = in.readUnsignedByte();
+        InetAddress ip = origem;
+        if (tamanhoIp > 0) {
+            byte[] bytesIp = new byte[tamanhoIp];
+            in.readFully(bytesIp);
+            ip = InetAddress.getByAddress(bytesIp);
+        }
+        int portaContacto = in.readUnsignedShort();
+        ModoChaves modo = ModoChaves.values()[in.readUnsignedByte()];
+        byte[] chave = new byte[in.readUnsignedShort()];
+        in.readFully(chave);
+        return new Contacto(idPeerContacto, IdNo.doPeer(idPeerContacto), new InetSocketAddress(ip, portaContacto),
+                descodificarChave(idPeerContacto, modo, chave));
+    }
+
+    // Descodifica uma chave pública, reutilizando a anterior do mesmo Peer se os bytes forem iguais
+    private PublicKey descodificarChave(String idPeerContacto, ModoChaves modo, byte[] codificada) throws InvalidKeyException {
+        ChaveDescodificada anterior = chavesDescodificadas.get(idPeerContacto);
+        if (anterior != null && anterior.modo() == modo && Arrays.equals(anterior.codificada(), codificada)) {
+            return anterior.chave();
+        }
+        PublicKey chave = modo.decodificarChavePublica(codificada);
+        if (chavesDescodificadas.size() >= MAXIMO_CHAVES_DESCODIFICADAS) {
+            chavesDescodificadas.clear(); // Limite simples: volta a descodificar as chaves em uso
+        }
+        chavesDescodificadas.put(idPeerContacto, new ChaveDescodificada(modo, codificada, chave));
+        return chave;
+    }
+
+    private static IdNo lerId(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[IdNo.BYTES];
+        in.readFully(bytes);
+        return IdNo.deBytes(bytes);
+    }
+
+    @Override
+    public String toString() {
+        return "Kademlia[" + idPeer + " " + id + ", " + tabela.tamanho() + " contactos]";
+    }
+}
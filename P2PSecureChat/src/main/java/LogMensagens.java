@@ -0,0 +1,357 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Classe LogMensagens que guarda as conversas num log persistente, cifrado e apenas de acréscimo.
+ *
+ * O log é dividido em segmentos (ficheiros segmento-NNNNNN.log) com até {@link #TAMANHO_SEGMENTO} bytes.
+ * Cada registo tem o formato (inteiros em big-endian):
+ * <pre>
+ *   comprimento (4) | CRC32 do texto cifrado (4) | texto cifrado (AES-GCM)
+ *   texto em claro: instante (8) | conversa (UTF) | remetente (UTF) | mensagem (UTF-8 até ao fim)
+ * </pre>
+ * A posição do registo (segmento e offset) é autenticada como dados associados, pelo que um registo
+ * copiado para outra posição é rejeitado. A chave de cifra fica no ficheiro "chave" do diretório.
+ *
+ * Na memória fica apenas um índice por conversa com a posição de cada registo; as mensagens são lidas
+ * dos segmentos quando são pedidas, através de mapeamentos em memória de blocos de {@link #TAMANHO_BLOCO} bytes
+ * (cada bloco é mapeado uma única vez, quando fica completo). Ao abrir, os segmentos são
+ * percorridos para reconstruir o índice; um registo incompleto ou com CRC inválido (escrita interrompida
+ * por uma falha) marca o fim dos dados válidos e o segmento é truncado nesse ponto.
+ */
+public class LogMensagens implements ArmazemConversas {
+    // Nome da propriedade de sistema com o diretório dos logs (um subdiretório por Peer)
+    public static final String PROPRIEDADE = "p2p.dirMensagens";
+
+    // Tamanho máximo de um segmento
+    public static final int TAMANHO_SEGMENTO = 64 * 1024 * 1024;
+
+    // Tamanho de cada bloco mapeado em memória de um segmento
+    private static final int TAMANHO_BLOCO = 1024 * 1024;
+
+    // Tamanho do cabeçalho de um registo (comprimento e CRC32)
+    private static final int TAMANHO_CABECALHO = 8;
+
+    // Acréscimo do AES-GCM ao texto em claro (nonce e tag)
+    private static final int ACRESCIMO_CIFRA = MotorCripto.TAMANHO_NONCE + MotorCripto.BITS_TAG / 8;
+
+    private final Path diretorio;
+    private final SecretKey chave;
+    private final List<Segmento> segmentos = new ArrayList<>();
+
+    // Posições (segmento << 32 | offset) dos registos de cada conversa, pela ordem de escrita
+    private final Map<String, Posicoes> indice = new HashMap<>();
+
+    /**
+     * Abre (ou cria) o log no diretório indicado e reconstrói o índice a partir dos segmentos.
+     *
+     * @param diretorio Diretório do log
+     * @throws IOException Caso não seja possível ler os segmentos ou um registo não possa ser decifrado
+     */
+    public LogMensagens(Path diretorio) throws IOException {
+        this.diretorio = diretorio;
+        Files.createDirectories(diretorio);
+        this.chave = carregarChave(diretorio.resolve("chave"));
+
+        List<Path> ficheiros;
+        try (Stream<Path> lista = Files.list(diretorio)) {
+            ficheiros = lista.filter(p -> p.getFileName().toString().matches("segmento-\\d{6}\\.log")).sorted().toList();
+        }
+        for (Path ficheiro : ficheiros) {
+            recuperar(abrirSegmento(ficheiro));
+        }
+        if (segmentos.isEmpty()) {
+            novoSegmento();
+        }
+    }
+
+    @Override
+    public synchronized RegistoMensagem acrescentar(String idConversa, String idRemetente, String mensagem) throws IOException {
+        long instante = System.currentTimeMillis();
+        byte[] registo = textoEmClaro(instante, idConversa, idRemetente, mensagem);
+        int comprimento = registo.length + ACRESCIMO_CIFRA;
+        if (comprimento > TAMANHO_SEGMENTO - TAMANHO_CABECALHO) {
+            throw new IOException("Mensagem demasiado grande para o log: " + comprimento + " bytes");
+        }
+        Segmento ativo = segmentos.get(segmentos.size() - 1);
+        if (ativo.tamanho + TAMANHO_CABECALHO + comprimento > TAMANHO_SEGMENTO) {
+            ativo.canal.force(false); // O segmento fica fechado para escrita: garante que chega ao disco
+            ativo = novoSegmento();
+        }
+
+        int offset = (int) ativo.tamanho;
+        byte[] cifrado;
+        try {
+            cifrado = MotorCripto.cifrarAead(chave, dadosAssociados(ativo.numero, offset), registo);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Erro ao cifrar o registo", e);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(cifrado);
+        ByteBuffer buffer = ByteBuffer.allocate(TAMANHO_CABECALHO + cifrado.length);
+        buffer.putInt(cifrado.length).putInt((int) crc.getValue()).put(cifrado).flip();
+        long posicao = offset;
+        while (buffer.hasRemaining()) {
+            posicao += ativo.canal.write(buffer, posicao);
+        }
+        ativo.tamanho = posicao;
+        Posicoes posicoes = indice.computeIfAbsent(idConversa, k -> new Posicoes());
+        posicoes.adicionar(posicaoRegisto(segmentos.size() - 1, offset));
+        return new RegistoMensagem(posicoes.tamanho - 1, instante, idRemetente, mensagem);
+    }
+
+    @Override
+    public synchronized long tamanho(String idConversa) {
+        Posicoes posicoes = indice.get(idConversa);
+        return posicoes == null ? 0 : posicoes.tamanho;
+    }
+
+    @Override
+    public synchronized List<RegistoMensagem> ler(String idConversa, long desde, int quantidade) throws IOException {
+        Posicoes posicoes = indice.get(idConversa);
+        if (posicoes == null || desde >= posicoes.tamanho || quantidade <= 0) {
+            return new ArrayList<>();
+        }
+        int inicio = (int) Math.max(0, desde);
+        int fim = (int) Math.min(posicoes.tamanho, desde + quantidade);
+        List<RegistoMensagem> mensagens = new ArrayList<>(fim - inicio);
+        for (int i = inicio; i < fim; i++) { // Apenas os registos pedidos são lidos e decifrados
+            long posicao = posicoes.valores[i];
+            Registo registo = lerRegisto(segmentos.get((int) (posicao >>> 32)), (int) posicao);
+            mensagens.add(new RegistoMensagem(i, registo.instante, registo.remetente, registo.mensagem));
+        }
+        return mensagens;
+    }
+
+    @Override
+    public synchronized Set<String> getConversas() {
+        return new HashSet<>(indice.keySet());
+    }
+
+    @Override
+    public synchronized void fechar() throws IOException {
+        for (Segmento segmento : segmentos) {
+            if (segmento.canal.isOpen()) {
+                segmento.canal.force(false);
+                segmento.canal.close();
+            }
+        }
+    }
+
+    // Lê o registo que começa num offset de um segmento
+    private Registo lerRegisto(Segmento segmento, int offset) throws IOException {
+        int comprimento = segmento.lerInt(offset);
+        byte[] cifrado = new byte[comprimento];
+        segmento.ler(offset + TAMANHO_CABECALHO, cifrado);
+        byte[] registo;
+        try {
+            registo = MotorCripto.decifrarAead(chave, dadosAssociados(segmento.numero, offset), cifrado);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Registo inválido em " + segmento.caminho.getFileName() + "@" + offset
+                    + " (chave errada ou dados alterados)", e);
+        }
+        ByteBuffer dados = ByteBuffer.wrap(registo);
+        long instante = dados.getLong();
+        String conversa = lerUtf(dados);
+        String remetente = lerUtf(dados);
+        String mensagem = new String(registo, dados.position(), dados.remaining(), StandardCharsets.UTF_8);
+        return new Registo(instante, conversa, remetente, mensagem);
+    }
+
+    // Percorre um segmento, acrescenta os registos válidos ao índice e trunca o que estiver depois deles
+    private void recuperar(Segmento segmento) throws IOException {
+        int indiceSegmento = segmentos.size() - 1;
+        long tamanhoFicheiro = segmento.canal.size();
+        int offset = 0;
+        CRC32 crc = new CRC32();
+        while (offset + TAMANHO_CABECALHO <= tamanhoFicheiro) {
+            int comprimento = segmento.lerInt(offset);
+            if (comprimento < ACRESCIMO_CIFRA || offset + TAMANHO_CABECALHO + (long) comprimento > tamanhoFicheiro) {
+                break; // Registo incompleto
+            }
+            byte[] cifrado = new byte[comprimento];
+            segmento.ler(offset + TAMANHO_CABECALHO, cifrado);
+            crc.reset();
+            crc.update(cifrado);
+            if ((int) crc.getValue() != segmento.lerInt(offset + 4)) {
+                break; // Registo corrompido por uma escrita interrompida
+            }
+            Registo registo = lerRegisto(segmento, offset);
+            indice.computeIfAbsent(registo.conversa, k -> new Posicoes()).adicionar(posicaoRegisto(indiceSegmento, offset));
+            offset += TAMANHO_CABECALHO + comprimento;
+        }
+        if (offset < tamanhoFicheiro) {
+            Logger.aviso("Log de mensagens: " + (tamanhoFicheiro - offset) + " bytes inválidos removidos do fim de "
+                    + segmento.caminho.getFileName());
+            segmento.canal.truncate(offset);
+            segmento.blocos = new MappedByteBuffer[0]; // Os blocos mapeados podiam incluir a parte removida
+        }
+        segmento.tamanho = offset;
+    }
+
+    private Segmento novoSegmento() throws IOException {
+        int numero = segmentos.isEmpty() ? 0 : segmentos.get(segmentos.size() - 1).numero + 1;
+        return abrirSegmento(diretorio.resolve(String.format("segmento-%06d.log", numero)));
+    }
+
+    private Segmento abrirSegmento(Path ficheiro) throws IOException {
+        String nome = ficheiro.getFileName().toString();
+        int numero = Integer.parseInt(nome.substring("segmento-".length(), nome.length() - ".log".length()));
+        FileChannel canal = FileChannel.open(ficheiro, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segmento segmento = new Segmento(numero, ficheiro, canal);
+        segmento.tamanho = canal.size();
+        segmentos.add(segmento);
+        return segmento;
+    }
+
+    // Lê a chave de cifra do log, ou cria uma nova (legível apenas pelo dono, quando o sistema o permite)
+    private static SecretKey carregarChave(Path ficheiro) throws IOException {
+        if (Files.exists(ficheiro)) {
+            return EncryptionUtil.loadKey(Files.readAllBytes(ficheiro));
+        }
+        byte[] bytes;
+        try {
+            bytes = EncryptionUtil.generateKey().getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Erro ao gerar a chave do log", e);
+        }
+        try (OutputStream out = ArmazemChaves.criarFicheiroPrivado(ficheiro)) { // Criado já só legível pelo dono
+            out.write(bytes);
+        }
+        return EncryptionUtil.loadKey(bytes);
+    }
+
+    private static byte[] textoEmClaro(long instante, String idConversa, String idRemetente, String mensagem) throws IOException {
+        byte[] corpo = mensagem.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(corpo.length + 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(instante);
+        escreverUtf(out, idConversa);
+        escreverUtf(out, idRemetente);
+        out.write(corpo);
+        return bytes.toByteArray();
+    }
+
+    // Comprimento (2 bytes) e UTF-8 normal, como lerUtf os lê: o writeUTF usa UTF-8 modificado, que muda o NUL e
+    // os carateres fora do BMP (nos outros as duas codificações coincidem, pelo que os logs antigos continuam legíveis)
+    private static void escreverUtf(DataOutputStream out, String valor) throws IOException {
+        byte[] utf8 = valor.getBytes(StandardCharsets.UTF_8);
+        if (utf8.length > 0xFFFF) {
+            throw new UTFDataFormatException("ID demasiado longo: " + utf8.length + " bytes");
+        }
+        out.writeShort(utf8.length);
+        out.write(utf8);
+    }
+
+    private static String lerUtf(ByteBuffer dados) {
+        int comprimento = dados.getShort() & 0xFFFF;
+        String valor = new String(dados.array(), dados.position(), comprimento, StandardCharsets.UTF_8);
+        dados.position(dados.position() + comprimento);
+        return valor;
+    }
+
+    // Segmento e offset do registo, autenticados juntamente com o registo
+    private static byte[] dadosAssociados(int segmento, int offset) {
+        return ByteBuffer.allocate(8).putInt(segmento).putInt(offset).array();
+    }
+
+    private static long posicaoRegisto(int indiceSegmento, int offset) {
+        return ((long) indiceSegmento << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Um ficheiro de segmento. Os blocos completos (abaixo do tamanho escrito) são mapeados em memória uma única
+     * vez e reutilizados; o fim do segmento, que ainda cresce, e os registos entre dois blocos são lidos
+     * diretamente do ficheiro, para que os acréscimos nunca obriguem a refazer mapeamentos.
+     */
+    private static final class Segmento {
+        final int numero;
+        final Path caminho;
+        final FileChannel canal;
+        long tamanho;                                     // Bytes válidos escritos
+        MappedByteBuffer[] blocos = new MappedByteBuffer[0]; // Blocos já mapeados (apenas de leitura), por índice
+
+        Segmento(int numero, Path caminho, FileChannel canal) {
+            this.numero = numero;
+            this.caminho = caminho;
+            this.canal = canal;
+        }
+
+        int lerInt(long posicao) throws IOException {
+            byte[] bytes = new byte[4];
+            ler(posicao, bytes);
+            return ByteBuffer.wrap(bytes).getInt();
+        }
+
+        // Lê destino.length bytes a partir de uma posição do segmento
+        void ler(long posicao, byte[] destino) throws IOException {
+            int indice = (int) (posicao / TAMANHO_BLOCO);
+            long inicioBloco = (long) indice * TAMANHO_BLOCO;
+            long fimBloco = inicioBloco + TAMANHO_BLOCO;
+            if (posicao + destino.length <= fimBloco && fimBloco <= tamanho) {
+                bloco(indice, inicioBloco).get((int) (posicao - inicioBloco), destino);
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(destino);
+            while (buffer.hasRemaining()) {
+                if (canal.read(buffer, posicao + buffer.position()) < 0) {
+                    throw new EOFException("Fim inesperado de " + caminho.getFileName() + " em " + (posicao + buffer.position()));
+                }
+            }
+        }
+
+        private MappedByteBuffer bloco(int indice, long inicioBloco) throws IOException {
+            if (indice >= blocos.length) {
+                blocos = Arrays.copyOf(blocos, Math.max(indice + 1, TAMANHO_SEGMENTO / TAMANHO_BLOCO));
+            }
+            if (blocos[indice] == null) {
+                blocos[indice] = canal.map(FileChannel.MapMode.READ_ONLY, inicioBloco, TAMANHO_BLOCO);
+            }
+            return blocos[indice];
+        }
+    }
+
+    /**
+     * Lista crescente de posições de registos de uma conversa.
+     */
+    private static final class Posicoes {
+        long[] valores = new long[8];
+        int tamanho;
+
+        void adicionar(long posicao) {
+            if (tamanho == valores.length) {
+                valores = Arrays.copyOf(valores, tamanho * 2);
+            }
+            valores[tamanho++] = posicao;
+        }
+    }
+
+    /**
+     * Registo decifrado do log.
+     */
+    private record Registo(long instante, String conversa, String remetente, String mensagem) {
+    }
+}
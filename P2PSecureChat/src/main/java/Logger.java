@@ -1,11 +1,390 @@
-import java.time.LocalDateTime;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
 
+/**
+ * Classe Logger com o registo de eventos da aplicação, por níveis e assíncrono.
+ * Quem regista só escreve a entrada (nível, instante, thread e texto ou {@link Supplier}) num buffer circular
+ * sem locks e continua; a formatação (data, texto dos suppliers, pilhas das exceções) e a escrita são
+ * feitas por uma thread à parte, em lotes. Com o nível desligado, uma chamada custa só a comparação do
+ * nível: os suppliers não são avaliados e nada é alocado. Se o buffer estiver cheio a entrada é
+ * descartada (e contada), para nunca bloquear o envio ou a receção de mensagens.
+ *
+ * Configuração (propriedades do sistema):
+ *  - p2p.log.nivel: DEBUG, INFO (por omissão), AVISO ou ERRO;
+ *  - p2p.log.ficheiro: ficheiro de log; por omissão escreve na consola (System.out);
+ *  - p2p.log.tamanhoMaximoMb: tamanho a partir do qual o ficheiro roda (por omissão 10);
+ *  - p2p.log.ficheiros: número de ficheiros antigos guardados (ficheiro.1 ... ficheiro.N, por omissão 5);
+ *  - p2p.log.capacidade: número de entradas do buffer (potência de 2, por omissão 8192).
+ */
 public class Logger {
+
+    /**
+     * Níveis do registo, do mais detalhado para o mais grave.
+     */
+    public enum Nivel {
+        DEBUG, INFO, AVISO, ERRO
+    }
+
+    // Número máximo de entradas escritas de cada vez
+    private static final int LOTE = 256;
+
+    // Tempo máximo que a thread de escrita dorme sem ser acordada
+    private static final long ESPERA_MAXIMA_NS = 50_000_000;
+
+    private static final DateTimeFormatter FORMATO_DATA = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss", Locale.ROOT)
+            .withZone(ZoneId.systemDefault());
+
+    private static volatile Nivel nivelMinimo = nivelDoSistema();
+
+    // Buffer circular: a entrada da posição p fica no índice p & mascara e está pronta quando sequencias[i] == p + 1
+    private static final int CAPACIDADE = capacidadeDoSistema();
+    private static final int MASCARA = CAPACIDADE - 1;
+    private static final AtomicLongArray sequencias = new AtomicLongArray(CAPACIDADE);
+    private static final Nivel[] niveis = new Nivel[CAPACIDADE];
+    private static final long[] instantes = new long[CAPACIDADE];
+    private static final String[] threads = new String[CAPACIDADE];
+    private static final Object[] textos = new Object[CAPACIDADE]; // String ou Supplier<String>
+    private static final Throwable[] erros = new Throwable[CAPACIDADE];
+
+    // Próxima posição a reservar por quem regista
+    private static final AtomicLong cauda = new AtomicLong();
+
+    // Próxima posição a ler (só usada pela thread de escrita) e posição até onde já foi escrito
+    private static long cabeca;
+    private static volatile long escritas;
+
+    private static final LongAdder descartadas = new LongAdder();
+    private static long descartadasReportadas;
+
+    private static final Destino destino = destinoDoSistema();
+    private static volatile boolean aDormir;
+    private static final Thread escritor;
+
+    static {
+        for (int i = 0; i < CAPACIDADE; i++) {
+            sequencias.set(i, i);
+        }
+        escritor = new Thread(Logger::escrever, "logger");
+        escritor.setDaemon(true); // Não impede a JVM de terminar; o hook abaixo escreve o que faltar
+        escritor.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Logger::descarregar, "logger-fim"));
+    }
+
+    /**
+     * Regista uma mensagem informativa (igual a {@link #info(String)}).
+     *
+     * @param message Mensagem
+     */
     public static void log(String message) {
-        System.out.println(message);
+        registar(Nivel.INFO, message, null);
+    }
+
+    /**
+     * Regista uma mensagem de depuração. O texto só é construído, na thread de escrita, se o nível
+     * DEBUG estiver ativo; não deve depender de estado que mude depois da chamada.
+     *
+     * @param mensagem Função que constrói a mensagem
+     */
+    public static void debug(Supplier<String> mensagem) {
+        registar(Nivel.DEBUG, mensagem, null);
+    }
+
+    /**
+     * Regista uma mensagem informativa.
+     *
+     * @param mensagem Mensagem
+     */
+    public static void info(String mensagem) {
+        registar(Nivel.INFO, mensagem, null);
+    }
+
+    /**
+     * Regista uma mensagem informativa construída só se o nível INFO estiver ativo.
+     *
+     * @param mensagem Função que constrói a mensagem
+     */
+    public static void info(Supplier<String> mensagem) {
+        registar(Nivel.INFO, mensagem, null);
+    }
+
+    /**
+     * Regista um aviso (por exemplo, um peer que não foi encontrado ou uma mensagem inválida).
+     *
+     * @param mensagem Mensagem
+     */
+    public static void aviso(String mensagem) {
+        registar(Nivel.AVISO, mensagem, null);
+    }
+
+    /**
+     * Regista um erro, com a pilha da exceção.
+     *
+     * @param mensagem Mensagem
+     * @param erro Exceção, ou null
+     */
+    public static void erro(String mensagem, Throwable erro) {
+        registar(Nivel.ERRO, mensagem, erro);
+    }
+
+    /**
+     * Indica se as mensagens de um nível são registadas. Útil para evitar preparar dados só para o log.
+     *
+     * @param nivel Nível
+     * @return true se o nível estiver ativo
+     */
+    public static boolean ativo(Nivel nivel) {
+        return nivel.compareTo(nivelMinimo) >= 0;
+    }
+
+    /**
+     * Altera o nível mínimo das mensagens registadas.
+     *
+     * @param nivel Novo nível mínimo
+     */
+    public static void setNivel(Nivel nivel) {
+        nivelMinimo = nivel;
+    }
+
+    public static Nivel getNivel() {
+        return nivelMinimo;
+    }
+
+    /**
+     * Obtém o número de entradas descartadas por o buffer estar cheio.
+     *
+     * @return Entradas descartadas desde o arranque
+     */
+    public static long getDescartadas() {
+        return descartadas.sum();
+    }
+
+    /**
+     * Espera (no máximo 2 s) que as entradas registadas até agora sejam escritas.
+     */
+    public static void descarregar() {
+        long alvo = cauda.get();
+        long limite = System.nanoTime() + 2_000_000_000L;
+        while (escritas < alvo && System.nanoTime() < limite) {
+            LockSupport.unpark(escritor);
+            LockSupport.parkNanos(1_000_000);
+        }
     }
 
     public static String formatMessage(String message) {
-        return "[" + LocalDateTime.now() + "] " + message;
+        return "[" + FORMATO_DATA.format(Instant.now()) + "] " + message;
+    }
+
+    // Reserva uma posição do buffer e escreve a entrada; descarta-a se o buffer estiver cheio
+    private static void registar(Nivel nivel, Object texto, Throwable erro) {
+        if (nivel.compareTo(nivelMinimo) < 0) {
+            return;
+        }
+        long posicao = cauda.get();
+        while (true) {
+            long diferenca = sequencias.get((int) posicao & MASCARA) - posicao;
+            if (diferenca == 0) {
+                if (cauda.compareAndSet(posicao, posicao + 1)) {
+                    break;
+                }
+                posicao = cauda.get();
+            } else if (diferenca < 0) {
+                descartadas.increment(); // A thread de escrita ainda não libertou esta posição: buffer cheio
+                return;
+            } else {
+                posicao = cauda.get(); // Outra thread reservou esta posição
+            }
+        }
+        int i = (int) posicao & MASCARA;
+        niveis[i] = nivel;
+        instantes[i] = System.currentTimeMillis();
+        threads[i] = Thread.currentThread().getName();
+        textos[i] = texto;
+        erros[i] = erro;
+        sequencias.set(i, posicao + 1); // Publica a entrada (escrita volátil depois dos campos)
+        if (aDormir) {
+            LockSupport.unpark(escritor);
+        }
+    }
+
+    // Ciclo da thread de escrita: formata e escreve as entradas prontas, em lotes
+    private static void escrever() {
+        StringBuilder lote = new StringBuilder(16 * 1024);
+        while (true) {
+            int n = 0;
+            int i;
+            while (n < LOTE && sequencias.get(i = (int) cabeca & MASCARA) == cabeca + 1) {
+                formatar(lote, niveis[i], instantes[i], threads[i], textos[i], erros[i]);
+                textos[i] = null; // Não mantém vivos os textos e as exceções já escritos
+                erros[i] = null;
+                sequencias.set(i, cabeca + CAPACIDADE); // Liberta a posição para a volta seguinte
+                cabeca++;
+                n++;
+            }
+            long perdidas = descartadas.sum();
+            if (perdidas != descartadasReportadas) {
+                formatar(lote, Nivel.AVISO, System.currentTimeMillis(), "logger",
+                        (perdidas - descartadasReportadas) + " entradas de log descartadas (buffer cheio)", null);
+                descartadasReportadas = perdidas;
+            }
+            if (lote.length() > 0) {
+                try {
+                    destino.escrever(lote);
+                } catch (RuntimeException e) {
+                    e.printStackTrace(); // Não há outro sítio onde registar a falha do próprio log
+                }
+                lote.setLength(0);
+            }
+            escritas = cabeca;
+            if (n < LOTE) {
+                aDormir = true;
+                if (sequencias.get((int) cabeca & MASCARA) != cabeca + 1) { // Volta a ver depois de avisar que dorme
+                    LockSupport.parkNanos(ESPERA_MAXIMA_NS);
+                }
+                aDormir = false;
+            }
+        }
+    }
+
+    // Escreve uma linha "data hora.ms NIVEL [thread] mensagem" (e a pilha da exceção, se houver)
+    @SuppressWarnings("unchecked")
+    private static void formatar(StringBuilder lote, Nivel nivel, long instante, String thread, Object texto, Throwable erro) {
+        String mensagem;
+        try {
+            mensagem = texto instanceof Supplier<?> supplier ? String.valueOf(((Supplier<String>) supplier).get()) : String.valueOf(texto);
+        } catch (RuntimeException e) {
+            mensagem = "(erro ao construir a mensagem: " + e + ")";
+        }
+        long milissegundos = instante % 1000;
+        lote.append(FORMATO_DATA.format(Instant.ofEpochMilli(instante))).append('.')
+                .append(milissegundos < 100 ? (milissegundos < 10 ? "00" : "0") : "").append(milissegundos)
+                .append(' ').append(nivel).append(" [").append(thread).append("] ").append(mensagem)
+                .append(System.lineSeparator());
+        if (erro != null) {
+            StringWriter pilha = new StringWriter();
+            erro.printStackTrace(new PrintWriter(pilha));
+            lote.append(pilha);
+        }
+    }
+
+    // Um nível inválido não pode fazer falhar a inicialização da classe (e com ela todas as chamadas ao Logger)
+    private static Nivel nivelDoSistema() {
+        String nivel = System.getProperty("p2p.log.nivel");
+        if (nivel == null) {
+            return Nivel.INFO;
+        }
+        try {
+            return Nivel.valueOf(nivel.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Nível de log inválido em p2p.log.nivel: " + nivel + " (usado INFO; válidos: "
+                    + Arrays.toString(Nivel.values()) + ")");
+            return Nivel.INFO;
+        }
+    }
+
+    private static int capacidadeDoSistema() {
+        int capacidade = Integer.getInteger("p2p.log.capacidade", 8192);
+        return Integer.highestOneBit(Math.max(capacidade, 2) * 2 - 1); // Arredonda para uma potência de 2
+    }
+
+    private static Destino destinoDoSistema() {
+        String ficheiro = System.getProperty("p2p.log.ficheiro");
+        if (ficheiro == null) {
+            return lote -> {
+                System.out.print(lote); // Resolvido em cada lote, para respeitar um System.setOut posterior
+                System.out.flush();
+            };
+        }
+        long tamanhoMaximo = Long.getLong("p2p.log.tamanhoMaximoMb", 10) * 1024 * 1024;
+        return new FicheiroRotativo(Paths.get(ficheiro), tamanhoMaximo, Integer.getInteger("p2p.log.ficheiros", 5));
+    }
+
+    // Sítio onde os lotes formatados são escritos (só pela thread de escrita)
+    private interface Destino {
+        void escrever(CharSequence lote);
+    }
+
+    /**
+     * Ficheiro de log que, quando passa do tamanho máximo, é renomeado para ficheiro.1 (e os anteriores
+     * para ficheiro.2, ...), guardando no máximo N ficheiros antigos.
+     */
+    private static final class FicheiroRotativo implements Destino {
+        private final Path ficheiro;
+        private final long tamanhoMaximo;
+        private final int antigos;
+        private BufferedWriter out;
+        private long tamanho;
+
+        FicheiroRotativo(Path ficheiro, long tamanhoMaximo, int antigos) {
+            this.ficheiro = ficheiro;
+            this.tamanhoMaximo = tamanhoMaximo;
+            this.antigos = antigos;
+        }
+
+        @Override
+        public void escrever(CharSequence lote) {
+            try {
+                if (out == null) {
+                    abrir();
+                }
+                String texto = lote.toString();
+                out.write(texto);
+                out.flush();
+                tamanho += texto.getBytes(StandardCharsets.UTF_8).length;
+                if (tamanho >= tamanhoMaximo) {
+                    rodar();
+                }
+            } catch (IOException e) {
+                out = null; // Tenta reabrir no lote seguinte
+                throw new UncheckedIOException("Não foi possível escrever no log " + ficheiro, e);
+            }
+        }
+
+        private void abrir() throws IOException {
+            if (ficheiro.toAbsolutePath().getParent() != null) {
+                Files.createDirectories(ficheiro.toAbsolutePath().getParent());
+            }
+            out = Files.newBufferedWriter(ficheiro, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            tamanho = Files.size(ficheiro);
+        }
+
+        private void rodar() throws IOException {
+            out.close();
+            out = null;
+            if (antigos > 0) {
+                for (int i = antigos - 1; i >= 1; i--) {
+                    Path anterior = antigo(i);
+                    if (Files.exists(anterior)) {
+                        Files.move(anterior, antigo(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+                Files.move(ficheiro, antigo(1), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.delete(ficheiro);
+            }
+            abrir();
+        }
+
+        private Path antigo(int i) {
+            return ficheiro.resolveSibling(ficheiro.getFileName() + "." + i);
+        }
     }
 }
@@ -0,0 +1,126 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Classe LoteMensagens que junta as mensagens privadas pendentes para um destinatário, para que sejam
+ * cifradas e escritas num único frame ({@link Frame#LOTE}) em vez de um frame, uma cifra e um flush por mensagem.
+ * O Peer envia o lote quando a primeira mensagem já esperou o tempo máximo ou quando o lote atinge o
+ * tamanho máximo. Não é thread-safe: o Peer usa cada lote com o lock do próprio lote.
+ *
+ * Formato do lote em claro (inteiros em big-endian), que é depois cifrado com AES-GCM:
+ * <pre>
+ *   número de mensagens (4) | por mensagem: ID de correlação (8) | comprimento (4) | mensagem em UTF-8
+ * </pre>
+ */
+public class LoteMensagens {
+    // Bytes de cada mensagem no lote além do texto (ID de correlação e comprimento)
+    private static final int CABECALHO_MENSAGEM = 12;
+
+    // Número máximo de mensagens num lote recebido
+    private static final int MAXIMO_MENSAGENS = 1 << 16;
+
+    /**
+     * Mensagem de um lote, com o ID de correlação com que aparece nos eventos JFR.
+     *
+     * @param idCorrelacao ID de correlação da mensagem
+     * @param mensagem Mensagem em claro
+     * @param bytes Mensagem em UTF-8
+     */
+    public record Entrada(long idCorrelacao, String mensagem, byte[] bytes) {
+    }
+
+    private List<Entrada> entradas = new ArrayList<>();
+    private int bytes;
+
+    /**
+     * Acrescenta uma mensagem ao lote.
+     *
+     * @param idCorrelacao ID de correlação da mensagem
+     * @param mensagem Mensagem em claro
+     * @return true se a mensagem é a primeira do lote
+     */
+    public boolean acrescentar(long idCorrelacao, String mensagem) {
+        byte[] utf8 = mensagem.getBytes(StandardCharsets.UTF_8);
+        entradas.add(new Entrada(idCorrelacao, mensagem, utf8));
+        bytes += CABECALHO_MENSAGEM + utf8.length;
+        return entradas.size() == 1;
+    }
+
+    /**
+     * Obtém o tamanho do lote em claro (sem o número de mensagens).
+     *
+     * @return Tamanho em bytes
+     */
+    public int getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Retira as mensagens do lote, que fica vazio.
+     *
+     * @return Mensagens pela ordem em que foram acrescentadas (vazia se não houver nenhuma)
+     */
+    public List<Entrada> retirar() {
+        List<Entrada> retiradas = entradas;
+        entradas = new ArrayList<>();
+        bytes = 0;
+        return retiradas;
+    }
+
+    /**
+     * Codifica as mensagens de um lote no formato em claro.
+     *
+     * @param entradas Mensagens do lote
+     * @return Lote em claro
+     */
+    public static byte[] codificar(List<Entrada> entradas) {
+        int tamanho = 4;
+        for (Entrada entrada : entradas) {
+            tamanho += CABECALHO_MENSAGEM + entrada.bytes().length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(tamanho);
+        buffer.putInt(entradas.size());
+        for (Entrada entrada : entradas) {
+            buffer.putLong(entrada.idCorrelacao()).putInt(entrada.bytes().length).put(entrada.bytes());
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Descodifica um lote em claro (depois de decifrado e autenticado).
+     *
+     * @param lote Lote em claro
+     * @return Mensagens do lote, pela ordem em que foram enviadas
+     * @throws IOException Caso o lote esteja mal formado
+     */
+    public static List<Entrada> descodificar(byte[] lote) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(lote);
+        try {
+            int numero = buffer.getInt();
+            if (numero < 0 || numero > MAXIMO_MENSAGENS) {
+                throw new IOException("Número de mensagens do lote inválido: " + numero);
+            }
+            List<Entrada> entradas = new ArrayList<>(numero);
+            for (int i = 0; i < numero; i++) {
+                long idCorrelacao = buffer.getLong();
+                int comprimento = buffer.getInt();
+                if (comprimento < 0 || comprimento > buffer.remaining()) {
+                    throw new IOException("Comprimento de mensagem do lote inválido: " + comprimento);
+                }
+                byte[] utf8 = new byte[comprimento];
+                buffer.get(utf8);
+                entradas.add(new Entrada(idCorrelacao, new String(utf8, StandardCharsets.UTF_8), utf8));
+            }
+            if (buffer.hasRemaining()) {
+                throw new IOException("Lote com " + buffer.remaining() + " bytes a mais");
+            }
+            return entradas;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Lote truncado", e);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Classe Metricas com as métricas de um Peer: contadores ({@link LongAdder}, sem contenção entre threads),
+ * medidores (valores lidos no momento da exportação) e histogramas de latência ({@link Histograma}).
+ * Quem mede obtém o contador ou o histograma uma vez e guarda-o num campo, pelo que medir custa
+ * só um incremento, sem procura por nome.
+ *
+ * As métricas de todos os peers registados na JVM são exportadas no formato de texto do Prometheus,
+ * com o ID do Peer como etiqueta: cada família (# TYPE counter, gauge ou summary) aparece uma única vez,
+ * com as amostras de todos os peers juntas. São exportadas por um ou ambos os meios (propriedades do sistema):
+ *  - p2p.metricas.porta: servidor HTTP local em http://localhost:porta/metricas (pull);
+ *  - p2p.metricas.ficheiro: ficheiro reescrito a cada p2p.metricas.intervaloS segundos (por omissão 10),
+ *    útil numa máquina sem acesso pela rede.
+ */
+public class Metricas {
+    // Prefixo dos nomes exportados
+    private static final String PREFIXO = "p2p_";
+
+    // Percentis exportados de cada histograma e a respetiva etiqueta quantile
+    private static final double[] PERCENTIS = {50, 90, 99, 99.9};
+    private static final String[] QUANTIS = {"0.5", "0.9", "0.99", "0.999"};
+
+    private static final CopyOnWriteArrayList<Metricas> registadas = new CopyOnWriteArrayList<>();
+    private static boolean exportacaoIniciada;
+    private static volatile Path ficheiroExportacao;
+
+    // Métricas dos peers que já pararam, guardadas para a escrita do ficheiro quando o último parar
+    private static final CopyOnWriteArrayList<Metricas> paradas = new CopyOnWriteArrayList<>();
+
+    private final String idPeer;
+    private final Map<String, LongAdder> contadores = new ConcurrentSkipListMap<>();
+    private final Map<String, LongSupplier> medidores = new ConcurrentSkipListMap<>();
+    private final Map<String, Histograma> histogramas = new ConcurrentSkipListMap<>();
+
+    /**
+     * Tipo e amostras de uma família de métricas, que têm de ficar seguidas na exportação.
+     */
+    private record Familia(String tipo, StringBuilder amostras) {
+    }
+
+    /**
+     * Construtor da classe Metricas.
+     *
+     * @param idPeer ID do Peer medido (etiqueta "peer" das métricas exportadas)
+     */
+    public Metricas(String idPeer) {
+        this.idPeer = idPeer;
+    }
+
+    /**
+     * Obtém (criando-o na primeira vez) um contador.
+     *
+     * @param nome Nome do contador (exportado com o sufixo _total)
+     * @return Contador
+     */
+    public LongAdder contador(String nome) {
+        return contadores.computeIfAbsent(nome, k -> new LongAdder());
+    }
+
+    /**
+     * Regista um medidor, cujo valor é lido apenas quando as métricas são exportadas.
+     *
+     * @param nome Nome do medidor
+     * @param valor Função que devolve o valor atual
+     */
+    public void medidor(String nome, LongSupplier valor) {
+        medidores.put(nome, valor);
+    }
+
+    /**
+     * Obtém (criando-o na primeira vez) um histograma.
+     *
+     * @param nome Nome do histograma (por convenção com a unidade no fim, por exemplo _ns)
+     * @return Histograma
+     */
+    public Histograma histograma(String nome) {
+        return histogramas.computeIfAbsent(nome, k -> new Histograma());
+    }
+
+    public String getIdPeer() {
+        return idPeer;
+    }
+
+    /**
+     * Escreve as métricas deste Peer no formato de texto do Prometheus: um counter por contador, um gauge por
+     * medidor e, por histograma, um summary (percentis na etiqueta quantile, soma e contagem) e um gauge _max.
+     *
+     * @param saida Onde escrever
+     */
+    public void exportar(StringBuilder saida) {
+        exportar(List.of(this), saida);
+    }
+
+    // Junta as amostras de vários peers por família e escreve cada família, com o seu tipo, uma única vez
+    private static void exportar(List<Metricas> metricas, StringBuilder saida) {
+        Map<String, Familia> familias = new TreeMap<>();
+        for (Metricas doPeer : metricas) {
+            doPeer.recolher(familias);
+        }
+        for (Map.Entry<String, Familia> familia : familias.entrySet()) {
+            saida.append("# TYPE ").append(PREFIXO).append(familia.getKey()).append(' ').append(familia.getValue().tipo()).append('\n');
+            saida.append(familia.getValue().amostras());
+        }
+    }
+
+    // Acrescenta as amostras deste Peer às famílias
+    private void recolher(Map<String, Familia> familias) {
+        String peer = "peer=\"" + idPeer.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+        for (Map.Entry<String, LongAdder> contador : contadores.entrySet()) {
+            String nome = contador.getKey() + "_total";
+            linha(familia(familias, nome, "counter"), nome, peer, contador.getValue().sum());
+        }
+        for (Map.Entry<String, LongSupplier> medidor : medidores.entrySet()) {
+            long valor;
+            try {
+                valor = medidor.getValue().getAsLong();
+            } catch (RuntimeException e) {
+                continue; // Um medidor que falha não impede a exportação dos outros
+            }
+            linha(familia(familias, medidor.getKey(), "gauge"), medidor.getKey(), peer, valor);
+        }
+        for (Map.Entry<String, Histograma> entrada : histogramas.entrySet()) {
+            String nome = entrada.getKey();
+            Histograma histograma = entrada.getValue();
+            StringBuilder resumo = familia(familias, nome, "summary");
+            for (int i = 0; i < PERCENTIS.length; i++) {
+                linha(resumo, nome, peer + ",quantile=\"" + QUANTIS[i] + "\"", histograma.percentil(PERCENTIS[i]));
+            }
+            linha(resumo, nome + "_sum", peer, histograma.getSoma());
+            linha(resumo, nome + "_count", peer, histograma.getTotal());
+            linha(familia(familias, nome + "_max", "gauge"), nome + "_max", peer, histograma.getMaximo()); // O summary não tem máximo
+        }
+    }
+
+    private static StringBuilder familia(Map<String, Familia> familias, String nome, String tipo) {
+        return familias.computeIfAbsent(nome, k -> new Familia(tipo, new StringBuilder())).amostras();
+    }
+
+    private static void linha(StringBuilder saida, String nome, String etiquetas, long valor) {
+        saida.append(PREFIXO).append(nome).append('{').append(etiquetas).append("} ").append(valor).append('\n');
+    }
+
+    /**
+     * Junta as métricas de um Peer às exportadas.
+     *
+     * @param metricas Métricas do Peer
+     */
+    public static void registar(Metricas metricas) {
+        registadas.addIfAbsent(metricas);
+    }
+
+    /**
+     * Retira as métricas de um Peer das exportadas (por exemplo, quando o Peer para). Quando para o último,
+     * o ficheiro é escrito com os valores finais de todos os que pararam, mesmo que o intervalo não tenha terminado.
+     *
+     * @param metricas Métricas do Peer
+     */
+    public static void remover(Metricas metricas) {
+        Path ficheiro = ficheiroExportacao;
+        if (!registadas.remove(metricas) || ficheiro == null) {
+            return;
+        }
+        paradas.addIfAbsent(metricas);
+        if (registadas.isEmpty()) {
+            escreverFicheiro(ficheiro);
+            paradas.clear();
+        }
+    }
+
+    /**
+     * Exporta as métricas de todos os peers registados.
+     *
+     * @return Texto no formato do Prometheus
+     */
+    public static String exportarTodas() {
+        StringBuilder saida = new StringBuilder(4096);
+        exportar(registadas, saida);
+        return saida.toString();
+    }
+
+    /**
+     * Inicia o servidor HTTP e/ou a escrita periódica no ficheiro, conforme as propriedades do sistema.
+     * Só tem efeito na primeira chamada (servem todos os peers da JVM).
+     *
+     * @throws IOException Caso a porta do servidor HTTP não possa ser aberta
+     */
+    public static synchronized void iniciarExportacao() throws IOException {
+        if (exportacaoIniciada) {
+            return;
+        }
+        exportacaoIniciada = true;
+
+        Integer porta = Integer.getInteger("p2p.metricas.porta");
+        if (porta != null) {
+            HttpServer servidor = HttpServer.create(new InetSocketAddress("localhost", porta), 0);
+            servidor.createContext("/metricas", troca -> {
+                byte[] corpo = exportarTodas().getBytes(StandardCharsets.UTF_8);
+                troca.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                troca.sendResponseHeaders(200, corpo.length);
+                try (OutputStream out = troca.getResponseBody()) {
+                    out.write(corpo);
+                }
+            });
+            servidor.setExecutor(Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "metricas-http");
+                t.setDaemon(true);
+                return t;
+            }));
+            servidor.start();
+            Logger.info("Métricas disponíveis em http://localhost:" + porta + "/metricas");
+        }
+
+        String ficheiro = System.getProperty("p2p.metricas.ficheiro");
+        if (ficheiro != null) {
+            Path destino = Paths.get(ficheiro);
+            ficheiroExportacao = destino;
+            long intervalo = Long.getLong("p2p.metricas.intervaloS", 10);
+            ScheduledExecutorService escrita = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "metricas-ficheiro");
+                t.setDaemon(true);
+                return t;
+            });
+            escrita.scheduleAtFixedRate(() -> escreverFicheiro(destino), intervalo, intervalo, TimeUnit.SECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> escreverFicheiro(destino), "metricas-fim"));
+        }
+    }
+
+    // Escreve num ficheiro temporário e substitui o anterior, para que quem lê nunca veja um ficheiro a meio.
+    // Sem peers registados (por exemplo, depois de pararem) o ficheiro fica com os últimos valores
+    private static void escreverFicheiro(Path destino) {
+        if (registadas.isEmpty() && paradas.isEmpty()) {
+            return;
+        }
+        List<Metricas> metricas = new ArrayList<>(registadas);
+        metricas.addAll(paradas);
+        StringBuilder saida = new StringBuilder(4096);
+        exportar(metricas, saida);
+        try {
+            Path temporario = destino.resolveSibling(destino.getFileName() + ".tmp");
+            Files.writeString(temporario, saida, StandardCharsets.UTF_8);
+            Files.move(temporario, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Logger.erro("Não foi possível escrever as métricas em " + destino, e);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.AbstractListModel;
+
+/**
+ * Classe ModeloMensagens que guarda as mensagens carregadas da conversa exibida, para uma {@link javax.swing.JList}.
+ *
+ * Apenas uma parte contínua do histórico está carregada: as mensagens mais recentes ao abrir a conversa,
+ * mais as páginas antigas que o utilizador foi pedindo ao subir. Acrescentar uma mensagem no fim custa O(1)
+ * e notifica apenas a nova linha; a JList só desenha as linhas visíveis.
+ * Deve ser usado apenas na thread da GUI.
+ */
+@SuppressWarnings("serial") // Usado apenas pela JList da GUI, nunca é serializado
+public class ModeloMensagens extends AbstractListModel<RegistoMensagem> {
+    private List<RegistoMensagem> mensagens = new ArrayList<>();
+
+    @Override
+    public int getSize() {
+        return mensagens.size();
+    }
+
+    @Override
+    public RegistoMensagem getElementAt(int indice) {
+        return mensagens.get(indice);
+    }
+
+    /**
+     * Substitui as mensagens carregadas (ao abrir uma conversa).
+     *
+     * @param novas Mensagens, da mais antiga para a mais recente
+     */
+    public void carregar(List<RegistoMensagem> novas) {
+        int anterior = mensagens.size();
+        mensagens = new ArrayList<>(novas);
+        if (anterior > 0) {
+            fireIntervalRemoved(this, 0, anterior - 1);
+        }
+        if (!mensagens.isEmpty()) {
+            fireIntervalAdded(this, 0, mensagens.size() - 1);
+        }
+    }
+
+    /**
+     * Acrescenta uma mensagem no fim.
+     *
+     * @param registo Mensagem mais recente que as já carregadas
+     */
+    public void acrescentar(RegistoMensagem registo) {
+        mensagens.add(registo);
+        fireIntervalAdded(this, mensagens.size() - 1, mensagens.size() - 1);
+    }
+
+    /**
+     * Junta uma página de mensagens mais antigas no início.
+     *
+     * @param antigas Mensagens anteriores à primeira carregada, da mais antiga para a mais recente
+     */
+    public void juntarNoInicio(List<RegistoMensagem> antigas) {
+        if (antigas.isEmpty()) {
+            return;
+        }
+        List<RegistoMensagem> juntas = new ArrayList<>(antigas.size() + mensagens.size());
+        juntas.addAll(antigas);
+        juntas.addAll(mensagens);
+        mensagens = juntas;
+        fireIntervalAdded(this, 0, antigas.size() - 1);
+    }
+
+    /**
+     * Descarta as mensagens mais antigas, mantendo apenas as últimas (para limitar a memória da vista).
+     *
+     * @param manter Número de mensagens mais recentes a manter
+     */
+    public void descartarAntigas(int manter) {
+        int excesso = mensagens.size() - manter;
+        if (excesso > 0) {
+            mensagens.subList(0, excesso).clear();
+            fireIntervalRemoved(this, 0, excesso - 1);
+        }
+    }
+
+    /**
+     * Obtém a sequência da mensagem mais antiga carregada (cursor para carregar páginas anteriores).
+     *
+     * @return Sequência da primeira mensagem, ou -1 se não houver mensagens
+     */
+    public long getPrimeiraSequencia() {
+        return mensagens.isEmpty() ? -1 : mensagens.get(0).sequencia();
+    }
+
+    /**
+     * Obtém a sequência da mensagem mais recente carregada (cursor para obter mensagens novas).
+     *
+     * @return Sequência da última mensagem, ou -1 se não houver mensagens
+     */
+    public long getUltimaSequencia() {
+        return mensagens.isEmpty() ? -1 : mensagens.get(mensagens.size() - 1).sequencia();
+    }
+}
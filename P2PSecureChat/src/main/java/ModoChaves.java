@@ -0,0 +1,158 @@
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.NamedParameterSpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+
+import javax.crypto.KeyAgreement;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Enum ModoChaves que define o acordo de chaves usado para as chaves de identidade do Peer e em
+ * {@link Peer#applyDiffieHellman(String, java.security.PublicKey)}.
+ * O modo preferido é escolhido no arranque através da propriedade de sistema {@code p2p.modoChaves}
+ * ({@code x25519} ou {@code dh}); o modo usado com cada contacto é o da chave pública que ele apresenta.
+ * As chaves públicas são trocadas fora das ligações (DHT ou registo manual), pelo que o modo não é negociado
+ * no HELLO: um peer que só suporta Diffie-Hellman tem de receber a chave {@link #DH_2048} deste Peer
+ * ({@link Peer#getChavePublica(ModoChaves)}) ou este tem de arrancar com {@code p2p.modoChaves=dh}.
+ */
+public enum ModoChaves {
+    /**
+     * ECDH sobre a curva X25519: gerar o par de chaves e fazer o acordo custa dezenas de microssegundos.
+     * A chave AES é derivada do segredo partilhado com SHA-256.
+     */
+    X25519("XDH"),
+
+    /**
+     * Diffie-Hellman de corpo finito com 2048 bits, compatível com os peers antigos.
+     * A chave AES são os primeiros 16 bytes do segredo partilhado.
+     */
+    DH_2048("DiffieHellman");
+
+    // Nome da propriedade de sistema que seleciona o modo
+    public static final String PROPRIEDADE = "p2p.modoChaves";
+
+    private final String algoritmo;
+
+    ModoChaves(String algoritmo) {
+        this.algoritmo = algoritmo;
+    }
+
+    /**
+     * Obtém o modo configurado na propriedade de sistema {@value #PROPRIEDADE} (por omissão X25519).
+     *
+     * @return Modo de chaves configurado
+     */
+    public static ModoChaves doSistema() {
+        String valor = System.getProperty(PROPRIEDADE, "x25519").trim().toLowerCase();
+        switch (valor) {
+            case "x25519":
+            case "ecdh":
+                return X25519;
+            case "dh":
+            case "dh2048":
+                return DH_2048;
+            default:
+                throw new IllegalArgumentException("Modo de chaves desconhecido: " + valor + " (use x25519 ou dh)");
+        }
+    }
+
+    /**
+     * Obtém o modo correspondente a uma chave pública.
+     *
+     * @param chave Chave pública de um peer
+     * @return Modo da chave
+     * @throws InvalidKeyException Caso a chave não pertença a nenhum modo suportado
+     */
+    public static ModoChaves daChave(PublicKey chave) throws InvalidKeyException {
+        switch (chave.getAlgorithm()) {
+            case "XDH":
+            case "X25519":
+                return X25519;
+            case "DH":
+            case "DiffieHellman":
+                return DH_2048;
+            default:
+                throw new InvalidKeyException("Algoritmo de chave não suportado: " + chave.getAlgorithm());
+        }
+    }
+
+    /**
+     * Gera um novo par de chaves de identidade neste modo.
+     *
+     * @return Par de chaves
+     * @throws NoSuchAlgorithmException Caso o algoritmo não seja suportado
+     */
+    public KeyPair gerarParDeChaves() throws NoSuchAlgorithmException {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance(algoritmo);
+        if (this == X25519) {
+            try {
+                keyGen.initialize(NamedParameterSpec.X25519);
+            } catch (InvalidAlgorithmParameterException e) {
+                throw new NoSuchAlgorithmException("X25519 não suportado", e);
+            }
+        } else {
+            keyGen.initialize(2048); // Inicializa o gerador com tamanho de chave de 2048 bits
+        }
+        return keyGen.generateKeyPair();
+    }
+
+    /**
+     * Faz o acordo de chaves e deriva a chave AES-128 partilhada com o peer.
+     *
+     * @param chavePrivada Chave privada deste Peer (deste modo)
+     * @param chavePublicaPeer Chave pública do peer (deste modo)
+     * @return Chave AES partilhada
+     * @throws NoSuchAlgorithmException Caso o algoritmo não seja suportado
+     * @throws InvalidKeyException Caso as chaves sejam inválidas ou de modos diferentes
+     */
+    public SecretKeySpec acordar(PrivateKey chavePrivada, PublicKey chavePublicaPeer) throws NoSuchAlgorithmException, InvalidKeyException {
+        KeyAgreement keyAgree = KeyAgreement.getInstance(algoritmo);
+        keyAgree.init(chavePrivada);
+        keyAgree.doPhase(chavePublicaPeer, true);
+        byte[] sharedSecret = keyAgree.generateSecret();
+        if (this == X25519) {
+            return new SecretKeySpec(MotorCripto.sha256(sharedSecret), 0, 16, "AES");
+        }
+        return new SecretKeySpec(sharedSecret, 0, 16, "AES"); // Use 16 bytes for AES-128
+    }
+
+    /**
+     * Reconstrói uma chave pública deste modo a partir da sua codificação X.509 ({@link PublicKey#getEncoded()}),
+     * por exemplo quando é recebida pela DHT.
+     *
+     * @param codificada Chave pública codificada
+     * @return Chave pública
+     * @throws InvalidKeyException Caso a codificação seja inválida para este modo
+     */
+    public PublicKey decodificarChavePublica(byte[] codificada) throws InvalidKeyException {
+        try {
+            return KeyFactory.getInstance(algoritmo).generatePublic(new X509EncodedKeySpec(codificada));
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+            throw new InvalidKeyException("Chave pública " + this + " inválida", e);
+        }
+    }
+
+    /**
+     * Reconstrói uma chave privada deste modo a partir da sua codificação PKCS#8 ({@link PrivateKey#getEncoded()}),
+     * por exemplo quando é lida do {@link ArmazemChaves}.
+     *
+     * @param codificada Chave privada codificada
+     * @return Chave privada
+     * @throws InvalidKeyException Caso a codificação seja inválida para este modo
+     */
+    public PrivateKey decodificarChavePrivada(byte[] codificada) throws InvalidKeyException {
+        try {
+            return KeyFactory.getInstance(algoritmo).generatePrivate(new PKCS8EncodedKeySpec(codificada));
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+            throw new InvalidKeyException("Chave privada " + this + " inválida", e);
+        }
+    }
+}
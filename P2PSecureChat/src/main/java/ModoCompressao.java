@@ -0,0 +1,178 @@
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Enum ModoCompressao que define os codecs da compressão das mensagens antes da cifra ({@link Compressao}).
+ * O codec usado no envio é escolhido no arranque através da propriedade de sistema {@code p2p.compressao}
+ * ({@code nenhuma}, {@code deflate} ou {@code deflate-rapido}); o de cada mensagem recebida vem na própria
+ * mensagem, pelo que um peer descomprime sempre todos os codecs que conhece. Um codec novo é uma constante
+ * nova, com um ID que nunca foi usado.
+ *
+ * Os Deflaters e Inflaters são reutilizados através de um pool partilhado (cada um tem memória nativa
+ * que custa mais a criar do que comprimir uma mensagem curta).
+ */
+public enum ModoCompressao {
+    /**
+     * Sem compressão.
+     */
+    NENHUMA((byte) 0, "nenhuma", -1), // Nível negativo: sem Deflater
+
+    /**
+     * Deflate (raw, sem cabeçalho zlib) com o nível 6: a melhor relação entre tamanho e CPU para texto.
+     */
+    DEFLATE((byte) 1, "deflate", 6),
+
+    /**
+     * Deflate com o nível 1: comprime menos, com bastante menos CPU por mensagem.
+     */
+    DEFLATE_RAPIDO((byte) 2, "deflate-rapido", Deflater.BEST_SPEED);
+
+    // Nome da propriedade de sistema que seleciona o codec
+    public static final String PROPRIEDADE = "p2p.compressao";
+
+    private final byte id;
+    private final String nome;
+    private final int nivel;
+    private final Queue<Deflater> deflaters = new ArrayBlockingQueue<>(maximoLivres());
+    private final Queue<Inflater> inflaters = new ArrayBlockingQueue<>(maximoLivres());
+
+    ModoCompressao(byte id, String nome, int nivel) {
+        this.id = id;
+        this.nome = nome;
+        this.nivel = nivel;
+    }
+
+    // Número máximo de Deflaters e Inflaters livres guardados por codec (um método: as constantes de um
+    // enum são criadas antes dos campos estáticos)
+    private static int maximoLivres() {
+        return Math.max(4, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Obtém o codec configurado na propriedade de sistema {@value #PROPRIEDADE} (por omissão, nenhum).
+     *
+     * @return Codec configurado
+     */
+    public static ModoCompressao doSistema() {
+        String valor = System.getProperty(PROPRIEDADE, "nenhuma").trim().toLowerCase().replace('_', '-');
+        for (ModoCompressao modo : values()) {
+            if (modo.nome.equals(valor)) {
+                return modo;
+            }
+        }
+        throw new IllegalArgumentException("Compressão desconhecida: " + valor + " (use nenhuma, deflate ou deflate-rapido)");
+    }
+
+    /**
+     * Obtém o codec com o ID indicado numa mensagem recebida.
+     *
+     * @param id ID do codec
+     * @return Codec, ou null se for desconhecido
+     */
+    public static ModoCompressao doId(byte id) {
+        for (ModoCompressao modo : values()) {
+            if (modo.id == id) {
+                return modo;
+            }
+        }
+        return null;
+    }
+
+    public byte getId() {
+        return id;
+    }
+
+    public String getNome() {
+        return nome;
+    }
+
+    /**
+     * Comprime dados.
+     *
+     * @param dados Dados a comprimir
+     * @param dicionario Dicionário partilhado com o destinatário, ou null
+     * @return Dados comprimidos (os próprios dados, sem compressão)
+     */
+    public byte[] comprimir(byte[] dados, byte[] dicionario) {
+        if (nivel < 0) {
+            return dados;
+        }
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(nivel, true);
+        }
+        try {
+            if (dicionario != null) {
+                deflater.setDictionary(dicionario);
+            }
+            deflater.setInput(dados);
+            deflater.finish();
+            byte[] saida = new byte[dados.length + dados.length / 1000 + 64]; // Limite do Deflate para dados incompressíveis
+            int tamanho = 0;
+            while (!deflater.finished()) {
+                if (tamanho == saida.length) {
+                    saida = Arrays.copyOf(saida, saida.length * 2);
+                }
+                tamanho += deflater.deflate(saida, tamanho, saida.length - tamanho);
+            }
+            return Arrays.copyOf(saida, tamanho);
+        } finally {
+            deflater.reset();
+            if (!deflaters.offer(deflater)) {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Descomprime dados.
+     *
+     * @param dados Dados comprimidos
+     * @param tamanhoOriginal Tamanho dos dados antes da compressão
+     * @param dicionario Dicionário usado na compressão, ou null
+     * @return Dados descomprimidos
+     * @throws DataFormatException Caso os dados estejam corrompidos, precisem de outro dicionário ou não
+     *                             tenham exatamente o tamanho original
+     */
+    public byte[] descomprimir(byte[] dados, int tamanhoOriginal, byte[] dicionario) throws DataFormatException {
+        if (nivel < 0) {
+            return dados;
+        }
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        try {
+            if (dicionario != null) {
+                inflater.setDictionary(dicionario); // Em raw deflate o dicionário é definido antes de qualquer dado
+            }
+            inflater.setInput(dados);
+            // Um byte a mais para detetar dados que descomprimem para mais do que o tamanho original
+            byte[] saida = new byte[tamanhoOriginal + 1];
+            int tamanho = 0;
+            while (!inflater.finished()) {
+                int lidos = inflater.inflate(saida, tamanho, saida.length - tamanho);
+                if (lidos == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Dados comprimidos truncados ou com outro dicionário");
+                }
+                tamanho += lidos;
+                if (tamanho > tamanhoOriginal) {
+                    break;
+                }
+            }
+            if (tamanho != tamanhoOriginal) {
+                throw new DataFormatException("Tamanho descomprimido diferente do original (" + tamanhoOriginal + ")");
+            }
+            return Arrays.copyOf(saida, tamanhoOriginal);
+        } finally {
+            inflater.reset();
+            if (!inflaters.offer(inflater)) {
+                inflater.end();
+            }
+        }
+    }
+}
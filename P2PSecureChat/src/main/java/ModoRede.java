@@ -0,0 +1,40 @@
+/**
+ * Enum ModoRede que define o modelo de execução usado pelo Peer para a rede.
+ * O modo é escolhido no arranque através da propriedade de sistema {@code p2p.modoRede}
+ * ({@code nio} ou {@code virtual}) ou de {@link Peer#setModoRede(ModoRede)}, o que permite
+ * comparar os dois modelos com o mesmo código de aplicação.
+ */
+public enum ModoRede {
+    /**
+     * Um Selector NIO multiplexa todas as ligações recebidas e um conjunto fixo de workers processa as mensagens.
+     * Os envios são feitos na thread que os pede.
+     */
+    NIO,
+
+    /**
+     * Cada ligação recebida é lida com código bloqueante (streams bufferizadas) numa thread virtual própria,
+     * e cada envio é feito numa thread virtual.
+     */
+    VIRTUAL_THREADS;
+
+    // Nome da propriedade de sistema que seleciona o modo
+    public static final String PROPRIEDADE = "p2p.modoRede";
+
+    /**
+     * Obtém o modo configurado na propriedade de sistema {@value #PROPRIEDADE} (por omissão NIO).
+     *
+     * @return Modo de rede configurado
+     */
+    public static ModoRede doSistema() {
+        String valor = System.getProperty(PROPRIEDADE, "nio").trim().toLowerCase();
+        switch (valor) {
+            case "nio":
+                return NIO;
+            case "virtual":
+            case "virtual_threads":
+                return VIRTUAL_THREADS;
+            default:
+                throw new IllegalArgumentException("Modo de rede desconhecido: " + valor + " (use nio ou virtual)");
+        }
+    }
+}
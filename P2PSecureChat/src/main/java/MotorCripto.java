@@ -0,0 +1,226 @@
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Classe MotorCripto que reutiliza instâncias de Cipher e MessageDigest no caminho de envio e receção.
+ * Obter um Cipher ou um MessageDigest implica procurar o algoritmo nos providers de segurança, o que
+ * custa mais do que cifrar uma mensagem curta. Este motor guarda instâncias já inicializadas por
+ * transformação, modo e chave, de forma que um envio ou receção em regime estável não faz nenhuma procura.
+ *
+ * Nas threads da plataforma (workers NIO, GUI) as instâncias ficam confinadas à thread.
+ * Nas threads virtuais, que são criadas por tarefa, as instâncias vêm de um pool partilhado.
+ */
+public final class MotorCripto {
+    // Número máximo de Ciphers inicializados guardados por thread
+    private static final int MAXIMO_POR_THREAD = 64;
+
+    // Número máximo de instâncias livres por chave no pool partilhado
+    private static final int MAXIMO_POR_CHAVE = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+    // Número máximo de chaves no pool partilhado antes de ser esvaziado
+    private static final int MAXIMO_CHAVES_POOL = 4096;
+
+    // Ciphers e MessageDigests confinados a cada thread da plataforma (LRU por chave)
+    private static final ThreadLocal<Map<Object, Object>> LOCAL = ThreadLocal.withInitial(() ->
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Object, Object> maisAntiga) {
+                    return size() > MAXIMO_POR_THREAD;
+                }
+            });
+
+    // Pool partilhado, usado pelas threads virtuais
+    private static final Map<Object, Queue<Object>> POOL = new ConcurrentHashMap<>();
+
+    // Transformação usada no modo de cifra autenticada
+    public static final String AEAD = "AES/GCM/NoPadding";
+
+    // Tamanho (bytes) do nonce e (bits) da tag do AES-GCM
+    public static final int TAMANHO_NONCE = 12;
+    public static final int BITS_TAG = 128;
+
+    // Nonces do AES-GCM: prefixo aleatório por processo seguido de um contador com início aleatório.
+    // Evita uma chamada ao SecureRandom por mensagem e nunca repete um nonce dentro do mesmo processo
+    private static final byte[] PREFIXO_NONCE = new byte[4];
+    private static final AtomicLong CONTADOR_NONCE;
+
+    static {
+        SecureRandom random = new SecureRandom();
+        random.nextBytes(PREFIXO_NONCE);
+        CONTADOR_NONCE = new AtomicLong(random.nextLong());
+    }
+
+    private MotorCripto() {
+    }
+
+    /**
+     * Cifra ou decifra dados com um Cipher inicializado para a transformação, modo e chave indicados.
+     * Apenas para transformações sem IV (por exemplo "AES"), em que o mesmo Cipher pode ser reutilizado sem nova inicialização.
+     *
+     * @param transformacao Transformação do Cipher (por exemplo "AES")
+     * @param modo Cipher.ENCRYPT_MODE ou Cipher.DECRYPT_MODE
+     * @param chave Chave a usar
+     * @param dados Dados de entrada
+     * @return Resultado da operação
+     * @throws GeneralSecurityException Caso ocorra um erro durante a operação
+     */
+    public static byte[] executar(String transformacao, int modo, Key chave, byte[] dados) throws GeneralSecurityException {
+        ChaveCifra id = new ChaveCifra(transformacao, modo, chave);
+        Cipher cipher = (Cipher) obter(id);
+        if (cipher == null) {
+            cipher = Cipher.getInstance(transformacao);
+            cipher.init(modo, chave);
+        }
+        byte[] resultado;
+        try {
+            resultado = cipher.doFinal(dados); // doFinal repõe o Cipher no estado inicializado
+        } catch (GeneralSecurityException | RuntimeException e) {
+            descartar(id); // O estado do Cipher após uma falha não é garantido
+            throw e;
+        }
+        devolver(id, cipher);
+        return resultado;
+    }
+
+    /**
+     * Cifra e autentica os dados com AES-GCM numa única passagem, com um nonce novo.
+     *
+     * @param chave Chave AES
+     * @param dadosAssociados Dados autenticados mas não cifrados (cabeçalho do frame), ou null
+     * @param dados Dados a cifrar
+     * @return nonce (12 bytes) seguido do texto cifrado e da tag de autenticação
+     * @throws GeneralSecurityException Caso ocorra um erro durante a cifra
+     */
+    public static byte[] cifrarAead(Key chave, byte[] dadosAssociados, byte[] dados) throws GeneralSecurityException {
+        byte[] resultado = new byte[TAMANHO_NONCE + dados.length + BITS_TAG / 8];
+        System.arraycopy(PREFIXO_NONCE, 0, resultado, 0, PREFIXO_NONCE.length);
+        long contador = CONTADOR_NONCE.getAndIncrement();
+        for (int i = 0; i < 8; i++) {
+            resultado[4 + i] = (byte) (contador >>> (56 - 8 * i));
+        }
+        executarAead(Cipher.ENCRYPT_MODE, chave, resultado, dadosAssociados, dados, 0, dados.length, resultado, TAMANHO_NONCE);
+        return resultado;
+    }
+
+    /**
+     * Verifica e decifra dados produzidos por {@link #cifrarAead(Key, byte[], byte[])}.
+     * A autenticidade é verificada antes de qualquer texto ser devolvido.
+     *
+     * @param chave Chave AES
+     * @param dadosAssociados Os mesmos dados associados usados na cifra, ou null
+     * @param payload nonce seguido do texto cifrado e da tag
+     * @return Dados decifrados
+     * @throws AEADBadTagException Caso os dados ou o cabeçalho tenham sido alterados
+     * @throws GeneralSecurityException Caso ocorra outro erro durante a decifra
+     */
+    public static byte[] decifrarAead(Key chave, byte[] dadosAssociados, byte[] payload) throws GeneralSecurityException {
+        int comprimento = payload.length - TAMANHO_NONCE;
+        if (comprimento < BITS_TAG / 8) {
+            throw new AEADBadTagException("Payload AEAD demasiado curto");
+        }
+        byte[] resultado = new byte[comprimento - BITS_TAG / 8];
+        executarAead(Cipher.DECRYPT_MODE, chave, payload, dadosAssociados, payload, TAMANHO_NONCE, comprimento, resultado, 0);
+        return resultado;
+    }
+
+    // Executa uma operação AES-GCM com um Cipher reutilizado (a inicialização com o nonce é feita a cada chamada)
+    private static void executarAead(int modo, Key chave, byte[] nonce, byte[] dadosAssociados,
+                                     byte[] entrada, int desde, int comprimento, byte[] saida, int posicaoSaida)
+            throws GeneralSecurityException {
+        ChaveCifra id = new ChaveCifra(AEAD, modo, null);
+        Cipher cipher = (Cipher) obter(id);
+        if (cipher == null) {
+            cipher = Cipher.getInstance(AEAD);
+        }
+        try {
+            cipher.init(modo, chave, new GCMParameterSpec(BITS_TAG, nonce, 0, TAMANHO_NONCE));
+            if (dadosAssociados != null) {
+                cipher.updateAAD(dadosAssociados);
+            }
+            cipher.doFinal(entrada, desde, comprimento, saida, posicaoSaida);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            descartar(id);
+            throw e;
+        }
+        devolver(id, cipher);
+    }
+
+    /**
+     * Calcula o resumo (hash) dos dados com um MessageDigest reutilizado.
+     *
+     * @param algoritmo Algoritmo do resumo (por exemplo "SHA-256")
+     * @param dados Dados de entrada
+     * @return Resumo dos dados
+     * @throws NoSuchAlgorithmException Caso o algoritmo não seja suportado
+     */
+    public static byte[] resumo(String algoritmo, byte[] dados) throws NoSuchAlgorithmException {
+        MessageDigest digest = (MessageDigest) obter(algoritmo);
+        if (digest == null) {
+            digest = MessageDigest.getInstance(algoritmo);
+        }
+        byte[] resultado = digest.digest(dados); // digest repõe o MessageDigest
+        devolver(algoritmo, digest);
+        return resultado;
+    }
+
+    /**
+     * Calcula o hash SHA-256 usado na verificação de integridade das mensagens.
+     *
+     * @param dados Dados de entrada
+     * @return Hash SHA-256 dos dados
+     * @throws NoSuchAlgorithmException Caso o SHA-256 não seja suportado
+     */
+    public static byte[] sha256(byte[] dados) throws NoSuchAlgorithmException {
+        return resumo("SHA-256", dados);
+    }
+
+    // Obtém uma instância livre para o identificador, ou null se for preciso criar uma
+    private static Object obter(Object id) {
+        if (Thread.currentThread().isVirtual()) {
+            Queue<Object> livres = POOL.get(id);
+            return livres == null ? null : livres.poll();
+        }
+        return LOCAL.get().get(id); // Fica na thread: não é preciso retirá-la do mapa
+    }
+
+    // Guarda a instância para ser reutilizada
+    private static void devolver(Object id, Object instancia) {
+        if (Thread.currentThread().isVirtual()) {
+            Queue<Object> livres = POOL.get(id);
+            if (livres == null) {
+                if (POOL.size() >= MAXIMO_CHAVES_POOL) {
+                    POOL.clear(); // Chaves antigas já não são usadas; evita crescer sem limite
+                }
+                livres = POOL.computeIfAbsent(id, k -> new ArrayBlockingQueue<>(MAXIMO_POR_CHAVE));
+            }
+            livres.offer(instancia); // Se o pool estiver cheio a instância é descartada
+        } else {
+            LOCAL.get().putIfAbsent(id, instancia);
+        }
+    }
+
+    private static void descartar(Object id) {
+        if (!Thread.currentThread().isVirtual()) {
+            LOCAL.get().remove(id);
+        }
+    }
+
+    /**
+     * Identificador de um Cipher inicializado: transformação, modo e chave.
+     */
+    private record ChaveCifra(String transformacao, int modo, Key chave) {
+    }
+}
@@ -0,0 +1,83 @@
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Classe Negociacao com as regras da negociação de capacidades entre peers.
+ * Ao abrir uma ligação, o peer que envia escreve uma linha HELLO com as capacidades que suporta.
+ * Um peer atual responde na mesma ligação com as suas capacidades; um peer antigo trata a linha
+ * como uma mensagem com formato inválido e não responde, pelo que o remetente passa a usar o
+ * formato de texto antigo com esse peer.
+ */
+public final class Negociacao {
+    // Marca que inicia as linhas HELLO (tem 3 partes, por isso nunca é confundida com uma mensagem)
+    public static final String MARCA = "#HELLO";
+
+    // Versão da negociação
+    public static final String VERSAO = "1";
+
+    // Capacidade: frames no formato binário (ProtocoloBinario)
+    public static final String BINARIO = "bin1";
+
+    // Capacidade: mensagens cifradas com AES-GCM (Frame.FLAG_AEAD); requer o formato binário
+    public static final String AEAD = "aead1";
+
+    // Capacidade: lotes de mensagens privadas num único frame (Frame.LOTE); requer AEAD
+    public static final String LOTE = "lote1";
+
+    // Capacidade: descompressão de payloads comprimidos (Frame.FLAG_COMPRIMIDO); requer AEAD
+    public static final String COMPRESSAO = "comp1";
+
+    // Tempo máximo (ms) de espera pela resposta ao HELLO
+    public static final int TIMEOUT_MS = 1000;
+
+    private Negociacao() {
+    }
+
+    /**
+     * Obtém as capacidades suportadas por este peer.
+     *
+     * @return Conjunto de capacidades
+     */
+    public static Set<String> capacidadesLocais() {
+        Set<String> capacidades = new LinkedHashSet<>();
+        capacidades.add(BINARIO);
+        capacidades.add(AEAD);
+        capacidades.add(LOTE);
+        capacidades.add(COMPRESSAO);
+        return capacidades;
+    }
+
+    /**
+     * Constrói a linha HELLO (sem terminador) com as capacidades indicadas.
+     *
+     * @param capacidades Capacidades a anunciar
+     * @return Linha HELLO
+     */
+    public static String linhaHello(Set<String> capacidades) {
+        return MARCA + "|" + VERSAO + "|" + String.join(",", capacidades);
+    }
+
+    /**
+     * Interpreta uma linha HELLO.
+     *
+     * @param linha Linha recebida
+     * @return Capacidades anunciadas, ou null se a linha não for um HELLO
+     */
+    public static Set<String> lerHello(String linha) {
+        if (linha == null || !linha.startsWith(MARCA + "|")) {
+            return null;
+        }
+        String[] partes = linha.split("\\|", -1);
+        if (partes.length != 3) {
+            return null;
+        }
+        Set<String> capacidades = new LinkedHashSet<>();
+        for (String capacidade : partes[2].split(",")) {
+            if (!capacidade.isEmpty()) {
+                capacidades.add(capacidade);
+            }
+        }
+        return Collections.unmodifiableSet(capacidades);
+    }
+}
@@ -0,0 +1,342 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Classe NioServer que recebe as ligações de outros peers sem bloquear.
+ * Uma única thread com um Selector aceita ligações e lê os bytes disponíveis;
+ * a separação em linhas ou frames binários (framing) e o processamento (descriptografia,
+ * verificação, armazenamento) são feitos por um conjunto fixo de workers. Cada ligação fica
+ * associada a um único worker, o que mantém a ordem das mensagens de um remetente sem impedir que os outros avancem.
+ */
+public class NioServer {
+    // Tamanho do buffer de leitura do Selector
+    private static final int TAMANHO_BUFFER = 64 * 1024;
+
+    // Bytes pendentes numa ligação a partir dos quais se deixa de ler dela até o worker recuperar
+    private static final int LIMITE_PENDENTE = 1024 * 1024;
+
+    // Tamanho máximo de uma linha; ligações que o excedam são fechadas
+    private static final int TAMANHO_MAXIMO_LINHA = 16 * 1024 * 1024;
+
+    private final int porta;
+    private final RecetorMensagens recetor;
+    private final ExecutorService[] workers;
+    private final AtomicInteger proximoWorker = new AtomicInteger();
+
+    // Ligações cuja leitura deve ser retomada pela thread do Selector
+    private final Queue<Ligacao> retomar = new ConcurrentLinkedQueue<>();
+
+    // Bytes lidos e ligações fechadas por dados inválidos (para as métricas)
+    private final LongAdder bytesRecebidos = new LongAdder();
+    private final LongAdder dadosInvalidos = new LongAdder();
+
+    private Selector selector;
+    private ServerSocketChannel servidor;
+    private volatile boolean ativo;
+
+    /**
+     * Construtor da classe NioServer.
+     *
+     * @param porta Porta na qual o servidor irá escutar conexões
+     * @param numeroWorkers Número de threads que processam as mensagens recebidas
+     * @param recetor Recetor chamado (numa thread worker) para cada linha ou frame recebido
+     */
+    public NioServer(int porta, int numeroWorkers, RecetorMensagens recetor) {
+        this.porta = porta;
+        this.recetor = recetor;
+        this.workers = new ExecutorService[numeroWorkers];
+        for (int i = 0; i < numeroWorkers; i++) {
+            String nome = "nio-worker-" + porta + "-" + i;
+            workers[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, nome);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /**
+     * Abre o ServerSocketChannel e lança a thread do Selector.
+     *
+     * @throws IOException Caso não seja possível escutar na porta
+     */
+    public void iniciar() throws IOException {
+        selector = Selector.open();
+        servidor = ServerSocketChannel.open();
+        servidor.bind(new InetSocketAddress(porta));
+        servidor.configureBlocking(false);
+        servidor.register(selector, SelectionKey.OP_ACCEPT);
+        ativo = true;
+
+        Thread thread = new Thread(this::ciclo, "nio-selector-" + porta);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Fecha o servidor, todas as ligações aceites e os workers.
+     */
+    public void fechar() {
+        ativo = false;
+        try {
+            if (selector != null) {
+                for (SelectionKey key : selector.keys()) {
+                    key.channel().close();
+                }
+                selector.close();
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            // Ignorado: o servidor está a ser fechado
+        }
+        for (ExecutorService worker : workers) {
+            worker.shutdownNow();
+        }
+    }
+
+    /**
+     * Obtém o número de bytes lidos de todas as ligações.
+     *
+     * @return Bytes recebidos
+     */
+    public long getBytesRecebidos() {
+        return bytesRecebidos.sum();
+    }
+
+    /**
+     * Obtém o número de ligações fechadas por terem enviado dados inválidos (frame ou linha mal formados).
+     *
+     * @return Ligações com dados inválidos
+     */
+    public long getDadosInvalidos() {
+        return dadosInvalidos.sum();
+    }
+
+    // Ciclo principal da thread do Selector: aceita ligações e lê os dados disponíveis
+    private void ciclo() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(TAMANHO_BUFFER);
+        try {
+            while (ativo) {
+                selector.select();
+                Ligacao pausada;
+                while ((pausada = retomar.poll()) != null) {
+                    if (pausada.key.isValid()) {
+                        pausada.key.interestOps(SelectionKey.OP_READ);
+                    }
+                }
+                Iterator<SelectionKey> chaves = selector.selectedKeys().iterator();
+                while (chaves.hasNext()) {
+                    SelectionKey key = chaves.next();
+                    chaves.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        aceitar();
+                    } else if (key.isReadable()) {
+                        ler(key, buffer);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (ativo) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Aceita todas as ligações pendentes e associa cada uma a um worker
+    private void aceitar() throws IOException {
+        SocketChannel canal;
+        while ((canal = servidor.accept()) != null) {
+            canal.configureBlocking(false);
+            canal.socket().setTcpNoDelay(true);
+            ExecutorService worker = workers[Math.floorMod(proximoWorker.getAndIncrement(), workers.length)];
+            SelectionKey key = canal.register(selector, SelectionKey.OP_READ);
+            key.attach(new Ligacao(key, worker));
+        }
+    }
+
+    // Lê os bytes disponíveis de uma ligação e entrega-os ao seu worker
+    private void ler(SelectionKey key, ByteBuffer buffer) {
+        Ligacao ligacao = (Ligacao) key.attachment();
+        SocketChannel canal = (SocketChannel) key.channel();
+        int lidos;
+        try {
+            buffer.clear();
+            lidos = canal.read(buffer);
+        } catch (IOException e) {
+            lidos = -1; // Ligação reiniciada pelo outro lado
+        }
+        if (lidos < 0) {
+            key.cancel();
+            fecharCanal(canal);
+            ligacao.worker.execute(ligacao::terminar);
+            return;
+        }
+        if (lidos == 0) {
+            return;
+        }
+        bytesRecebidos.add(lidos);
+        buffer.flip();
+        byte[] bloco = new byte[lidos];
+        buffer.get(bloco);
+        if (ligacao.pendentes.addAndGet(lidos) > LIMITE_PENDENTE) {
+            key.interestOps(0); // Pausa a leitura até o worker processar o que já recebeu
+        }
+        ligacao.worker.execute(() -> ligacao.consumir(bloco));
+    }
+
+    private static void fecharCanal(SocketChannel canal) {
+        try {
+            canal.close();
+        } catch (IOException e) {
+            // Ignorado
+        }
+    }
+
+    /**
+     * Estado de uma ligação aceite. Os dados são consumidos apenas pelo worker associado.
+     */
+    private final class Ligacao {
+        final SelectionKey key;
+        final ExecutorService worker;
+        final AtomicInteger pendentes = new AtomicInteger(); // Bytes entregues ao worker e ainda não consumidos
+
+        // Bytes recebidos e ainda não processados, entre inicio e fim (apenas acedidos pelo worker)
+        private byte[] dados = new byte[1024];
+        private int inicio;
+        private int fim;
+
+        Ligacao(SelectionKey key, ExecutorService worker) {
+            this.key = key;
+            this.worker = worker;
+        }
+
+        // Acrescenta o bloco recebido e processa todas as linhas e frames completos
+        void consumir(byte[] bloco) {
+            acrescentar(bloco);
+            try {
+                while (inicio < fim && processarSeguinte()) {
+                    // Continua enquanto houver linhas ou frames completos
+                }
+            } catch (IOException e) {
+                dadosInvalidos.increment();
+                Logger.aviso("Dados inválidos recebidos, a fechar a ligação: " + e.getMessage());
+                fecharLigacao();
+            }
+
+            int restantes = pendentes.addAndGet(-bloco.length);
+            if (restantes <= LIMITE_PENDENTE && key.isValid() && key.interestOps() == 0) {
+                retomar.add(this);
+                selector.wakeup();
+            }
+        }
+
+        // Processa uma eventual última linha sem terminador quando a ligação é fechada
+        void terminar() {
+            if (fim > inicio && (dados[inicio] & 0xFF) != ProtocoloBinario.MAGIC) {
+                entregarLinha(fim);
+            }
+        }
+
+        // Processa a próxima linha ou frame; devolve false se ainda não estiver completo
+        private boolean processarSeguinte() throws IOException {
+            if ((dados[inicio] & 0xFF) == ProtocoloBinario.MAGIC) {
+                ByteBuffer buffer = ByteBuffer.wrap(dados, inicio, fim - inicio);
+                Frame frame = ProtocoloBinario.ler(buffer);
+                if (frame == null) {
+                    return false;
+                }
+                inicio = buffer.position();
+                try {
+                    recetor.processarFrame(frame);
+                } catch (RuntimeException e) {
+                    e.printStackTrace(); // Um frame inválido não deve terminar o worker
+                }
+                return true;
+            }
+            for (int i = inicio; i < fim; i++) {
+                if (dados[i] == '\n') {
+                    entregarLinha(i);
+                    inicio = i + 1;
+                    return true;
+                }
+            }
+            if (fim - inicio > TAMANHO_MAXIMO_LINHA) {
+                throw new IOException("Linha demasiado longa");
+            }
+            return false;
+        }
+
+        private void acrescentar(byte[] bloco) {
+            if (fim + bloco.length > dados.length) {
+                int usados = fim - inicio;
+                if (usados + bloco.length > dados.length) {
+                    dados = Arrays.copyOfRange(dados, inicio, inicio + Math.max(dados.length * 2, usados + bloco.length));
+                } else {
+                    System.arraycopy(dados, inicio, dados, 0, usados); // Compacta os bytes já processados
+                }
+                inicio = 0;
+                fim = usados;
+            }
+            System.arraycopy(bloco, 0, dados, fim, bloco.length);
+            fim += bloco.length;
+        }
+
+        private void entregarLinha(int terminador) {
+            int fimLinha = terminador;
+            if (fimLinha > inicio && dados[fimLinha - 1] == '\r') {
+                fimLinha--;
+            }
+            String linha = new String(dados, inicio, fimLinha - inicio, StandardCharsets.UTF_8);
+            try {
+                Set<String> hello = Negociacao.lerHello(linha);
+                if (hello != null) {
+                    responder(Negociacao.linhaHello(recetor.getCapacidades()) + "\n");
+                } else {
+                    recetor.processarMensagem(linha);
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace(); // Uma mensagem inválida não deve terminar o worker
+            }
+        }
+
+        // Escreve uma resposta curta na ligação (a resposta ao HELLO cabe sempre no buffer do socket)
+        private void responder(String resposta) {
+            ByteBuffer buffer = ByteBuffer.wrap(resposta.getBytes(StandardCharsets.UTF_8));
+            SocketChannel canal = (SocketChannel) key.channel();
+            try {
+                for (int tentativas = 0; buffer.hasRemaining() && tentativas < 100; tentativas++) {
+                    if (canal.write(buffer) == 0) {
+                        Thread.onSpinWait();
+                    }
+                }
+            } catch (IOException e) {
+                fecharLigacao();
+            }
+        }
+
+        private void fecharLigacao() {
+            inicio = 0;
+            fim = 0;
+            key.cancel();
+            fecharCanal((SocketChannel) key.channel());
+        }
+    }
+}
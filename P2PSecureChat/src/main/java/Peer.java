@@ -1,27 +1,46 @@
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.KeyPair;
-import java.security.KeyPairGenerator;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
-import java.util.HashMap;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
 import javax.crypto.KeyAgreement;
 import javax.crypto.SecretKey;
@@ -36,19 +55,26 @@ import javax.swing.SwingUtilities;
  * Cada Peer possui uma ID única, pares de chaves pública/privada para criptografia,
  * uma tabela de roteamento DHT simulada, e gerencia conversas criptografadas com outros peers.
  */
-public class Peer {
+public class Peer implements RecetorMensagens {
     // Porta na qual o Peer está escutando conexões
     private int porta;
     
     // Identificador único do Peer
     private String idPeer;
     
-    // Mapa que simula uma tabela DHT (Distributed Hash Table) para armazenar endereços de outros peers
-    Map<String, InetSocketAddress> dht; // Simulação de DHT
+    // Cache local dos endereços de outros peers: registados manualmente ou obtidos pela DHT (kademlia)
+    Map<String, InetSocketAddress> dht;
+
+    // Nó da DHT Kademlia (UDP, na mesma porta), criado em iniciar(); null se a DHT estiver desligada
+    private volatile Kademlia kademlia;
     
-    // Chaves pública e privada do Peer para criptografia assimétrica (RSA)
+    // Chaves pública e privada do Peer para o acordo de chaves, no modo preferido
     private PublicKey chavePublica;
     private PrivateKey chavePrivada;
+
+    // Modo preferido do acordo de chaves e pares de chaves de identidade por modo (gerados quando são precisos)
+    private final ModoChaves modoChaves;
+    private final Map<ModoChaves, KeyPair> paresDeChaves = new EnumMap<>(ModoChaves.class);
     
     // Mapa que armazena as chaves públicas conhecidas de outros peers
     private Map<String, PublicKey> chavesPublicasConhecidas;
@@ -59,12 +85,115 @@ public class Peer {
     // Mapa que guarda os peers que fazem parte dos grupos a que pertencemos
     Map<String, List<String>> mapGrupos;
     
-    // Mapa que armazena conversas (mensagens) por conversa identificada pelo ID do destinatário
-    // A lista de Strings alterna estre o remetente da mensagem e a mensagem em si
-    Map<String, List<String>> conversas; // Para armazenar mensagens por conversa
+    // Armazém das conversas (mensagens) por conversa identificada pelo ID do destinatário:
+    // em memória, ou num log persistente se a propriedade p2p.dirMensagens estiver definida
+    private ArmazemConversas armazem;
 
     // Lista de ouvintes (listeners) para atualizar a interface gráfica (GUI) quando há novas mensagens
-    private List<PeerGUIListener> listeners = new CopyOnWriteArrayList<>();
+    private final List<PeerGUIListener> listeners = new CopyOnWriteArrayList<>();
+
+    // Entrega as notificações aos ouvintes numa thread própria, agrupadas por conversa
+    private final DespachanteEventos eventos = new DespachanteEventos(listeners);
+
+    // Subscrições das novas mensagens de cada conversa (fim do histórico)
+    private final Map<String, List<Consumer<RegistoMensagem>>> subscricoes = new ConcurrentHashMap<>();
+
+    // Tempo (ms) que uma ligação de envio pode ficar inativa antes de ser fechada
+    private static final long TEMPO_MAXIMO_INATIVO_MS = 60_000;
+
+    // Tempo (ms) acrescentado ao prazo de um envio de grupo quando um membro tem de ser procurado na DHT
+    private static final long TEMPO_MAXIMO_PROCURA_MS = 3000;
+
+    // Ligações de envio persistentes, uma por peer destinatário da DHT
+    private final ConnectionPool ligacoes = new ConnectionPool(TEMPO_MAXIMO_INATIVO_MS);
+
+    // Número de workers que processam as mensagens recebidas
+    private static final int NUMERO_WORKERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    // Servidor que recebe as ligações dos outros peers (modo NIO)
+    private NioServer servidor;
+
+    // ServerSocket bloqueante usado no modo de threads virtuais
+    private ServerSocket serverSocket;
+
+    // Modelo de execução da rede, escolhido no arranque
+    private ModoRede modoRede = ModoRede.doSistema();
+
+    // Filas de envio por destinatário (threads virtuais), que mantêm a ordem das mensagens para cada destinatário
+    private final Map<String, FilaEnvio> filasEnvio = new ConcurrentHashMap<>();
+
+    // Peers com uma mudança de endereço (anunciada na DHT) à espera da prova do novo endereço
+    private final Set<String> enderecosAConfirmar = ConcurrentHashMap.newKeySet();
+
+    // Filas de retransmissão das mensagens de grupo, uma por grupo
+    private final Map<String, FilaEnvio> filasDifusao = new ConcurrentHashMap<>();
+
+    // Tempo máximo (ms) de escrita de uma mensagem para um membro de um grupo
+    private volatile int timeoutEscritaMs = 2000;
+
+    // Número máximo de membros a quem cada membro envia uma mensagem de grupo (0 = o autor envia a todos)
+    private volatile int fanoutGrupo = Integer.getInteger("p2p.fanoutGrupo", 0);
+
+    // Envio em lotes (desligado com 0): tempo máximo (ms) que uma mensagem privada espera por outras para o
+    // mesmo destinatário, e tamanho (bytes) a partir do qual o lote é enviado sem esperar
+    private volatile int esperaLoteMs = Integer.getInteger("p2p.lote.esperaMs", 0);
+    private volatile int maximoBytesLote = Integer.getInteger("p2p.lote.maxBytes", 64 * 1024);
+
+    // Compressão das mensagens antes da cifra (só com peers que a negociaram); o codec de envio por omissão
+    // é nenhum, mas as mensagens comprimidas recebidas são sempre descomprimidas
+    private volatile Compressao compressao = Compressao.doSistema();
+
+    // Lotes de mensagens privadas pendentes, um por destinatário
+    private final Map<String, LoteMensagens> lotes = new ConcurrentHashMap<>();
+
+    // Temporizador que envia os lotes cujo tempo de espera terminou (partilhado pelos peers da JVM)
+    private static final ScheduledExecutorService TEMPORIZADOR_LOTES = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "lotes");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Número de mensagens de grupo recentes cujo ID é guardado para descartar duplicados
+    private static final int MAXIMO_MENSAGENS_VISTAS = 4096;
+
+    // IDs (origem#id) das mensagens de grupo recentes já recebidas ou enviadas por este Peer
+    private final Map<String, Boolean> mensagensVistas = new LinkedHashMap<>(16, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> maisAntiga) {
+            return size() > MAXIMO_MENSAGENS_VISTAS;
+        }
+    };
+
+    // Métricas deste Peer; os contadores e histogramas usados em cada mensagem ficam em campos.
+    // As mensagens enviadas e recebidas são as armazenadas (privadas e de grupo)
+    private final Metricas metricas;
+    private final LongAdder mensagensEnviadas;
+    private final LongAdder mensagensRecebidas;
+    private final LongAdder mensagensGrupoEnviadas;
+    private final LongAdder falhasEnvio;
+    private final LongAdder falhasIntegridade;
+    private final LongAdder framesInvalidos;
+    private final LongAdder acordosChaves;
+    private final LongAdder lotesEnviados;
+    private final LongAdder bytesOriginaisComprimidos;
+    private final LongAdder bytesComprimidos;
+    private final LongAdder bytesRecebidosVirtuais; // No modo NIO os bytes recebidos são contados pelo NioServer
+
+    // Latência (ns) de cada etapa do envio e da receção
+    private final Histograma latenciaComprimir;
+    private final Histograma latenciaCifrar;
+    private final Histograma latenciaHash;
+    private final Histograma latenciaEscrita;
+    private final Histograma latenciaDecifrar;
+    private final Histograma latenciaDescomprimir;
+    private final Histograma latenciaVerificar;
+    private final Histograma latenciaArmazenar;
+    private final Histograma latenciaAcordo;
+    private final Histograma latenciaEnvioGrupo;
+    private final Histograma mensagensPorLote;
+
+    // Próximo ID de mensagem de grupo enviada por este Peer (início aleatório, para não repetir IDs após reiniciar)
+    private final AtomicLong proximoIdMensagem = new AtomicLong(new SecureRandom().nextLong());
 
     /**
      * Construtor da classe Peer.
@@ -75,191 +204,715 @@ public class Peer {
      * @throws NoSuchAlgorithmException Caso o algoritmo de geração de chaves não seja encontrado
      */
     public Peer(int porta, String idPeer) throws NoSuchAlgorithmException {
+        this(porta, idPeer, ModoChaves.doSistema());
+    }
+
+    /**
+     * Construtor da classe Peer com um modo de acordo de chaves explícito.
+     *
+     * @param porta Porta na qual o Peer irá escutar conexões
+     * @param idPeer id do utilizador tem de ser exclusivo
+     * @param modoChaves Modo preferido do acordo de chaves (tipo das chaves de identidade)
+     * @throws NoSuchAlgorithmException Caso o algoritmo de geração de chaves não seja encontrado
+     */
+    public Peer(int porta, String idPeer, ModoChaves modoChaves) throws NoSuchAlgorithmException {
+        this(porta, idPeer, modoChaves, null);
+    }
+
+    /**
+     * Construtor da classe Peer com um par de chaves de identidade já existente (por exemplo, lido
+     * de um {@link ArmazemChaves}), para que o Peer mantenha a mesma chave pública entre arranques.
+     *
+     * @param porta Porta na qual o Peer irá escutar conexões
+     * @param idPeer id do utilizador tem de ser exclusivo
+     * @param parDeChaves Par de chaves de identidade; o seu tipo define o modo preferido do acordo de chaves
+     * @throws NoSuchAlgorithmException Caso o algoritmo das chaves não seja suportado
+     * @throws InvalidKeyException Caso as chaves não pertençam a nenhum modo suportado
+     */
+    public Peer(int porta, String idPeer, KeyPair parDeChaves) throws NoSuchAlgorithmException, InvalidKeyException {
+        this(porta, idPeer, ModoChaves.daChave(parDeChaves.getPublic()), parDeChaves);
+    }
+
+    private Peer(int porta, String idPeer, ModoChaves modoChaves, KeyPair parDeChaves) throws NoSuchAlgorithmException {
         this.porta = porta;
         this.idPeer = idPeer;
-        this.dht = new HashMap<>();
+        this.modoChaves = modoChaves;
+        if (parDeChaves != null) {
+            paresDeChaves.put(modoChaves, parDeChaves);
+        }
+        // Os mapas são partilhados pelas threads de receção e pela GUI: são concorrentes, sem lock global
+        this.dht = new ConcurrentHashMap<>();
         gerarChaves(); // Gera as chaves pública e privada
-        this.chavesPublicasConhecidas = new HashMap<>();
-        this.conversas = new HashMap<>();
-        this.chavesSimetricas = new HashMap<>();
-        this.mapGrupos = new HashMap<>(); 
+        this.chavesPublicasConhecidas = new ConcurrentHashMap<>();
+        this.armazem = abrirArmazem(idPeer);
+        this.chavesSimetricas = new ConcurrentHashMap<>();
+        this.mapGrupos = new ConcurrentHashMap<>(); 
+
+        this.metricas = new Metricas(idPeer);
+        this.mensagensEnviadas = metricas.contador("mensagens_enviadas");
+        this.mensagensRecebidas = metricas.contador("mensagens_recebidas");
+        this.mensagensGrupoEnviadas = metricas.contador("mensagens_grupo_enviadas");
+        this.falhasEnvio = metricas.contador("falhas_envio");
+        this.falhasIntegridade = metricas.contador("falhas_integridade");
+        this.framesInvalidos = metricas.contador("frames_invalidos");
+        this.acordosChaves = metricas.contador("acordos_chaves");
+        this.lotesEnviados = metricas.contador("lotes_enviados");
+        this.bytesOriginaisComprimidos = metricas.contador("compressao_bytes_originais");
+        this.bytesComprimidos = metricas.contador("compressao_bytes_comprimidos");
+        this.bytesRecebidosVirtuais = new LongAdder();
+        this.latenciaComprimir = metricas.histograma("latencia_comprimir_ns");
+        this.latenciaCifrar = metricas.histograma("latencia_cifrar_ns");
+        this.latenciaHash = metricas.histograma("latencia_hash_ns");
+        this.latenciaEscrita = metricas.histograma("latencia_escrita_ns");
+        this.latenciaDecifrar = metricas.histograma("latencia_decifrar_ns");
+        this.latenciaDescomprimir = metricas.histograma("latencia_descomprimir_ns");
+        this.latenciaVerificar = metricas.histograma("latencia_verificar_ns");
+        this.latenciaArmazenar = metricas.histograma("latencia_armazenar_ns");
+        this.latenciaAcordo = metricas.histograma("latencia_acordo_chaves_ns");
+        this.latenciaEnvioGrupo = metricas.histograma("latencia_envio_grupo_ns");
+        this.mensagensPorLote = metricas.histograma("mensagens_por_lote");
+        // Valores mantidos pelas ligações e pelo servidor, lidos só quando as métricas são exportadas
+        metricas.medidor("ligacoes_abertas_total", ligacoes::getAberturas);
+        metricas.medidor("falhas_ligacao_total", ligacoes::getFalhasLigacao);
+        metricas.medidor("ligacoes_ativas", ligacoes::getLigacoesAbertas);
+        metricas.medidor("bytes_enviados_total", ligacoes::getBytesEnviados);
+        metricas.medidor("bytes_recebidos_total", () -> bytesRecebidosVirtuais.sum() + (servidor != null ? servidor.getBytesRecebidos() : 0));
+        metricas.medidor("ligacoes_dados_invalidos_total", () -> servidor != null ? servidor.getDadosInvalidos() : 0);
+        metricas.medidor("peers_conhecidos", dht::size);
+        metricas.medidor("grupos", mapGrupos::size);
     }
 
     /**
-     * Método para gerar o par de chaves pública e privada usando o algoritmo RSA.
+     * Método para gerar o par de chaves pública e privada no modo preferido.
+     * Os pares dos outros modos só são gerados se um contacto os usar.
      *
-     * @throws NoSuchAlgorithmException Caso o algoritmo RSA não seja suportado
+     * @throws NoSuchAlgorithmException Caso o algoritmo não seja suportado
      */
     private void gerarChaves() throws NoSuchAlgorithmException {
-        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("DiffieHellman"); // Obtém uma instância do gerador de pares de chaves RSA
-        keyGen.initialize(2048); // Inicializa o gerador com tamanho de chave de 2048 bits
-        KeyPair parDeChaves = keyGen.generateKeyPair(); // Gera o par de chaves
+        KeyPair parDeChaves = parDeChaves(modoChaves); // Gera o par de chaves
         chavePublica = parDeChaves.getPublic(); // Obtém a chave pública
         chavePrivada = parDeChaves.getPrivate(); // Obtém a chave privada
     }
 
+    // Abre o log persistente das conversas no diretório configurado, ou usa a memória se não houver nenhum
+    private static ArmazemConversas abrirArmazem(String idPeer) {
+        String diretorio = System.getProperty(LogMensagens.PROPRIEDADE);
+        if (diretorio == null) {
+            return new ArmazemMemoria();
+        }
+        try {
+            return new LogMensagens(Paths.get(diretorio, idPeer));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Não foi possível abrir o log de mensagens em " + diretorio, e);
+        }
+    }
+
+    // Obtém o par de chaves de identidade de um modo, gerando-o na primeira utilização
+    private synchronized KeyPair parDeChaves(ModoChaves modo) throws NoSuchAlgorithmException {
+        KeyPair par = paresDeChaves.get(modo);
+        if (par == null) {
+            par = modo.gerarParDeChaves();
+            paresDeChaves.put(modo, par);
+        }
+        return par;
+    }
+
     /**
      * Inicia o Peer para escutar conexões na porta especificada.
-     * Cria um ServerSocket e lança uma nova thread para aceitar conexões de forma assíncrona.
+     * No modo NIO as ligações são recebidas por um servidor NIO: uma thread com um Selector multiplexa todas
+     * as ligações e as mensagens são processadas por um conjunto fixo de workers, pelo que um
+     * remetente lento ou com a ligação sempre aberta não impede os outros de serem atendidos.
+     * No modo de threads virtuais cada ligação aceite é lida por {@link #receberMensagem(Socket)}
+     * numa thread virtual própria.
      *
-     * @throws IOException Caso ocorra um erro ao criar o ServerSocket
+     * @throws IOException Caso ocorra um erro ao abrir a porta
      */
     public void iniciar() throws IOException {
-        ServerSocket serverSocket = new ServerSocket(porta);
-        Logger.log("Peer iniciado na porta " + porta);
-        
-        new Thread(() -> {
-            while (true) {
-                try {
-                    Socket socket = serverSocket.accept(); // Aceita uma conexão
-                    // Chama o método para receber mensagens do peer conectado
-                    receberMensagem(socket);
-                } catch (IOException e) {
-                    e.printStackTrace();
+        if (modoRede == ModoRede.VIRTUAL_THREADS) {
+            ServerSocket socketServidor = new ServerSocket(porta);
+            serverSocket = socketServidor;
+            Thread.ofPlatform().daemon().name("accept-" + porta).start(() -> {
+                while (!socketServidor.isClosed()) {
+                    try {
+                        Socket socket = socketServidor.accept(); // Aceita uma conexão
+                        Thread.ofVirtual().name("rececao-virtual").start(() -> receberMensagem(socket));
+                    } catch (IOException e) {
+                        if (!socketServidor.isClosed()) {
+                            e.printStackTrace();
+                        }
+                    }
                 }
+            });
+        } else {
+            servidor = new NioServer(porta, NUMERO_WORKERS, this);
+            servidor.iniciar();
+        }
+        if (Kademlia.ativaNoSistema()) {
+            Kademlia no = new Kademlia(idPeer, porta, chavePublica);
+            no.setAoConhecer(this::registrarContacto); // Os contactos da DHT alimentam a cache local
+            no.setAcordoChaves(this::acordarIdentidade); // Prova aos outros peers o endereço deste
+            no.iniciar();
+            kademlia = no;
+        }
+        Metricas.registar(metricas);
+        Metricas.iniciarExportacao();
+        Logger.log("Peer iniciado na porta " + porta + " (modo " + modoRede + ")");
+    }
+
+    /**
+     * Para o Peer: deixa de aceitar conexões, fecha as ligações de envio abertas e o armazém das conversas.
+     */
+    public void parar() {
+        // Os lotes pendentes passam já para as filas de envio (os temporizadores que ainda dispararem encontram-nos
+        // vazios), e os envios e retransmissões em fila terminam antes de as ligações fecharem
+        for (Map.Entry<String, LoteMensagens> lote : lotes.entrySet()) {
+            despacharLote(lote.getKey(), lote.getValue());
+        }
+        esperarEnvios();
+        if (servidor != null) {
+            servidor.fechar();
+        }
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
             }
-        }).start();
+        }
+        if (kademlia != null) {
+            kademlia.parar();
+        }
+        ligacoes.fechar();
+        eventos.parar();
+        Metricas.remover(metricas);
+        try {
+            armazem.fechar(); // Garante que o log de mensagens chega ao disco
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        Logger.log("Peer parado na porta " + porta);
     }
     
     /**
      * Envia uma mensagem criptografada para o Peer destinatário especificado.
      * Utiliza Diffie-Hellman para criptografar a chave simétrica (AES),
      * e criptografia simétrica para criptografar a mensagem.
-     * Inclui verificação de integridade usando SHA-256.
+     * Com peers que o suportem usa AES-GCM (cifra e integridade numa única passagem, com um nonce por mensagem);
+     * com peers antigos usa AES com verificação de integridade por SHA-256.
+     * No modo de threads virtuais o envio é feito numa thread virtual e este método retorna de imediato;
+     * as mensagens para o mesmo destinatário continuam a ser enviadas pela ordem em que foram pedidas.
+     * Com o envio em lotes ligado ({@link #setLote(int, int)}) a mensagem é juntada às outras pendentes para
+     * o mesmo destinatário e este método também retorna de imediato, em qualquer modo de rede.
      *
      * @param idDestinatario ID do Peer destinatário
      * @param mensagem Mensagem a ser enviada
      */
     public void enviarMensagem(String idDestinatario, String mensagem) {
-        InetSocketAddress peerAddress = dht.get(idDestinatario); // Obtém o endereço do destinatário da DHT
+        if (esperaLoteMs > 0) {
+            acrescentarLote(idDestinatario, mensagem);
+        } else if (modoRede == ModoRede.VIRTUAL_THREADS) {
+            filaEnvio(idDestinatario).execute(() -> enviarMensagemAgora(idDestinatario, mensagem));
+        } else {
+            enviarMensagemAgora(idDestinatario, mensagem);
+        }
+    }
+
+    // Envia a mensagem na thread atual, com um evento JFR para o envio completo
+    private void enviarMensagemAgora(String idDestinatario, String mensagem) {
+        enviarMensagemAgora(idDestinatario, mensagem, Frame.novoIdCorrelacao());
+    }
+
+    private void enviarMensagemAgora(String idDestinatario, String mensagem, long idCorrelacao) {
+        EventosMensagem.Envio envio = new EventosMensagem.Envio();
+        envio.begin();
+        Frame frame = enviarDireta(idDestinatario, mensagem, idCorrelacao);
+        envio.entregue = frame != null;
+        envio.terminar(idCorrelacao, idPeer, idDestinatario, "", frame != null ? frame.getPayload().length : 0);
+    }
+
+    // Envia uma mensagem privada; devolve o frame enviado, ou null se o envio falhar
+    private Frame enviarDireta(String idDestinatario, String mensagem, long idCorrelacao) {
+        InetSocketAddress peerAddress = resolverPeer(idDestinatario); // Obtém o endereço do destinatário da DHT
         if (peerAddress != null) { // Verifica se o destinatário está registrado na DHT
-            try (Socket socket = new Socket(peerAddress.getHostName(), peerAddress.getPort());
-                 PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
-    
+            try {
                 if (chavesSimetricas.get(idDestinatario) == null) { // Se não tivermos uma chave simétrica com este Peer
                     // Obtém a chave pública do destinatário
                     PublicKey chavePublicaDestinatario = chavesPublicasConhecidas.get(idDestinatario);
                     if (chavePublicaDestinatario != null) {
-                        applyDiffieHellman(idDestinatario, chavePublicaDestinatario);
+                        acordarChaves(idDestinatario, chavePublicaDestinatario, idCorrelacao, "");
                     } else {
-                        System.out.println("\nChave pública do destinatário não encontrada.");
-                        return;
+                        Logger.aviso("Chave pública do destinatário não encontrada: " + idDestinatario);
+                        falhasEnvio.increment();
+                        return null;
                     }
                 }
     
                 SecretKeySpec aesKey = chavesSimetricas.get(idDestinatario);
-    
-                // Inicializa a cifra para AES
-                Cipher cipher = Cipher.getInstance("AES");
-                cipher.init(Cipher.ENCRYPT_MODE, aesKey);
-    
-                // Criptografa a mensagem usando a chave simétrica
-                byte[] mensagemCriptografada = criptografarMensagem(mensagem, aesKey);
-    
-                // Calcula o hash da mensagem
-                MessageDigest digest = MessageDigest.getInstance("SHA-256");
-                byte[] hash = digest.digest(mensagem.getBytes(StandardCharsets.UTF_8));
-    
-                // Codifica o hash em Base64 para envio
-                String hashBase64 = Base64.getEncoder().encodeToString(hash);
-    
-                System.out.println("\n------------------------------Hash------------------------------");
-                System.out.println("\nHash enviado (Base64): " + hashBase64);
-    
-                // Estrutura da mensagem a ser enviada: idRemetente|mensagemCriptografada|hash
-                out.println("" + "|" + idPeer + "|" + Base64.getEncoder().encodeToString(mensagemCriptografada) + "|" + hashBase64);
-    
-                // Armazena a mensagem localmente e notifica a GUI
-                armazenarMensagem(idDestinatario, idPeer, mensagem);
-                Logger.log("Mensagem enviada para " + idDestinatario + ": " + mensagem);
-    
-                // --- Novo Código: Replicação para Armazenamento Externo ---
-                try {
-                    byte[] encryptedData = mensagemCriptografada; // Dados já criptografados
-                    String messageId = idPeer + "_" + idDestinatario + "_" + System.currentTimeMillis(); // ID único para a mensagem
 
+                Set<String> capacidades = obterLigacao(idDestinatario, peerAddress, idCorrelacao, "");
+                EventosMensagem.Cifra cifra = new EventosMensagem.Cifra();
+                cifra.begin();
+                Frame frame;
+                if (capacidades.contains(Negociacao.AEAD)) {
+                    // Cifra autenticada (AES-GCM): confidencialidade e integridade numa única passagem, sem hash separado
+                    frame = criarFrameAead("", mensagem, aesKey, idDestinatario, capacidades.contains(Negociacao.COMPRESSAO));
+                } else {
+                    // Peer antigo: criptografa a mensagem usando a chave simétrica
+                    byte[] mensagemCriptografada = criptografarMensagem(mensagem, aesKey);
     
-                    Logger.log("Mensagem replicada com sucesso para armazenamento externo.");
-                } catch (Exception e) {
-                    Logger.log("Erro ao replicar mensagem no armazenamento externo: " + e.getMessage());
+                    // Calcula o hash da mensagem
+                    byte[] hash = calcularHash(mensagem);
+                    Logger.debug(() -> "Hash enviado (Base64): " + Base64.getEncoder().encodeToString(hash));
+
+                    // Frame com idRemetente, mensagemCriptografada e hash, escrito em binário ou, para peers antigos,
+                    // como a linha |idRemetente|mensagemCriptografada|hash
+                    frame = new Frame(Frame.MENSAGEM, "", idPeer, mensagemCriptografada, hash);
                 }
-                // --- Fim do Novo Código ---
+                frame.setIdCorrelacao(idCorrelacao);
+                cifra.terminar(idCorrelacao, idPeer, idDestinatario, "", frame.getPayload().length);
+
+                // A ligação é reutilizada entre mensagens
+                escrever(idDestinatario, peerAddress, frame);
     
+                // Armazena a mensagem localmente e notifica a GUI
+                armazenarMensagem(idDestinatario, idPeer, mensagem, idCorrelacao, frame.getPayload().length);
+                Logger.debug(() -> "Mensagem enviada para " + idDestinatario + ": " + mensagem);
+                return frame;
             } catch (Exception e) {
+                falhasEnvio.increment();
                 e.printStackTrace(); // Imprime a pilha de erros em caso de exceção
             }
         } else {
-            System.out.println("\nPeer destinatário não encontrado."); // Caso o destinatário não esteja na DHT
+            falhasEnvio.increment();
+            Logger.aviso("Peer destinatário não encontrado: " + idDestinatario); // Caso o destinatário não esteja na DHT
         }
+        return null;
     }
 
-    public void enviarMensagemGrupo(String idGrupo, String mensagem) throws GeneralSecurityException {
-        boolean isFirstMessage = false;
+    // Junta a mensagem ao lote do destinatário. O lote segue para a fila de envio do destinatário quando
+    // atinge o tamanho máximo ou, pelo temporizador, quando a sua primeira mensagem já esperou esperaLoteMs
+    private void acrescentarLote(String idDestinatario, String mensagem) {
+        LoteMensagens lote = lotes.computeIfAbsent(idDestinatario, k -> new LoteMensagens());
+        synchronized (lote) {
+            boolean primeira = lote.acrescentar(Frame.novoIdCorrelacao(), mensagem);
+            if (lote.getBytes() >= maximoBytesLote) {
+                despacharLote(idDestinatario, lote);
+            } else if (primeira) {
+                TEMPORIZADOR_LOTES.schedule(() -> despacharLote(idDestinatario, lote), esperaLoteMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
 
-        if (chavesSimetricas.get(idGrupo) == null) { // Se não tivermos uma chave simétrica com este Grupo
+    // Passa as mensagens do lote para a fila de envio do destinatário. É feito com o lock do lote para que
+    // os lotes entrem na fila pela ordem das suas mensagens; um temporizador de um lote já enviado por ter
+    // atingido o tamanho máximo pode antecipar o envio do lote seguinte, mas nunca o atrasa
+    private void despacharLote(String idDestinatario, LoteMensagens lote) {
+        synchronized (lote) {
+            List<LoteMensagens.Entrada> entradas = lote.retirar();
+            if (!entradas.isEmpty()) {
+                filaEnvio(idDestinatario).execute(() -> enviarLote(idDestinatario, entradas));
+            }
+        }
+    }
 
-            isFirstMessage = true; 
+    // Envia as mensagens de um lote num único frame ou, se o destinatário não suportar lotes, uma a uma
+    private void enviarLote(String idDestinatario, List<LoteMensagens.Entrada> entradas) {
+        if (entradas.size() > 1 && enviarFrameLote(idDestinatario, entradas)) {
+            return;
+        }
+        for (LoteMensagens.Entrada entrada : entradas) {
+            enviarMensagemAgora(idDestinatario, entrada.mensagem(), entrada.idCorrelacao());
+        }
+    }
 
-            // Calcula o DiffieHellman conjunto
-            String[] peers = mensagem.split("\\|");
+    /**
+     * Cifra as mensagens de um lote com AES-GCM e envia-as num único frame {@link Frame#LOTE}.
+     * As etapas do lote aparecem nos eventos JFR com o ID de correlação da primeira mensagem; cada
+     * mensagem mantém o seu ID no armazenamento, no remetente e no destinatário.
+     *
+     * @param idDestinatario ID do Peer destinatário
+     * @param entradas Mensagens do lote
+     * @return false, sem nada enviado, se o destinatário não for encontrado, não tiver chave conhecida ou não
+     *         suportar lotes (as mensagens são então enviadas uma a uma); true se o lote foi enviado ou falhou
+     */
+    private boolean enviarFrameLote(String idDestinatario, List<LoteMensagens.Entrada> entradas) {
+        long idCorrelacao = entradas.get(0).idCorrelacao();
+        EventosMensagem.Envio envio = new EventosMensagem.Envio();
+        envio.begin();
+        InetSocketAddress peerAddress = resolverPeer(idDestinatario);
+        if (peerAddress == null) {
+            return false;
+        }
+        int tamanho = 0;
+        try {
+            if (chavesSimetricas.get(idDestinatario) == null) {
+                PublicKey chavePublicaDestinatario = chavesPublicasConhecidas.get(idDestinatario);
+                if (chavePublicaDestinatario == null) {
+                    return false;
+                }
+                acordarChaves(idDestinatario, chavePublicaDestinatario, idCorrelacao, "");
+            }
+            Set<String> capacidades = obterLigacao(idDestinatario, peerAddress, idCorrelacao, "");
+            if (!capacidades.contains(Negociacao.LOTE) || !capacidades.contains(Negociacao.AEAD)) {
+                return false;
+            }
 
-            addGroup(idGrupo, peers);
-            //applyGroupDiffieHellman(idGrupo, peers); ESTA A DAR ERRO
+            EventosMensagem.Cifra cifra = new EventosMensagem.Cifra();
+            cifra.begin();
+            Frame frame = cifrarAead(Frame.LOTE, "", LoteMensagens.codificar(entradas), Frame.dadosAssociadosLote(idPeer),
+                    chavesSimetricas.get(idDestinatario), idDestinatario, capacidades.contains(Negociacao.COMPRESSAO));
+            frame.setIdCorrelacao(idCorrelacao);
+            tamanho = frame.getPayload().length;
+            cifra.terminar(idCorrelacao, idPeer, idDestinatario, "", tamanho);
+
+            escrever(idDestinatario, peerAddress, frame);
+            lotesEnviados.increment();
+            mensagensPorLote.registar(entradas.size());
+            envio.entregue = true;
+
+            // Armazena as mensagens localmente e notifica a GUI
+            for (LoteMensagens.Entrada entrada : entradas) {
+                armazenarMensagem(idDestinatario, idPeer, entrada.mensagem(), entrada.idCorrelacao(), entrada.bytes().length);
+            }
+            Logger.debug(() -> "Lote de " + entradas.size() + " mensagens enviado para " + idDestinatario);
+        } catch (Exception e) {
+            falhasEnvio.add(entradas.size());
+            e.printStackTrace(); // Imprime a pilha de erros em caso de exceção
         }
+        envio.terminar(idCorrelacao, idPeer, idDestinatario, "", tamanho);
+        return true;
+    }
+
+    // Acordo de chaves com um peer durante o envio ou a receção de uma mensagem, com o respetivo evento JFR
+    private void acordarChaves(String idRemoto, PublicKey chavePublica, long idCorrelacao, String idGrupo)
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        EventosMensagem.AcordoChaves acordo = new EventosMensagem.AcordoChaves();
+        acordo.begin();
+        applyDiffieHellman(idRemoto, chavePublica);
+        acordo.terminar(idCorrelacao, idPeer, idRemoto, idGrupo, 0);
+    }
 
-        SecretKeySpec aesKey = chavesSimetricas.get(idGrupo);
+    // Obtém as capacidades da ligação ao peer, abrindo-a e negociando se for preciso, com o respetivo evento JFR
+    private Set<String> obterLigacao(String idRemoto, InetSocketAddress endereco, long idCorrelacao, String idGrupo)
+            throws IOException {
+        return obterLigacao(idRemoto, endereco, idCorrelacao, idGrupo, ConnectionPool.SEM_PRAZO);
+    }
 
-        // Inicializa a cifra para AES
-        Cipher cipher = Cipher.getInstance("AES");
-        cipher.init(Cipher.ENCRYPT_MODE, aesKey);
+    // Igual, com um prazo (System.nanoTime) para a abertura e a negociação da ligação
+    private Set<String> obterLigacao(String idRemoto, InetSocketAddress endereco, long idCorrelacao, String idGrupo, long prazo)
+            throws IOException {
+        EventosMensagem.Ligacao ligacao = new EventosMensagem.Ligacao();
+        ligacao.begin();
+        Set<String> capacidades = ligacoes.capacidades(idRemoto, endereco, prazo);
+        ligacao.terminar(idCorrelacao, idPeer, idRemoto, idGrupo, 0);
+        return capacidades;
+    }
 
-        // Criptografa a mensagem usando a chave simétrica
-        byte[] mensagemCriptografada;
-        // Se for a primeira mensagem para o grupo, ainda não temos o Diffie-Hellman feito por isso enviamos
-        // a mensagem não-encryptada
-        if(!isFirstMessage) {
-            mensagemCriptografada = criptografarMensagem(mensagem, aesKey);
-        }
-        else {
-            mensagemCriptografada = mensagem.getBytes();
+    // Escreve um frame na ligação ao peer e mede a escrita (histograma e evento JFR)
+    private void escrever(String idRemoto, InetSocketAddress endereco, Frame frame) throws IOException {
+        escrever(idRemoto, endereco, frame, ConnectionPool.SEM_PRAZO);
+    }
+
+    // Igual, com um prazo (System.nanoTime) depois do qual o frame não é escrito nem reenviado
+    private void escrever(String idRemoto, InetSocketAddress endereco, Frame frame, long prazo) throws IOException {
+        EventosMensagem.Escrita escrita = new EventosMensagem.Escrita();
+        escrita.begin();
+        long inicio = System.nanoTime();
+        ligacoes.enviar(idRemoto, endereco, frame, prazo);
+        latenciaEscrita.registar(System.nanoTime() - inicio);
+        escrita.terminar(frame.getIdCorrelacao(), idPeer, idRemoto, frame.getIdGrupo(), frame.getPayload().length);
+    }
+
+    /**
+     * Envia uma mensagem para todos os membros de um grupo. A primeira mensagem para um grupo
+     * cria-o e contém a lista de membros separados por "|".
+     * As mensagens seguintes são difundidas por uma árvore de membros ({@link ArvoreDifusao}): este Peer
+     * envia apenas aos seus filhos, que retransmitem aos seus, de forma que o custo do envio é O(fanout)
+     * e não O(tamanho do grupo). Com fanout 0 (predefinido) a árvore tem um único nível e a mensagem é
+     * enviada diretamente a todos os membros.
+     * Cada envio é feito em paralelo, com tempos máximos de ligação e de escrita por membro.
+     *
+     * @param idGrupo ID do grupo
+     * @param mensagem Mensagem a ser enviada (ou membros do grupo, na criação)
+     * @return Resultado da entrega a cada membro contactado diretamente e latência total do envio
+     * @throws GeneralSecurityException Caso ocorra um erro ao criptografar a mensagem
+     */
+    public ResultadoEnvioGrupo enviarMensagemGrupo(String idGrupo, String mensagem) throws GeneralSecurityException {
+        if (!mapGrupos.containsKey(idGrupo)) { // Primeira mensagem para este grupo: cria-o
+            return criarGrupo(idGrupo, mensagem);
         }
-        
+
+        long idMensagem = proximoIdMensagem.getAndIncrement();
+        long idCorrelacao = Frame.novoIdCorrelacao(); // O mesmo em todos os membros e retransmissões
+        marcarVista(idPeer, idMensagem); // Ignora a mensagem se voltar a chegar a este Peer
+        ResultadoEnvioGrupo resultado = difundir(idGrupo, idPeer, idMensagem, fanoutGrupo, mensagem, idCorrelacao);
+        mensagensGrupoEnviadas.increment();
+        latenciaEnvioGrupo.registar(resultado.getLatenciaNanos());
+
+        // Armazena a mensagem localmente e notifica a GUI
+        armazenarMensagem(idGrupo, idPeer, mensagem, idCorrelacao, 0);
+        Logger.debug(() -> "Mensagem enviada para o grupo " + idGrupo + ": " + mensagem);
+        Logger.debug(resultado::toString);
+        return resultado;
+    }
+
+    // Cria o grupo e envia a lista de membros a todos eles
+    private ResultadoEnvioGrupo criarGrupo(String idGrupo, String mensagem) throws GeneralSecurityException {
+        String[] peers = mensagem.split("\\|");
+        addGroup(idGrupo, peers);
+        //applyGroupDiffieHellman(idGrupo, peers); ESTA A DAR ERRO
+
+        // Ainda não há chave para o grupo, por isso a lista de membros é enviada não-encryptada
+        byte[] conteudo = mensagem.getBytes(StandardCharsets.UTF_8);
+
         // Calcula o hash da mensagem
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        byte[] hash = digest.digest(mensagem.getBytes(StandardCharsets.UTF_8));
+        byte[] hash = MotorCripto.sha256(mensagem.getBytes(StandardCharsets.UTF_8));
 
         // Codifica o hash em Base64 para envio
         String hashBase64 = Base64.getEncoder().encodeToString(hash);
 
         // Alteração manual para simular corrupção
         //hashBase64 = hashBase64.substring(1) + "x"; // Modifica o hash
-        System.out.println("\n Hash enviado (Base64): " + hashBase64);
+        Logger.debug(() -> "Hash enviado (Base64): " + hashBase64);
 
         List<String> groupPeers = mapGrupos.get(idGrupo);
 
-        // Para cada Peer no grupo temos de enviar uma mensagem.
-        for(String peer : groupPeers) {
-            System.out.println("currently seding to:" + peer);
-            InetSocketAddress peerAddress = dht.get(peer); // Obtém o endereço do destinatário da DHT
-            if (peerAddress != null) { // Verifica se o destinatário está registrado na DHT
-                try (Socket socket = new Socket(peerAddress.getHostName(), peerAddress.getPort());
-                     PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
-                        
-                    // Estrutura da mensagem a ser enviada: idGrupo|idRemetente|mensagemCriptografada|hash
-                    out.println(idGrupo + "|" + this.idPeer + "|" + Base64.getEncoder().encodeToString(mensagemCriptografada) + "|" + hashBase64);
-
-                    } catch (Exception e) {
-                        e.printStackTrace(); // Imprime a pilha de erros em caso de exceção
-                    }
-                } else {
-                    System.out.println("\nPeer destinatário não encontrado."); // Caso o destinatário não esteja na DHT
+        // Frame com idGrupo, idRemetente, membros e hash; é codificado uma única vez por formato
+        Frame frame = new Frame(Frame.CRIAR_GRUPO, idGrupo, this.idPeer, conteudo, hash);
+        frame.setMembros(groupPeers);
+        frame.setIdCorrelacao(Frame.novoIdCorrelacao());
+
+        ResultadoEnvioGrupo resultado = enviarParaMembros(idGrupo, groupPeers, System.nanoTime(), frame.getIdCorrelacao(),
+                (peer, endereco) -> frame);
+
+        // Armazena a mensagem localmente e notifica a GUI
+        armazenarMensagem(idGrupo, idPeer, mensagem, frame.getIdCorrelacao(), conteudo.length);
+        Logger.debug(() -> "Mensagem enviada para o grupo " + idGrupo + ": " + mensagem);
+        Logger.debug(resultado::toString);
+        return resultado;
+    }
+
+    /**
+     * Envia uma mensagem de grupo aos filhos deste Peer na árvore de difusão com raiz em idOrigem.
+     * Se um filho falhar, ou for um peer antigo que não retransmite, os filhos dele recebem a mensagem
+     * diretamente deste Peer, para que a sua subárvore não fique sem a mensagem.
+     *
+     * @param idGrupo ID do grupo
+     * @param idOrigem ID do autor da mensagem
+     * @param idMensagem ID da mensagem atribuído pelo autor
+     * @param fanout Fanout da árvore escolhido pelo autor
+     * @param mensagem Mensagem em claro
+     * @param idCorrelacao ID de correlação da mensagem nos eventos JFR
+     * @return Resultado da entrega a cada membro contactado por este Peer
+     */
+    private ResultadoEnvioGrupo difundir(String idGrupo, String idOrigem, long idMensagem, int fanout, String mensagem,
+                                         long idCorrelacao) {
+        long inicio = System.nanoTime();
+        ArvoreDifusao arvore = new ArvoreDifusao(mapGrupos.get(idGrupo), idOrigem, fanout);
+        Set<String> naoRetransmitem = ConcurrentHashMap.newKeySet();
+        List<ResultadoEnvio> resultados = new ArrayList<>();
+
+        List<String> destinos = arvore.filhos(idPeer);
+        while (!destinos.isEmpty()) {
+            ResultadoEnvioGrupo envio = enviarParaMembros(idGrupo, destinos, inicio, idCorrelacao, (peer, endereco) ->
+                    criarFrameDifusao(idGrupo, idOrigem, idMensagem, fanout, mensagem, idCorrelacao, peer, endereco, naoRetransmitem));
+            resultados.addAll(envio.getResultados());
+
+            // Adota a subárvore dos filhos que não vão retransmitir a mensagem
+            List<String> seguintes = new ArrayList<>();
+            for (ResultadoEnvio entrega : envio.getResultados()) {
+                if (!entrega.isEntregue() || naoRetransmitem.contains(entrega.getIdPeer())) {
+                    seguintes.addAll(arvore.filhos(entrega.getIdPeer()));
                 }
+            }
+            destinos = seguintes;
         }
+        return new ResultadoEnvioGrupo(idGrupo, resultados, System.nanoTime() - inicio);
+    }
 
+    // Cria o frame de uma mensagem de grupo para um membro, cifrado com a chave simétrica partilhada com esse membro
+    private Frame criarFrameDifusao(String idGrupo, String idOrigem, long idMensagem, int fanout, String mensagem,
+                                    long idCorrelacao, String peer, InetSocketAddress endereco,
+                                    Set<String> naoRetransmitem) throws Exception {
+        SecretKeySpec aesKey = chavesSimetricas.get(peer);
+        if (aesKey == null) { // Se não tivermos uma chave simétrica com este Peer
+            PublicKey chavePublicaPeer = chavesPublicasConhecidas.get(peer);
+            if (chavePublicaPeer == null) {
+                throw new InvalidKeyException("Chave pública do peer " + peer + " não encontrada");
+            }
+            acordarChaves(peer, chavePublicaPeer, idCorrelacao, idGrupo);
+            aesKey = chavesSimetricas.get(peer);
+        }
 
-        // Armazena a mensagem localmente e notifica a GUI
-        armazenarMensagem(idGrupo, idPeer, mensagem);
-        Logger.log("Mensagem enviada para o grupo" + idGrupo + ": " + mensagem);
+        Set<String> capacidades = obterLigacao(peer, endereco, idCorrelacao, idGrupo);
+        EventosMensagem.Cifra cifra = new EventosMensagem.Cifra();
+        cifra.begin();
+        Frame frame;
+        if (!capacidades.contains(Negociacao.AEAD)) {
+            // Peer antigo: recebe a mensagem sem os campos da difusão, que só são autenticados com AEAD, e não a retransmite
+            frame = new Frame(Frame.MENSAGEM, idGrupo, idPeer, criptografarMensagem(mensagem, aesKey), calcularHash(mensagem));
+            frame.setIdCorrelacao(idCorrelacao);
+            cifra.terminar(idCorrelacao, idPeer, peer, idGrupo, frame.getPayload().length);
+            naoRetransmitem.add(peer);
+            return frame;
+        }
+        // O autor, o ID da mensagem e o fanout fazem parte dos dados associados
+        frame = cifrarAead(Frame.MENSAGEM, idGrupo, mensagem.getBytes(StandardCharsets.UTF_8),
+                Frame.dadosAssociadosDifusao(idGrupo, idPeer, idOrigem, idMensagem, fanout), aesKey, idGrupo,
+                capacidades.contains(Negociacao.COMPRESSAO));
+        frame.setIdCorrelacao(idCorrelacao);
+        cifra.terminar(idCorrelacao, idPeer, peer, idGrupo, frame.getPayload().length);
+        frame.setOrigem(idOrigem);
+        frame.setIdMensagem(idMensagem);
+        frame.setFanout(fanout);
+        return frame;
+    }
+
+    /**
+     * Envia um frame a cada um dos membros indicados em paralelo: cada membro tem a sua fila de envio
+     * (que mantém a ordem das mensagens para esse membro) e um membro inacessível não atrasa os restantes.
+     *
+     * @param idGrupo ID do grupo
+     * @param membros Membros a contactar (o próprio Peer é ignorado)
+     * @param inicio Instante (System.nanoTime) a partir do qual são medidas as latências
+     * @param idCorrelacao ID de correlação da mensagem nos eventos JFR
+     * @param frames Cria o frame a enviar a cada membro (chamado na thread de envio desse membro)
+     * @return Resultado da entrega a cada membro
+     */
+    private ResultadoEnvioGrupo enviarParaMembros(String idGrupo, List<String> membros, long inicio, long idCorrelacao,
+                                                  FrameMembro frames) {
+        // Prazo de todas as entregas: procura na DHT (se for precisa), ligação, negociação e escrita
+        long prazo = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(
+                (long) ligacoes.getTimeoutLigacaoMs() + Negociacao.TIMEOUT_MS + timeoutEscritaMs
+                + (kademlia != null ? TEMPO_MAXIMO_PROCURA_MS : 0));
+        Map<String, CompletableFuture<ResultadoEnvio>> entregas = new LinkedHashMap<>();
+        for (String peer : membros) {
+            if (peer.equals(idPeer) || entregas.containsKey(peer)) {
+                continue; // O próprio Peer também faz parte do grupo
+            }
+            CompletableFuture<ResultadoEnvio> entrega = new CompletableFuture<>();
+            entregas.put(peer, entrega);
+            InetSocketAddress enderecoConhecido = dht.get(peer); // Obtém o endereço do destinatário da cache
+            if (enderecoConhecido == null && kademlia == null) { // Verifica se o destinatário está registrado
+                Logger.aviso("Peer destinatário não encontrado: " + peer); // Caso o destinatário não esteja na DHT
+                entrega.complete(new ResultadoEnvio(peer, ResultadoEnvio.Estado.NAO_ENCONTRADO, 0, null));
+                continue;
+            }
+            filaEnvio(peer).execute(() -> {
+                EventosMensagem.Envio envio = new EventosMensagem.Envio();
+                envio.begin();
+                // Um membro que ainda não está na cache é procurado na DHT, na thread de envio desse membro
+                InetSocketAddress peerAddress = enderecoConhecido != null ? enderecoConhecido : resolverPeer(peer);
+                if (peerAddress == null) {
+                    Logger.aviso("Peer destinatário não encontrado: " + peer);
+                    entrega.complete(new ResultadoEnvio(peer, ResultadoEnvio.Estado.NAO_ENCONTRADO, System.nanoTime() - inicio, null));
+                    envio.terminar(idCorrelacao, idPeer, peer, idGrupo, 0);
+                    return;
+                }
+                int tamanho = 0;
+                try {
+                    // A ligação é aberta (e negociada) dentro do prazo antes de criar o frame, que usa as capacidades
+                    obterLigacao(peer, peerAddress, idCorrelacao, idGrupo, prazo);
+                    Frame frame = frames.criar(peer, peerAddress);
+                    tamanho = frame.getPayload().length;
+                    escrever(peer, peerAddress, frame, prazo);
+                    envio.entregue = true;
+                    entrega.complete(new ResultadoEnvio(peer, ResultadoEnvio.Estado.ENTREGUE, System.nanoTime() - inicio, null));
+                } catch (Exception e) {
+                    entrega.complete(new ResultadoEnvio(peer, ResultadoEnvio.Estado.FALHOU, System.nanoTime() - inicio, e.toString()));
+                }
+                envio.terminar(idCorrelacao, idPeer, peer, idGrupo, tamanho);
+            });
+        }
+
+        // Espera por todas as entregas até ao prazo; as que o excedem são abortadas e nunca são reenviadas
+        List<ResultadoEnvio> resultados = new ArrayList<>(entregas.size());
+        for (Map.Entry<String, CompletableFuture<ResultadoEnvio>> entrega : entregas.entrySet()) {
+            try {
+                resultados.add(entrega.getValue().get(Math.max(0, prazo - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                ligacoes.abortar(entrega.getKey()); // Desbloqueia a ligação, a negociação ou a escrita pendente deste membro
+                resultados.add(new ResultadoEnvio(entrega.getKey(), ResultadoEnvio.Estado.TIMEOUT, System.nanoTime() - inicio, null));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                resultados.add(new ResultadoEnvio(entrega.getKey(), ResultadoEnvio.Estado.FALHOU, System.nanoTime() - inicio, e.toString()));
+            } catch (ExecutionException e) {
+                resultados.add(new ResultadoEnvio(entrega.getKey(), ResultadoEnvio.Estado.FALHOU, System.nanoTime() - inicio, e.getCause().toString()));
+            }
+        }
+        return new ResultadoEnvioGrupo(idGrupo, resultados, System.nanoTime() - inicio);
+    }
+
+    /**
+     * Cria o frame a enviar a um membro de um grupo.
+     */
+    @FunctionalInterface
+    private interface FrameMembro {
+        Frame criar(String idMembro, InetSocketAddress endereco) throws Exception;
+    }
+
+    // Regista uma mensagem de grupo como já recebida; devolve false se já o tinha sido
+    private boolean marcarVista(String idOrigem, long idMensagem) {
+        synchronized (mensagensVistas) {
+            return mensagensVistas.put(idOrigem + "#" + idMensagem, Boolean.TRUE) == null;
+        }
+    }
+
+    /**
+     * Cria um frame de mensagem cifrado com AES-GCM. O grupo e o remetente são autenticados como dados associados.
+     *
+     * @param idGrupo ID do grupo, ou "" para mensagens privadas
+     * @param mensagem Mensagem a cifrar
+     * @param aesKey Chave simétrica
+     * @param idConversa ID do peer ou do grupo, que escolhe o dicionário da compressão
+     * @param comprimir true se o destinatário negociou a compressão
+     * @return Frame com a flag AEAD (e FLAG_COMPRIMIDO, se a mensagem foi comprimida)
+     * @throws GeneralSecurityException Caso ocorra um erro durante a cifra
+     */
+    private Frame criarFrameAead(String idGrupo, String mensagem, SecretKeySpec aesKey, String idConversa, boolean comprimir)
+            throws GeneralSecurityException {
+        return cifrarAead(Frame.MENSAGEM, idGrupo, mensagem.getBytes(StandardCharsets.UTF_8), Frame.dadosAssociados(idGrupo, idPeer),
+                aesKey, idConversa, comprimir);
+    }
+
+    // Comprime (se for permitido e compensar) e cifra com AES-GCM o texto em claro de um frame
+    private Frame cifrarAead(byte tipo, String idGrupo, byte[] claro, byte[] dadosAssociados, SecretKeySpec aesKey,
+                             String idConversa, boolean comprimir) throws GeneralSecurityException {
+        byte flags = Frame.FLAG_AEAD;
+        if (comprimir) {
+            long inicio = System.nanoTime();
+            byte[] comprimido = compressao.comprimir(idConversa, claro);
+            if (comprimido != null) {
+                latenciaComprimir.registar(System.nanoTime() - inicio);
+                bytesOriginaisComprimidos.add(claro.length);
+                bytesComprimidos.add(comprimido.length);
+                claro = comprimido;
+                dadosAssociados = Frame.dadosAssociadosComprimidos(dadosAssociados);
+                flags |= Frame.FLAG_COMPRIMIDO;
+            }
+        }
+        long inicio = System.nanoTime();
+        byte[] cifrado = EncryptionUtil.encryptAead(claro, aesKey, dadosAssociados);
+        latenciaCifrar.registar(System.nanoTime() - inicio);
+        Frame frame = new Frame(tipo, idGrupo, idPeer, cifrado, null);
+        frame.setFlags(flags);
+        return frame;
+    }
+
+    // Decifra com AES-GCM o payload de um frame e, se vier comprimido, descomprime-o
+    private byte[] decifrarAead(Frame frame, SecretKey chaveSimetrica, byte[] dadosAssociados)
+            throws GeneralSecurityException, IOException {
+        boolean comprimido = (frame.getFlags() & Frame.FLAG_COMPRIMIDO) != 0;
+        long inicio = System.nanoTime();
+        byte[] claro = EncryptionUtil.decryptAead(frame.getPayload(), chaveSimetrica,
+                comprimido ? Frame.dadosAssociadosComprimidos(dadosAssociados) : dadosAssociados);
+        latenciaDecifrar.registar(System.nanoTime() - inicio); // Inclui a verificação da tag
+        if (comprimido) {
+            inicio = System.nanoTime();
+            claro = compressao.descomprimir(claro);
+            latenciaDescomprimir.registar(System.nanoTime() - inicio);
+        }
+        return claro;
     }
 
     /**
@@ -269,8 +922,108 @@ public class Peer {
      * @param endereco Endereço de rede (InetSocketAddress) do Peer
      */
     public void registrarPeer(String idPeer, InetSocketAddress endereco) {
-        dht.put(idPeer, endereco); // Adiciona ou atualiza a entrada na DHT
-        Logger.log("Peer registrado: " + idPeer + " -> " + endereco);
+        InetSocketAddress anterior = dht.put(idPeer, endereco); // Adiciona ou atualiza a entrada na DHT
+        if (anterior == null) {
+            eventos.publicarPeer(idPeer); // Só os peers novos alteram as listas da GUI
+        } else if (!anterior.equals(endereco)) {
+            ligacoes.invalidar(idPeer); // A ligação aberta aponta para o endereço anterior
+        }
+        Logger.debug(() -> "Peer registrado: " + idPeer + " -> " + endereco);
+    }
+
+    /**
+     * Entra na rede DHT através de peers que já lá estão (a sua porta de mensagens é também a da DHT).
+     * Depois disto, os outros peers são encontrados pelo ID quando é preciso, sem configuração prévia.
+     *
+     * @param bootstrap Endereços de peers que já estão na rede
+     * @return true se ficou a conhecer pelo menos um peer
+     */
+    public boolean juntarRede(InetSocketAddress... bootstrap) {
+        if (kademlia == null) {
+            Logger.aviso("DHT desligada ou Peer não iniciado: não é possível entrar na rede");
+            return false;
+        }
+        return kademlia.juntar(bootstrap);
+    }
+
+    /**
+     * Obtém o endereço de um peer: da cache local ou, se não estiver lá, com uma procura na DHT, que também
+     * guarda a sua chave pública. A procura bloqueia, no máximo, algumas rondas de pedidos.
+     *
+     * @param idDestinatario ID do peer
+     * @return Endereço do peer, ou null se não for encontrado
+     */
+    public InetSocketAddress resolverPeer(String idDestinatario) {
+        InetSocketAddress endereco = dht.get(idDestinatario);
+        if (endereco != null && chavesPublicasConhecidas.containsKey(idDestinatario)) {
+            return endereco;
+        }
+        if (kademlia == null || idDestinatario.equals(idPeer)) {
+            return endereco;
+        }
+        Contacto contacto = kademlia.procurarContacto(idDestinatario);
+        if (contacto == null) {
+            return endereco;
+        }
+        registrarContacto(contacto);
+        return dht.get(idDestinatario);
+    }
+
+    // Guarda na cache local um contacto obtido pela DHT; a primeira chave pública obtida para um ID é mantida.
+    // O primeiro endereço de um peer é aceite tal como vem, mas uma mudança de endereço só depois de o peer
+    // provar, no novo endereço, que tem a chave privada da chave pública guardada: sem isso, qualquer datagrama
+    // com o ID de um peer desviava as suas mensagens
+    private void registrarContacto(Contacto contacto) {
+        String id = contacto.idPeer();
+        PublicKey guardada = chavesPublicasConhecidas.putIfAbsent(id, contacto.chavePublica());
+        InetSocketAddress atual = dht.get(id);
+        if (contacto.endereco().equals(atual)) {
+            return;
+        }
+        if (atual == null) {
+            if (dht.putIfAbsent(id, contacto.endereco()) == null) { // Sem ligação anterior: não há nada a invalidar
+                eventos.publicarPeer(id);
+                Logger.debug(() -> "Peer registrado: " + id + " -> " + contacto.endereco());
+            }
+            return;
+        }
+        if (guardada != null && !guardada.equals(contacto.chavePublica())) {
+            Logger.aviso("Contacto de " + id + " com uma chave pública diferente da guardada: ignorado");
+            return;
+        }
+        Kademlia no = kademlia;
+        if (no == null || !enderecosAConfirmar.add(id)) {
+            return; // Já há uma confirmação em curso para este peer
+        }
+        no.confirmarEndereco(contacto, guardada != null ? guardada : contacto.chavePublica())
+                .whenComplete((confirmado, erro) -> {
+                    enderecosAConfirmar.remove(id);
+                    if (Boolean.TRUE.equals(confirmado)) {
+                        // Na fila de envio do peer, fora da thread da DHT: invalidar a ligação pode esperar
+                        // por uma escrita lenta para esse peer
+                        filaEnvio(id).execute(() -> registrarPeer(id, contacto.endereco()));
+                    } else {
+                        Logger.aviso("Mudança de endereço de " + id + " para " + contacto.endereco() + " não confirmada");
+                    }
+                });
+    }
+
+    // Acordo entre a chave privada de identidade deste Peer e a de outro peer, para as provas de endereço da DHT
+    private SecretKey acordarIdentidade(PublicKey chavePublicaPeer) throws GeneralSecurityException {
+        ModoChaves modo = ModoChaves.daChave(chavePublicaPeer);
+        if (modo != modoChaves) {
+            throw new InvalidKeyException("Chave de identidade de outro modo: " + modo);
+        }
+        return modo.acordar(chavePrivada, chavePublicaPeer);
+    }
+
+    /**
+     * Obtém o nó da DHT deste Peer.
+     *
+     * @return Nó Kademlia, ou null se a DHT estiver desligada ou o Peer não tiver sido iniciado
+     */
+    public Kademlia getKademlia() {
+        return kademlia;
     }
 
     /**
@@ -285,6 +1038,7 @@ public class Peer {
 
     /**
      * Método privado para criptografar a mensagem usando a chave simétrica (AES).
+     * O Cipher é reutilizado entre mensagens através do {@link MotorCripto}.
      *
      * @param mensagem Mensagem a ser criptografada
      * @param chaveSimetrica Chave simétrica para criptografar a mensagem
@@ -292,9 +1046,19 @@ public class Peer {
      * @throws GeneralSecurityException Caso ocorra um erro durante a criptografia
      */
     private byte[] criptografarMensagem(String mensagem, SecretKeySpec aesKey) throws GeneralSecurityException {
-        Cipher cipher = Cipher.getInstance("AES"); // Obtém uma instância do Cipher para AES
-        cipher.init(Cipher.ENCRYPT_MODE, aesKey); // Inicializa o Cipher em modo de criptografia com a chave simétrica
-        return cipher.doFinal(mensagem.getBytes()); // Executa a criptografia e retorna o resultado
+        // Executa a criptografia com um Cipher AES já inicializado com esta chave e retorna o resultado
+        long inicio = System.nanoTime();
+        byte[] cifrada = MotorCripto.executar("AES", Cipher.ENCRYPT_MODE, aesKey, mensagem.getBytes(StandardCharsets.UTF_8));
+        latenciaCifrar.registar(System.nanoTime() - inicio);
+        return cifrada;
+    }
+
+    // Calcula o hash SHA-256 da mensagem (formato antigo, sem cifra autenticada)
+    private byte[] calcularHash(String mensagem) throws NoSuchAlgorithmException {
+        long inicio = System.nanoTime();
+        byte[] hash = MotorCripto.sha256(mensagem.getBytes(StandardCharsets.UTF_8));
+        latenciaHash.registar(System.nanoTime() - inicio);
+        return hash;
     }
 
     /**
@@ -305,17 +1069,45 @@ public class Peer {
      * @param mensagem Mensagem a ser armazenada
      */
     public void armazenarMensagem(String idDestinatario, String idRemetente, String mensagem) {
-    
-        // Armazenamento na memória local
-        conversas.computeIfAbsent(idDestinatario, k -> new ArrayList<>()).add(idRemetente);
-        conversas.get(idDestinatario).add(mensagem);
+        armazenarMensagem(idDestinatario, idRemetente, mensagem, 0, 0);
+    }
+
+    // Armazena a mensagem com o evento JFR da mensagem indicada (idCorrelacao e tamanho do payload recebido ou enviado)
+    private void armazenarMensagem(String idDestinatario, String idRemetente, String mensagem, long idCorrelacao, int tamanho) {
+        EventosMensagem.Armazenamento armazenamento = new EventosMensagem.Armazenamento();
+        armazenamento.begin();
+
+        // Armazenamento local (memória ou log persistente)
+        RegistoMensagem registo;
+        long inicio = System.nanoTime();
+        try {
+            registo = armazem.acrescentar(idDestinatario, idRemetente, mensagem);
+            latenciaArmazenar.registar(System.nanoTime() - inicio);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        (idRemetente.equals(idPeer) ? mensagensEnviadas : mensagensRecebidas).increment();
+
+        // Entrega a nova mensagem a quem subscreveu esta conversa
+        List<Consumer<RegistoMensagem>> subscritores = subscricoes.get(idDestinatario);
+        if (subscritores != null) {
+            for (Consumer<RegistoMensagem> subscritor : subscritores) {
+                subscritor.accept(registo);
+            }
+        }
     
         // Notificar a GUI
         notifyNewMessage(idDestinatario, mensagem);
+        if (armazenamento.shouldCommit()) { // Nas conversas privadas o ID da conversa é o do outro Peer
+            boolean grupo = mapGrupos.containsKey(idDestinatario);
+            armazenamento.terminar(idCorrelacao, idPeer, grupo ? idRemetente : idDestinatario, grupo ? idDestinatario : "", tamanho);
+        }
     }
 
     /**
      * Método privado para descriptografar a mensagem que foi criptografada com a chave simétrica (AES).
+     * O Cipher é reutilizado entre mensagens através do {@link MotorCripto}.
      *
      * @param mensagemCriptografada Array de bytes representando a mensagem criptografada
      * @param aesKey        SecretKey utilizada para criptografar a mensagem
@@ -323,24 +1115,19 @@ public class Peer {
      * @throws GeneralSecurityException Caso ocorra um erro durante a descriptografia
      */
     private String descriptografarMensagem(byte[] mensagemCriptografada, SecretKey aesKey) throws GeneralSecurityException {
-        // Obtém uma instância do Cipher para AES
-        Cipher cipher = Cipher.getInstance("AES");
-        // Inicializa o Cipher em modo de descriptografia utilizando a chave simétrica
-        cipher.init(Cipher.DECRYPT_MODE, aesKey);
-        // Executa a descriptografia da mensagem
-        return new String(cipher.doFinal(mensagemCriptografada));
+        // Executa a descriptografia da mensagem com um Cipher AES já inicializado com esta chave
+        return new String(MotorCripto.executar("AES", Cipher.DECRYPT_MODE, aesKey, mensagemCriptografada), StandardCharsets.UTF_8);
     }
 
     /**
      * Notifica todos os ouvintes (listeners) registrados sobre uma nova mensagem recebida.
+     * Não espera pelos ouvintes: a notificação é entregue pelo {@link DespachanteEventos}.
      *
      * @param idDestinatario ID do Peer destinatário da mensagem
      * @param mensagem Mensagem recebida
      */
     public void notifyNewMessage(String idDestinatario, String mensagem) {
-        for (PeerGUIListener listener : listeners) {
-            listener.onNewMessage(idDestinatario, mensagem); // Chama o método onNewMessage de cada ouvinte
-        }
+        eventos.publicar(idDestinatario, mensagem);
     }
 
     /**
@@ -362,120 +1149,401 @@ public class Peer {
     }
 
     /**
-     * Obtém a lista de mensagens de uma conversa específica com o Peer destinatário.
+     * Obtém as mensagens mais recentes de uma conversa.
      *
-     * @param idDestinatario ID do Peer destinatário
-     * @return Lista de mensagens da conversa; retorna uma lista vazia se não houver conversas
+     * @param idDestinatario ID do Peer ou grupo da conversa
+     * @param quantidade Número máximo de mensagens
+     * @return As últimas mensagens, da mais antiga para a mais recente; vazia se não houver conversa
      */
-    public List<String> getMensagens(String idDestinatario) {
-        return conversas.getOrDefault(idDestinatario, new ArrayList<>());
+    public List<RegistoMensagem> getUltimasMensagens(String idDestinatario, int quantidade) {
+        return lerMensagens(idDestinatario, armazem.tamanho(idDestinatario) - quantidade, quantidade);
     }
 
     /**
-     * Método para receber e processar mensagens de um peer remoto.
-     * Inclui verificação de integridade usando SHA-256.
+     * Obtém as mensagens imediatamente anteriores a um cursor, para carregar histórico mais antigo.
      *
-     * @param socket Socket representando a conexão com o peer remoto
+     * @param idDestinatario ID do Peer ou grupo da conversa
+     * @param cursor Sequência de uma mensagem já obtida (normalmente a mais antiga)
+     * @param quantidade Número máximo de mensagens
+     * @return Mensagens com sequência menor que o cursor, da mais antiga para a mais recente
      */
-    public void receberMensagem(Socket socket) {
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
-            String mensagemCriptografada;
-            boolean firstTimeGroupMessage = false;
-            while ((mensagemCriptografada = in.readLine()) != null) {
-                // Divide a mensagem recebida em partes usando o delimitador "|"
-                String[] partes = mensagemCriptografada.split("\\|");
-                System.out.println(Arrays.toString(partes));
-
-
-                // Verifica se a mensagem está no formato esperado (4 partes)
-                if (partes.length != 4) {
-                    System.out.println("\nFormato de mensagem inválido, partes: " + partes.length);
-                    continue; // Pula para a próxima iteração do loop
-                }
+    public List<RegistoMensagem> getMensagensAntes(String idDestinatario, long cursor, int quantidade) {
+        long desde = Math.max(0, cursor - quantidade);
+        return lerMensagens(idDestinatario, desde, (int) (Math.max(0, cursor) - desde));
+    }
 
-                // Extrai a flag e o id do Remetente
-                String grupoFlag = partes[0];
-                String idRemetente = partes[1];
-                PublicKey chaveRemetente = chavesPublicasConhecidas.get(idRemetente);
-                String mensagem;
+    /**
+     * Obtém as mensagens imediatamente posteriores a um cursor, para apanhar mensagens novas.
+     *
+     * @param idDestinatario ID do Peer ou grupo da conversa
+     * @param cursor Sequência de uma mensagem já obtida (normalmente a mais recente), ou -1 para começar do início
+     * @param quantidade Número máximo de mensagens
+     * @return Mensagens com sequência maior que o cursor, da mais antiga para a mais recente
+     */
+    public List<RegistoMensagem> getMensagensDepois(String idDestinatario, long cursor, int quantidade) {
+        return lerMensagens(idDestinatario, cursor + 1, quantidade);
+    }
 
-                if (chavesSimetricas.get(idRemetente) == null) { // Verifica se NÃO tem uma chave simétrica guardada para este user
-                    if(grupoFlag.equals("")) {  //Neste caso é uma mensagem privada
-                        applyDiffieHellman(idRemetente, chaveRemetente);
-                    }
-                    else {                      //Neste caso é uma mensagem de grupo
-                        firstTimeGroupMessage = true;
-                        byte[] mensagemDecodificada = Base64.getDecoder().decode(partes[2]);
-                        mensagem = new String(mensagemDecodificada);
-                        String[] peers = mensagem.split("\\|");
-                        addGroup(grupoFlag, peers);
-                        
-
-                        //applyGroupDiffieHellman(grupoFlag, peers);
+    /**
+     * Obtém o número de mensagens de uma conversa.
+     *
+     * @param idDestinatario ID do Peer ou grupo da conversa
+     * @return Número de mensagens
+     */
+    public long getNumeroMensagens(String idDestinatario) {
+        return armazem.tamanho(idDestinatario);
+    }
+
+    // Lê um intervalo do histórico; em caso de erro devolve uma lista vazia
+    private List<RegistoMensagem> lerMensagens(String idDestinatario, long desde, int quantidade) {
+        try {
+            return armazem.ler(idDestinatario, Math.max(0, desde), quantidade - (int) Math.max(0, -desde));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Subscreve as novas mensagens de uma conversa. O subscritor é chamado, na thread que guardou a mensagem,
+     * com cada mensagem acrescentada depois da subscrição; não deve bloquear.
+     *
+     * @param idDestinatario ID do Peer ou grupo da conversa
+     * @param subscritor Função chamada com cada nova mensagem
+     */
+    public void subscreverMensagens(String idDestinatario, Consumer<RegistoMensagem> subscritor) {
+        subscricoes.computeIfAbsent(idDestinatario, k -> new CopyOnWriteArrayList<>()).add(subscritor);
+    }
+
+    /**
+     * Cancela uma subscrição feita com {@link #subscreverMensagens(String, Consumer)}.
+     *
+     * @param idDestinatario ID do Peer ou grupo da conversa
+     * @param subscritor Função subscrita
+     */
+    public void cancelarSubscricao(String idDestinatario, Consumer<RegistoMensagem> subscritor) {
+        List<Consumer<RegistoMensagem>> subscritores = subscricoes.get(idDestinatario);
+        if (subscritores != null) {
+            subscritores.remove(subscritor);
+        }
+    }
+
+    /**
+     * Obtém os IDs das conversas guardadas (peers e grupos).
+     *
+     * @return IDs das conversas
+     */
+    public Set<String> getConversas() {
+        return armazem.getConversas();
+    }
+
+    /**
+     * Substitui o armazém das conversas, por exemplo por um {@link LogMensagens} num diretório escolhido.
+     * Deve ser chamado antes de o Peer receber ou enviar mensagens.
+     *
+     * @param armazem Armazém a usar
+     */
+    public void setArmazem(ArmazemConversas armazem) {
+        this.armazem = armazem;
+    }
+
+    /**
+     * Método para receber e processar mensagens de um peer remoto através de um Socket bloqueante.
+     * Cada linha de texto é processada por {@link #processarMensagem(String)} e cada frame binário
+     * por {@link #processarFrame(Frame)}; uma linha HELLO recebe como resposta as capacidades deste Peer.
+     *
+     * @param socket Socket representando a conexão com o peer remoto
+     */
+    public void receberMensagem(Socket socket) {
+        InputStream entrada;
+        try {
+            entrada = new FilterInputStream(socket.getInputStream()) {
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int lidos = super.read(b, off, len);
+                    if (lidos > 0) {
+                        bytesRecebidosVirtuais.add(lidos); // O BufferedInputStream lê sempre em blocos
                     }
+                    return lidos;
+                }
+            };
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(entrada));
+             OutputStream out = socket.getOutputStream()) {
+            ByteArrayOutputStream linha = new ByteArrayOutputStream();
+            int primeiro;
+            while ((primeiro = in.read()) != -1) {
+                if (primeiro == ProtocoloBinario.MAGIC) { // Frame binário
+                    processarFrame(ProtocoloBinario.lerDepoisDoMagic(in));
+                    continue;
                 }
-                if(!firstTimeGroupMessage){ 
+                // Linha de texto: lê até ao terminador
+                linha.reset();
+                int b = primeiro;
+                while (b != -1 && b != '\n') {
+                    linha.write(b);
+                    b = in.read();
+                }
+                String mensagemCriptografada = linha.toString(StandardCharsets.UTF_8);
+                if (mensagemCriptografada.endsWith("\r")) {
+                    mensagemCriptografada = mensagemCriptografada.substring(0, mensagemCriptografada.length() - 1);
+                }
+                if (Negociacao.lerHello(mensagemCriptografada) != null) {
+                    out.write((Negociacao.linhaHello(getCapacidades()) + "\n").getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                } else {
+                    processarMensagem(mensagemCriptografada);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-                    // Decodifica a mensagem criptografada da segunda parte da mensagem usando Base64
-                    byte[] mensagemDecodificada = Base64.getDecoder().decode(partes[2]);
+    /**
+     * Processa uma mensagem (linha) recebida no formato de texto antigo de um peer remoto.
+     * A linha é convertida num Frame e processada por {@link #processarFrame(Frame)}.
+     * Pode ser chamado por várias threads de receção em simultâneo.
+     *
+     * @param mensagemCriptografada Linha recebida no formato grupo|idRemetente|mensagemCriptografada|hash
+     */
+    @Override
+    public void processarMensagem(String mensagemCriptografada) {
+        try {
+            // Divide a mensagem recebida em partes usando o delimitador "|"
+            Frame frame = Frame.deTexto(mensagemCriptografada);
+            Logger.debug(() -> mensagemCriptografada);
+
+            // Verifica se a mensagem está no formato esperado (4 partes)
+            if (frame == null) {
+                framesInvalidos.increment();
+                Logger.aviso("Formato de mensagem inválido: " + mensagemCriptografada);
+                return; // Ignora a mensagem
+            }
+
+            // No formato de texto a criação de um grupo não é explícita: é a primeira mensagem de grupo
+            // recebida de um remetente com quem ainda não há chave simétrica, e traz os membros separados por "|"
+            if (!frame.getIdGrupo().equals("") && chavesSimetricas.get(frame.getIdRemetente()) == null) {
+                Frame criacao = new Frame(Frame.CRIAR_GRUPO, frame.getIdGrupo(), frame.getIdRemetente(), frame.getPayload(), frame.getHash());
+                criacao.setMembros(Arrays.asList(new String(frame.getPayload(), StandardCharsets.UTF_8).split("\\|")));
+                frame = criacao;
+            }
+            processarFrame(frame);
+        } catch (IllegalArgumentException e) {
+            framesInvalidos.increment();
+            Logger.aviso("Formato de mensagem inválido: " + e.getMessage()); // Base64 inválido
+        }
+    }
 
-                    // Obtém o hash recebido (terceira parte)
-                    String hashRecebido = partes[3];
+    /**
+     * Processa um frame recebido de um peer remoto.
+     * A integridade é verificada pela tag do AES-GCM (frames com FLAG_AEAD) ou, no modo antigo, usando SHA-256.
+     * Pode ser chamado por várias threads de receção em simultâneo.
+     *
+     * @param frame Frame recebido
+     */
+    @Override
+    public void processarFrame(Frame frame) {
+        EventosMensagem.Rececao rececao = new EventosMensagem.Rececao();
+        rececao.begin();
+        tratarFrame(frame);
+        rececao.terminar(frame.getIdCorrelacao(), idPeer, frame.getIdRemetente(), frame.getIdGrupo(), frame.getPayload().length);
+    }
 
-                    // Descriptografa a mensagem utilizando a chave simétrica obtida
-                    SecretKey chaveSimetrica = chavesSimetricas.get(idRemetente);
-                    mensagem = descriptografarMensagem(mensagemDecodificada, chaveSimetrica);
+    // Processa um frame recebido (sem o evento JFR da receção completa)
+    private void tratarFrame(Frame frame) {
+        try {
+            // Extrai a flag e o id do Remetente
+            String idRemetente = frame.getIdRemetente();
 
-                    // Calcula o hash da mensagem descriptografada
-                    MessageDigest digest = MessageDigest.getInstance("SHA-256");
-                    byte[] hashCalculado = digest.digest(mensagem.getBytes(StandardCharsets.UTF_8));
-                    String hashCalculadoBase64 = Base64.getEncoder().encodeToString(hashCalculado);
+            if (frame.getTipo() == Frame.CRIAR_GRUPO) { // Criação de um grupo: guarda os membros
+                addGroup(frame.getIdGrupo(), frame.getMembros().toArray(new String[0]));
+                //applyGroupDiffieHellman(grupoFlag, peers);
+                return;
+            }
+            if (frame.getTipo() != Frame.MENSAGEM && frame.getTipo() != Frame.LOTE) {
+                framesInvalidos.increment();
+                Logger.aviso("Tipo de frame desconhecido: " + frame.getTipo());
+                return;
+            }
 
-                    // Verifica a integridade comparando os hashes
-                    if (!hashRecebido.equals(hashCalculadoBase64)) {
-                        Logger.log("Falha na integridade da mensagem recebida!");
-                        continue;
-                    }
+            if (chavesSimetricas.get(idRemetente) == null) { // Verifica se NÃO tem uma chave simétrica guardada para este user
+                PublicKey chaveRemetente = chavesPublicasConhecidas.get(idRemetente);
+                if (chaveRemetente == null && resolverPeer(idRemetente) != null) { // Remetente desconhecido: procura-o na DHT
+                    chaveRemetente = chavesPublicasConhecidas.get(idRemetente);
+                }
+                acordarChaves(idRemetente, chaveRemetente, frame.getIdCorrelacao(), frame.getIdGrupo());
+            }
 
-                    // Exibe a mensagem recebida no console
-                    Logger.log("Mensagem recebida de " + idRemetente + ": " + mensagem);
+            // Descriptografa a mensagem utilizando a chave simétrica obtida
+            SecretKey chaveSimetrica = chavesSimetricas.get(idRemetente);
 
-                    // Armazena a mensagem recebida no objeto Peer para que possa ser acessada posteriormente
-                    armazenarMensagem(idRemetente, idRemetente, mensagem);
+            if (frame.getTipo() == Frame.LOTE) {
+                receberLote(frame, chaveSimetrica);
+                return;
+            }
 
-                    System.out.println("\nHash recebido (Base64): " + hashRecebido);
-                    System.out.println("\nHash calculado (Base64): " + hashCalculadoBase64);
+            if ((frame.getFlags() & Frame.FLAG_AEAD) != 0) {
+                // Cifra autenticada: a tag é verificada antes de qualquer texto ser devolvido, não há hash separado
+                String mensagem;
+                EventosMensagem.Decifra decifra = new EventosMensagem.Decifra();
+                decifra.begin();
+                byte[] dadosAssociados = frame.getOrigem() != null
+                        ? Frame.dadosAssociadosDifusao(frame.getIdGrupo(), idRemetente, frame.getOrigem(), frame.getIdMensagem(),
+                                frame.getFanout())
+                        : Frame.dadosAssociados(frame.getIdGrupo(), idRemetente);
+                try {
+                    mensagem = new String(decifrarAead(frame, chaveSimetrica, dadosAssociados), StandardCharsets.UTF_8);
+                } catch (AEADBadTagException e) {
+                    falhasIntegridade.increment();
+                    Logger.aviso("Falha na integridade da mensagem recebida de " + idRemetente);
+                    return;
+                } catch (IOException e) {
+                    framesInvalidos.increment();
+                    Logger.aviso("Mensagem comprimida inválida recebida de " + idRemetente + ": " + e.getMessage());
+                    return;
+                } finally {
+                    decifra.terminar(frame.getIdCorrelacao(), idPeer, idRemetente, frame.getIdGrupo(), frame.getPayload().length);
                 }
+                if (frame.getOrigem() != null) {
+                    receberDifusao(frame, mensagem);
+                    return;
+                }
+                Logger.debug(() -> "Mensagem recebida de " + idRemetente + ": " + mensagem);
+                armazenarMensagem(idRemetente, idRemetente, mensagem, frame.getIdCorrelacao(), frame.getPayload().length);
+                return;
+            }
 
+            if (frame.getOrigem() != null) { // Os campos da difusão só são aceites autenticados
+                framesInvalidos.increment();
+                Logger.aviso("Mensagem de grupo retransmitida sem cifra autenticada recebida de " + idRemetente);
+                return;
+            }
 
+            EventosMensagem.Decifra decifra = new EventosMensagem.Decifra();
+            decifra.begin();
+            long inicioDecifrar = System.nanoTime();
+            String mensagem = descriptografarMensagem(frame.getPayload(), chaveSimetrica);
+            long inicioVerificar = System.nanoTime();
+            latenciaDecifrar.registar(inicioVerificar - inicioDecifrar);
+
+            // Calcula o hash da mensagem descriptografada
+            byte[] hashCalculado = MotorCripto.sha256(mensagem.getBytes(StandardCharsets.UTF_8));
+
+            // Verifica a integridade comparando os hashes
+            boolean integra = frame.getHash() != null && MessageDigest.isEqual(frame.getHash(), hashCalculado);
+            latenciaVerificar.registar(System.nanoTime() - inicioVerificar);
+            decifra.terminar(frame.getIdCorrelacao(), idPeer, idRemetente, frame.getIdGrupo(), frame.getPayload().length);
+            if (!integra) {
+                falhasIntegridade.increment();
+                Logger.aviso("Falha na integridade da mensagem recebida de " + idRemetente);
+                return;
             }
+
+            // Exibe a mensagem recebida no log (só no nível DEBUG: é o texto em claro)
+            Logger.debug(() -> "Mensagem recebida de " + idRemetente + ": " + mensagem);
+
+            // Armazena a mensagem recebida no objeto Peer para que possa ser acessada posteriormente
+            armazenarMensagem(idRemetente, idRemetente, mensagem, frame.getIdCorrelacao(), frame.getPayload().length);
+
+            Logger.debug(() -> "Hash recebido (Base64): " + Base64.getEncoder().encodeToString(frame.getHash())
+                    + ", calculado: " + Base64.getEncoder().encodeToString(hashCalculado));
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    // Decifra um lote de mensagens privadas e armazena cada uma, pela ordem em que foram enviadas
+    private void receberLote(Frame frame, SecretKey chaveSimetrica) throws GeneralSecurityException {
+        String idRemetente = frame.getIdRemetente();
+        if ((frame.getFlags() & Frame.FLAG_AEAD) == 0) { // Um lote é sempre autenticado
+            framesInvalidos.increment();
+            Logger.aviso("Lote sem cifra autenticada recebido de " + idRemetente);
+            return;
+        }
+        List<LoteMensagens.Entrada> entradas;
+        EventosMensagem.Decifra decifra = new EventosMensagem.Decifra();
+        decifra.begin();
+        try {
+            entradas = LoteMensagens.descodificar(decifrarAead(frame, chaveSimetrica, Frame.dadosAssociadosLote(idRemetente)));
+        } catch (AEADBadTagException e) {
+            falhasIntegridade.increment();
+            Logger.aviso("Falha na integridade do lote recebido de " + idRemetente);
+            return;
+        } catch (IOException e) {
+            framesInvalidos.increment();
+            Logger.aviso("Lote inválido recebido de " + idRemetente + ": " + e.getMessage());
+            return;
+        } finally {
+            decifra.terminar(frame.getIdCorrelacao(), idPeer, idRemetente, "", frame.getPayload().length);
+        }
+        Logger.debug(() -> "Lote de " + entradas.size() + " mensagens recebido de " + idRemetente);
+        for (LoteMensagens.Entrada entrada : entradas) {
+            armazenarMensagem(idRemetente, idRemetente, entrada.mensagem(), entrada.idCorrelacao(), entrada.bytes().length);
+        }
+    }
+
+    // Armazena uma mensagem de grupo difundida pela árvore e retransmite-a aos filhos deste Peer
+    // O autor e quem enviou o frame têm de ser membros do grupo, que este Peer tem de conhecer
+    private void receberDifusao(Frame frame, String mensagem) {
+        String idGrupo = frame.getIdGrupo();
+        List<String> membros = mapGrupos.get(idGrupo);
+        if (membros == null || !membros.contains(frame.getOrigem()) || !membros.contains(frame.getIdRemetente())) {
+            framesInvalidos.increment();
+            Logger.aviso("Mensagem de grupo rejeitada: " + frame.getIdRemetente() + " ou o autor " + frame.getOrigem()
+                    + " não são membros do grupo " + idGrupo);
+            return;
+        }
+        if (!marcarVista(frame.getOrigem(), frame.getIdMensagem())) {
+            return; // Duplicado (por exemplo, recebido também de quem adotou esta subárvore)
+        }
+        Logger.debug(() -> "Mensagem recebida de " + frame.getOrigem() + " no grupo " + idGrupo + ": " + mensagem);
+        armazenarMensagem(idGrupo, frame.getOrigem(), mensagem, frame.getIdCorrelacao(), frame.getPayload().length);
+        // Um fanout maior do que o grupo dá a mesma árvore que o tamanho do grupo
+        int fanout = Math.min(frame.getFanout(), membros.size());
+        // A retransmissão espera pelos envios, por isso não é feita na thread de receção;
+        // a fila do grupo mantém a ordem pela qual as mensagens do grupo foram recebidas
+        filasDifusao.computeIfAbsent(idGrupo, k -> new FilaEnvio()).execute(() -> {
+            ResultadoEnvioGrupo resultado = difundir(idGrupo, frame.getOrigem(), frame.getIdMensagem(), fanout, mensagem,
+                    frame.getIdCorrelacao());
+            if (!resultado.getResultados().isEmpty()) {
+                Logger.debug(() -> "Retransmissão: " + resultado);
+            }
+        });
+    }
+
+    /**
+     * Obtém as capacidades que este Peer anuncia aos outros na negociação.
+     *
+     * @return Capacidades suportadas
+     */
+    @Override
+    public Set<String> getCapacidades() {
+        return Negociacao.capacidadesLocais();
+    }
+
     /**
      * Guarantees:
      *  - Garante que no fim vai haver uma chave simetrica guardada em chavesSimetricas para p Peer especificado.
+     * O acordo é feito no modo da chave pública do peer (X25519 ou Diffie-Hellman de 2048 bits),
+     * com o par de chaves deste Peer desse modo.
      * @param idPeer
      * @param chavePublicaPeer
      * @throws NoSuchAlgorithmException
      * @throws InvalidKeyException
      */
     public void applyDiffieHellman(String idPeer, PublicKey chavePublicaPeer) throws NoSuchAlgorithmException, InvalidKeyException {
-        // Inicializar o KeyAgreement com a nossa chave privada
-        KeyAgreement keyAgree = KeyAgreement.getInstance("DiffieHellman");
-        keyAgree.init(chavePrivada);
+        ModoChaves modo = ModoChaves.daChave(chavePublicaPeer);
 
-        // Executar a primeira fase do DH
-        keyAgree.doPhase(chavePublicaPeer, true);
-
-        // Gerar o shared secret
-        byte[] sharedSecret = keyAgree.generateSecret();
-
-        // Gerar uma chave a partir do DIffie-Hellman secret e guarda no Peer
-        SecretKeySpec aesKey = new SecretKeySpec(sharedSecret, 0, 16, "AES"); // Use 16 bytes for AES-128
+        // Acordo com a nossa chave privada do mesmo modo e derivação da chave AES, que fica guardada no Peer
+        long inicio = System.nanoTime();
+        SecretKeySpec aesKey = modo.acordar(parDeChaves(modo).getPrivate(), chavePublicaPeer);
         chavesSimetricas.put(idPeer, aesKey);
+        latenciaAcordo.registar(System.nanoTime() - inicio);
+        acordosChaves.increment();
     }
 
 
@@ -487,8 +1555,6 @@ public class Peer {
             // Perform the key agreement phase with the public keys of all peers
             for (int i = 0; i < publicKeysPeers.length; i++) {
                 PublicKey peerPublicKey = chavesPublicasConhecidas.get(publicKeysPeers[i]);
-                System.out.println("SIZE OF PEERS: " + publicKeysPeers.length);
-                System.out.println("FIRST ELEMENT: " + publicKeysPeers[0]);
 
                 if (!peerPublicKey.equals(chavePublica)) { // Exclude own key
                     boolean lastPhase = (i == publicKeysPeers.length - 1); // Set true for the last phase
@@ -502,10 +1568,7 @@ public class Peer {
             // Derive the AES key from the shared secret
             SecretKeySpec aesKey = new SecretKeySpec(sharedSecret, 0, 16, "AES"); // Use the first 128 bits as AES key
             chavesSimetricas.put(idGrupo, aesKey); // Store the symmetric key for this group
-            System.out.println("put " + idGrupo + " into the chavesSimetricas");
-    
-            System.out.println("Derived AES key for group " + idGrupo + ": " +
-                Base64.getEncoder().encodeToString(aesKey.getEncoded()));
+            Logger.debug(() -> "Chave AES derivada para o grupo " + idGrupo);
     
         } catch (Exception e) {
             e.printStackTrace();
@@ -533,6 +1596,27 @@ public class Peer {
         return chavePublica;
     }
 
+    /**
+     * Obtém a chave pública do Peer para um modo de acordo de chaves, por exemplo para a dar
+     * a um peer que só suporta Diffie-Hellman de 2048 bits.
+     *
+     * @param modo Modo de acordo de chaves
+     * @return Chave pública desse modo
+     * @throws NoSuchAlgorithmException Caso o algoritmo não seja suportado
+     */
+    public PublicKey getChavePublica(ModoChaves modo) throws NoSuchAlgorithmException {
+        return parDeChaves(modo).getPublic();
+    }
+
+    /**
+     * Obtém o modo preferido do acordo de chaves deste Peer.
+     *
+     * @return Modo de chaves
+     */
+    public ModoChaves getModoChaves() {
+        return modoChaves;
+    }
+
     /**
      * Obtém a chave privada do Peer.
      *
@@ -542,14 +1626,185 @@ public class Peer {
         return chavePrivada;
     }
 
+    /**
+     * Define o modelo de execução da rede. Deve ser chamado antes de {@link #iniciar()}.
+     *
+     * @param modoRede Modo de rede a usar
+     */
+    public void setModoRede(ModoRede modoRede) {
+        this.modoRede = modoRede;
+    }
+
+    /**
+     * Obtém o modelo de execução da rede.
+     *
+     * @return Modo de rede em uso
+     */
+    public ModoRede getModoRede() {
+        return modoRede;
+    }
+
+    /**
+     * Define os tempos máximos usados no envio para cada membro de um grupo.
+     *
+     * @param timeoutLigacaoMs Tempo máximo (ms) para estabelecer a ligação com um membro
+     * @param timeoutEscritaMs Tempo máximo (ms) para escrever a mensagem na ligação de um membro
+     */
+    public void setTimeoutsEnvio(int timeoutLigacaoMs, int timeoutEscritaMs) {
+        ligacoes.setTimeoutLigacaoMs(timeoutLigacaoMs);
+        this.timeoutEscritaMs = timeoutEscritaMs;
+    }
+
+    /**
+     * Define o número máximo de membros a quem cada membro envia uma mensagem de grupo.
+     * O valor segue com cada mensagem, para que todos os membros calculem a mesma árvore de difusão.
+     *
+     * @param fanoutGrupo Número de filhos de cada membro na árvore, ou 0 para o autor enviar a todos os membros
+     */
+    public void setFanoutGrupo(int fanoutGrupo) {
+        this.fanoutGrupo = fanoutGrupo;
+    }
+
+    public int getFanoutGrupo() {
+        return fanoutGrupo;
+    }
+
+    /**
+     * Liga ou desliga o envio das mensagens privadas em lotes. Com o envio em lotes, as mensagens para o mesmo
+     * destinatário que chegam dentro do tempo de espera são cifradas e escritas num único frame, com uma
+     * única cifra e um único flush; os destinatários que não suportam lotes recebem as mensagens uma a uma.
+     *
+     * @param esperaMs Tempo máximo (ms) que uma mensagem espera por outras, ou 0 para enviar cada mensagem de imediato
+     * @param maximoBytes Tamanho (bytes) a partir do qual o lote é enviado sem esperar
+     */
+    public void setLote(int esperaMs, int maximoBytes) {
+        this.esperaLoteMs = esperaMs;
+        this.maximoBytesLote = maximoBytes;
+    }
+
+    public int getEsperaLoteMs() {
+        return esperaLoteMs;
+    }
+
+    public int getMaximoBytesLote() {
+        return maximoBytesLote;
+    }
+
+    /**
+     * Define a etapa de compressão das mensagens antes da cifra (codec, tamanho mínimo e dicionários por
+     * conversa). Só se aplica aos peers que negociaram a compressão; as mensagens comprimidas recebidas são
+     * descomprimidas com esta etapa, que tem de conhecer os dicionários usados pelos remetentes.
+     *
+     * @param compressao Etapa de compressão
+     */
+    public void setCompressao(Compressao compressao) {
+        this.compressao = compressao;
+    }
+
+    public Compressao getCompressao() {
+        return compressao;
+    }
+
+    /**
+     * Obtém o número de mensagens enviadas por este Peer e armazenadas (privadas e de grupo).
+     *
+     * @return Mensagens enviadas
+     */
+    public long getMensagensEnviadas() {
+        return mensagensEnviadas.sum();
+    }
+
+    /**
+     * Obtém o número de mensagens recebidas de outros peers e armazenadas (privadas e de grupo).
+     *
+     * @return Mensagens recebidas
+     */
+    public long getMensagensRecebidas() {
+        return mensagensRecebidas.sum();
+    }
+
+    /**
+     * Obtém as métricas deste Peer (contadores, medidores e latências por etapa).
+     *
+     * @return Métricas
+     */
+    public Metricas getMetricas() {
+        return metricas;
+    }
+
+    /**
+     * Obtém o despachante das notificações aos ouvintes (por exemplo, para consultar os seus contadores).
+     *
+     * @return Despachante de eventos deste Peer
+     */
+    public DespachanteEventos getDespachanteEventos() {
+        return eventos;
+    }
+
+    // Espera pelas filas de envio e de retransmissão, no máximo o tempo de uma ligação, negociação e escrita
+    private void esperarEnvios() {
+        long prazo = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(
+                (long) ligacoes.getTimeoutLigacaoMs() + Negociacao.TIMEOUT_MS + timeoutEscritaMs);
+        int pendentes = 0;
+        try {
+            // As retransmissões primeiro: podem acrescentar envios às filas dos destinatários
+            for (FilaEnvio fila : filasDifusao.values()) {
+                pendentes += fila.esperar(prazo) ? 0 : 1;
+            }
+            for (FilaEnvio fila : filasEnvio.values()) {
+                pendentes += fila.esperar(prazo) ? 0 : 1;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (pendentes > 0) {
+            Logger.aviso(pendentes + " filas de envio não terminaram antes de o Peer parar; as mensagens nelas perdem-se");
+        }
+    }
+
+    // Obtém (ou cria) a fila de envio de um destinatário
+    private FilaEnvio filaEnvio(String idDestinatario) {
+        return filasEnvio.computeIfAbsent(idDestinatario, k -> new FilaEnvio());
+    }
+
     public void addGroup(String idGroup, String[] peers) {
-        mapGrupos.put(idGroup, Arrays.asList(peers));
+        if (mapGrupos.put(idGroup, List.of(peers)) == null) { // Lista imutável: pode ser lida por várias threads sem cópia
+            eventos.publicarGrupo(idGroup);
+        }
+    }
+
+    /**
+     * Obtém uma cópia dos IDs dos peers registados na DHT, que pode ser percorrida enquanto outros são registados.
+     *
+     * @return IDs dos peers conhecidos
+     */
+    public Set<String> getPeersConhecidos() {
+        return new HashSet<>(dht.keySet());
+    }
+
+    /**
+     * Obtém uma cópia dos IDs dos grupos a que este Peer pertence.
+     *
+     * @return IDs dos grupos
+     */
+    public Set<String> getGrupos() {
+        return new HashSet<>(mapGrupos.keySet());
+    }
+
+    /**
+     * Verifica se um ID corresponde a um grupo a que este Peer pertence.
+     *
+     * @param idGrupo ID a verificar
+     * @return true se for um grupo conhecido
+     */
+    public boolean isGrupo(String idGrupo) {
+        return mapGrupos.containsKey(idGrupo);
     }
 
     /**
      * Método main para inicializar e executar múltiplos Peers.
-     * Cada Peer é iniciado em uma porta diferente, suas chaves públicas são armazenadas entre eles,
-     * e GUIs são iniciadas para interação.
+     * Cada Peer é iniciado em uma porta diferente, os outros entram na rede DHT através do primeiro
+     * (que lhes dá a conhecer os endereços e as chaves públicas), e GUIs são iniciadas para interação.
      *
      * @param args Argumentos da linha de comando (não utilizados)
      */
@@ -567,27 +1822,31 @@ public class Peer {
             peer3.iniciar();
 
             System.out.println("\n--------------------Endereços--------------------");
-            // Armazenar as chaves públicas entre os Peers para permitir comunicação segura
-            peer1.armazenarChavePublica(peer2.getIdPeer(), peer2.getChavePublica());
-            peer1.armazenarChavePublica(peer3.getIdPeer(), peer3.getChavePublica());
-            peer2.armazenarChavePublica(peer1.getIdPeer(), peer1.getChavePublica());
-            peer2.armazenarChavePublica(peer3.getIdPeer(), peer3.getChavePublica());
-            peer3.armazenarChavePublica(peer1.getIdPeer(), peer1.getChavePublica());
-            peer3.armazenarChavePublica(peer2.getIdPeer(), peer2.getChavePublica());
-
-            // Registrar os Peers na DHT de cada um para que saibam os endereços uns dos outros
-            peer1.registrarPeer(peer2.getIdPeer(), new InetSocketAddress("localhost", 8082));
-            peer1.registrarPeer(peer3.getIdPeer(), new InetSocketAddress("localhost", 8083));
-            peer2.registrarPeer(peer1.getIdPeer(), new InetSocketAddress("localhost", 8081));
-            peer2.registrarPeer(peer3.getIdPeer(), new InetSocketAddress("localhost", 8083));
-            peer3.registrarPeer(peer1.getIdPeer(), new InetSocketAddress("localhost", 8081));
-            peer3.registrarPeer(peer2.getIdPeer(), new InetSocketAddress("localhost", 8082));
+            // peer2 e peer3 entram na rede DHT através de peer1: os endereços e as chaves públicas
+            // são encontrados pela DHT, sem registar cada Peer em todos os outros
+            InetSocketAddress entrada = new InetSocketAddress("localhost", 8081);
+            if (!peer2.juntarRede(entrada) || !peer3.juntarRede(entrada)) {
+                // DHT desligada (-Dp2p.dht=off): regista as chaves e os endereços de todos em todos
+                peer1.armazenarChavePublica(peer2.getIdPeer(), peer2.getChavePublica());
+                peer1.armazenarChavePublica(peer3.getIdPeer(), peer3.getChavePublica());
+                peer2.armazenarChavePublica(peer1.getIdPeer(), peer1.getChavePublica());
+                peer2.armazenarChavePublica(peer3.getIdPeer(), peer3.getChavePublica());
+                peer3.armazenarChavePublica(peer1.getIdPeer(), peer1.getChavePublica());
+                peer3.armazenarChavePublica(peer2.getIdPeer(), peer2.getChavePublica());
+
+                peer1.registrarPeer(peer2.getIdPeer(), new InetSocketAddress("localhost", 8082));
+                peer1.registrarPeer(peer3.getIdPeer(), new InetSocketAddress("localhost", 8083));
+                peer2.registrarPeer(peer1.getIdPeer(), new InetSocketAddress("localhost", 8081));
+                peer2.registrarPeer(peer3.getIdPeer(), new InetSocketAddress("localhost", 8083));
+                peer3.registrarPeer(peer1.getIdPeer(), new InetSocketAddress("localhost", 8081));
+                peer3.registrarPeer(peer2.getIdPeer(), new InetSocketAddress("localhost", 8082));
+            }
             System.out.println("\n");
 
             // Iniciar a GUI para peer1
             SwingUtilities.invokeLater(() -> {
                 try {
-                    PeerGUI gui = new PeerGUI(peer1); // Cria a interface gráfica para peer1
+                    PeerGUI gui = PeerGUI.criar(peer1); // Cria a interface gráfica para peer1
                     gui.setVisible(true); // Torna a GUI visível
                 } catch (Exception e) {
                     e.printStackTrace();
@@ -597,7 +1856,7 @@ public class Peer {
             // Iniciar a GUI para peer2
             SwingUtilities.invokeLater(() -> {
                 try {
-                    PeerGUI gui = new PeerGUI(peer2); // Cria a interface gráfica para peer2
+                    PeerGUI gui = PeerGUI.criar(peer2); // Cria a interface gráfica para peer2
                     gui.setVisible(true); // Torna a GUI visível
                 } catch (Exception e) {
                     e.printStackTrace();
@@ -607,7 +1866,7 @@ public class Peer {
             // Iniciar a GUI para peer3
             SwingUtilities.invokeLater(() -> {
                 try {
-                    PeerGUI gui = new PeerGUI(peer3); // Cria a interface gráfica para peer3
+                    PeerGUI gui = PeerGUI.criar(peer3); // Cria a interface gráfica para peer3
                     gui.setVisible(true); // Torna a GUI visível
                 } catch (Exception e) {
                     e.printStackTrace();
@@ -0,0 +1,172 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Classe PeerDaemon que arranca um Peer sem interface gráfica, configurado pela linha de comandos
+ * ou por um ficheiro de propriedades (os argumentos da linha de comandos têm prioridade).
+ * Os comandos lidos da entrada padrão permitem enviar mensagens; se a entrada fechar (por exemplo,
+ * quando corre como serviço), o Peer continua ativo até o processo terminar.
+ *
+ * Uso: java -cp target/classes PeerDaemon --porta 8081 --id peer1 [--bootstrap host:porta,...]
+ *      [--chaves ficheiro] [--mensagens diretorio] [--config ficheiro.properties]
+ *
+ * As chaves do ficheiro de configuração são porta, id, bootstrap, chaves e mensagens.
+ */
+public class PeerDaemon {
+    private static final String USO = """
+            Uso: PeerDaemon --porta <porta> --id <id> [--bootstrap host:porta,...] [--chaves ficheiro]
+                            [--mensagens diretorio] [--config ficheiro.properties]
+            Comandos: enviar <id> <texto> | grupo <id> <membro,...> | enviar-grupo <id> <texto> | peers | metricas | sair""";
+
+    public static void main(String[] args) {
+        Properties config;
+        try {
+            config = lerConfiguracao(args);
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USO);
+            System.exit(2);
+            return;
+        }
+
+        String id = config.getProperty("id");
+        String porta = config.getProperty("porta");
+        if (id == null || porta == null) {
+            System.err.println("É preciso indicar a porta e o ID do Peer");
+            System.err.println(USO);
+            System.exit(2);
+            return;
+        }
+
+        try {
+            // O diretório das mensagens tem de estar definido antes de o Peer abrir o seu log
+            if (config.getProperty("mensagens") != null) {
+                System.setProperty(LogMensagens.PROPRIEDADE, config.getProperty("mensagens"));
+            }
+
+            Peer peer;
+            if (config.getProperty("chaves") != null) {
+                KeyPair par = ArmazemChaves.carregarOuGerar(Paths.get(config.getProperty("chaves")), ModoChaves.doSistema());
+                peer = new Peer(Integer.parseInt(porta), id, par);
+            } else {
+                peer = new Peer(Integer.parseInt(porta), id);
+            }
+            peer.iniciar();
+            Runtime.getRuntime().addShutdownHook(new Thread(peer::parar, "parar-peer"));
+
+            List<InetSocketAddress> bootstrap = enderecos(config.getProperty("bootstrap", ""));
+            if (!bootstrap.isEmpty() && !peer.juntarRede(bootstrap.toArray(new InetSocketAddress[0]))) {
+                System.err.println("Não foi possível entrar na rede através de " + bootstrap);
+            }
+            System.out.println("Peer " + id + " ativo na porta " + porta);
+
+            // Mostra a última mensagem de cada conversa alterada (as notificações são agrupadas por conversa)
+            peer.addListener((conversa, mensagem) -> System.out.println("[" + conversa + "] " + mensagem));
+
+            consola(peer);
+            Thread.currentThread().join(); // Entrada fechada: continua a servir os outros peers
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    // Junta o ficheiro de configuração (se houver) com os argumentos, que se sobrepõem a ele
+    private static Properties lerConfiguracao(String[] args) throws IOException {
+        Properties argumentos = new Properties();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Argumento inválido: " + args[i]);
+            }
+            argumentos.setProperty(args[i].substring(2), args[++i]);
+        }
+
+        Properties config = new Properties();
+        String ficheiro = argumentos.getProperty("config");
+        if (ficheiro != null) {
+            try (Reader in = Files.newBufferedReader(Paths.get(ficheiro), StandardCharsets.UTF_8)) {
+                config.load(in);
+            }
+        }
+        config.putAll(argumentos);
+        return config;
+    }
+
+    // Converte "host:porta,host:porta" numa lista de endereços
+    private static List<InetSocketAddress> enderecos(String lista) {
+        List<InetSocketAddress> enderecos = new ArrayList<>();
+        for (String endereco : lista.split(",")) {
+            endereco = endereco.trim();
+            if (endereco.isEmpty()) {
+                continue;
+            }
+            int separador = endereco.lastIndexOf(':');
+            if (separador <= 0) {
+                throw new IllegalArgumentException("Endereço de bootstrap inválido: " + endereco);
+            }
+            enderecos.add(new InetSocketAddress(endereco.substring(0, separador),
+                    Integer.parseInt(endereco.substring(separador + 1))));
+        }
+        return enderecos;
+    }
+
+    // Lê comandos da entrada padrão até ela fechar ou até ao comando "sair"
+    private static void consola(Peer peer) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String linha;
+        while ((linha = in.readLine()) != null) {
+            String[] partes = linha.trim().split("\\s+", 3);
+            try {
+                switch (partes[0]) {
+                    case "" -> { }
+                    case "enviar" -> peer.enviarMensagem(argumento(partes, 1), argumento(partes, 2));
+                    case "grupo" -> {
+                        // Os membros são separados por vírgulas; o próprio Peer faz sempre parte do grupo
+                        List<String> membros = new ArrayList<>(List.of(argumento(partes, 2).split(",")));
+                        if (!membros.contains(peer.getIdPeer())) {
+                            membros.add(peer.getIdPeer());
+                        }
+                        peer.enviarMensagemGrupo(argumento(partes, 1), String.join("|", membros));
+                    }
+                    case "enviar-grupo" -> {
+                        if (!peer.isGrupo(argumento(partes, 1))) {
+                            throw new IllegalArgumentException("Grupo desconhecido: " + partes[1]);
+                        }
+                        peer.enviarMensagemGrupo(partes[1], argumento(partes, 2));
+                    }
+                    case "peers" -> System.out.println("Peers: " + peer.getPeersConhecidos() + " Grupos: " + peer.getGrupos());
+                    case "metricas" -> {
+                        StringBuilder metricas = new StringBuilder();
+                        peer.getMetricas().exportar(metricas);
+                        System.out.print(metricas);
+                    }
+                    case "sair" -> System.exit(0); // O hook de encerramento para o Peer
+                    default -> System.out.println(USO);
+                }
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static String argumento(String[] partes, int indice) {
+        if (partes.length <= indice) {
+            throw new IllegalArgumentException("Faltam argumentos: " + String.join(" ", partes));
+        }
+        return partes[indice];
+    }
+}
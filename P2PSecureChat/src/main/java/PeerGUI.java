@@ -1,9 +1,22 @@
 import java.awt.BorderLayout; // Importa componentes da biblioteca Swing para criar a GUI
+import java.awt.Component;
 import java.awt.GridLayout; // Importa a borda vazia
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List; // Importa classes de layout e componentes gráficos
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.BorderFactory; // Importa classes para tratamento de eventos
+import javax.swing.DefaultComboBoxModel;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.JScrollBar;
+import javax.swing.ScrollPaneConstants;
 import javax.swing.DefaultListModel; // Importa a classe List do Java
 import javax.swing.JButton;
 import javax.swing.JComboBox;
@@ -12,18 +25,20 @@ import javax.swing.JList;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
-import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.SwingUtilities;
-import javax.swing.Timer;
 import javax.swing.border.EmptyBorder;
 import java.awt.Dimension;
 
 // Classe que representa a interface gráfica do usuário para o Peer
+@SuppressWarnings("serial") // A janela (e o seu renderizador) nunca é serializada
 public class PeerGUI extends JFrame implements PeerGUIListener {
     private Peer peer; // Referência ao objeto Peer, que contém a lógica do aplicativo
-    private JTextArea textAreaConversa; // Área de texto para exibir mensagens da conversa
+    private JList<RegistoMensagem> listaMensagens; // Lista virtualizada com as mensagens da conversa (só desenha as linhas visíveis)
+    private ModeloMensagens modeloMensagens; // Mensagens carregadas da conversa exibida
+    private JScrollPane scrollMensagens; // Rolagem da lista de mensagens
     private JComboBox<String> comboBoxDestinatario; // ComboBox para selecionar o destinatário
+    private DefaultComboBoxModel<String> modeloDestinatarios; // Modelo do ComboBox de destinatários
     private JList<String> peerList; //JList para criar grupos
     private DefaultListModel<String> listModel;
     private JTextField textFieldMensagem; // Campo de texto para digitar a mensagem
@@ -31,13 +46,45 @@ public class PeerGUI extends JFrame implements PeerGUIListener {
     private DefaultListModel<String> listModelConversas; // Modelo da lista para gerenciar as conversas
     private JList<String> listConversas; // Lista que exibe as conversas disponíveis
 
+    // Número de mensagens mais recentes carregadas ao abrir uma conversa, e de cada página antiga carregada ao subir
+    private static final int JANELA_MENSAGENS = 200;
+
+    // Número de linhas a partir do topo em que a página anterior começa a ser carregada
+    private static final int LIMIAR_CARREGAR_ANTIGAS = 20;
+
+    // Número máximo de mensagens carregadas; acima disto, e com a vista no fim, as mais antigas são descartadas
+    private static final int MAXIMO_CARREGADAS = 5000;
+
+    // Conversa exibida (apenas acedida na thread da GUI)
+    private String conversaExibida;
+
+    // Indica que já há uma atualização agendada na thread da GUI, que vai ler o estado mais recente
+    private final AtomicBoolean atualizacaoAgendada = new AtomicBoolean();
+
+    // Conversas com mensagens novas ainda não tratadas pela atualização agendada
+    private final Set<String> conversasAlteradas = ConcurrentHashMap.newKeySet();
+
+    // IDs já presentes nas listas (apenas acedidos na thread da GUI): as listas só recebem as diferenças
+    private final Set<String> destinatariosListados = new HashSet<>();
+    private final Set<String> conversasListadas = new HashSet<>();
+
+    // Notificações descartadas pelo despachante até à última atualização (se aumentar, a lista de conversas é relida)
+    private long descartadosVistos;
+
     // Construtor da classe PeerGUI
-    public PeerGUI(Peer peer) {
+    private PeerGUI(Peer peer) {
         this.peer = peer; // Inicializa a referência ao objeto Peer
-        this.peer.addListener(this); // Adiciona esta GUI como um ouvinte para eventos de mensagens
         initialize(); // Chama o método para inicializar a interface
     }
 
+    // Cria a interface gráfica de um Peer; só depois de construída passa a receber os eventos de mensagens,
+    // que chegam de outras threads e não podem encontrar a janela a meio da construção
+    public static PeerGUI criar(Peer peer) {
+        PeerGUI gui = new PeerGUI(peer);
+        peer.addListener(gui); // Adiciona esta GUI como um ouvinte para eventos de mensagens
+        return gui;
+    }
+
     // Método para inicializar a interface gráfica
     private void initialize() {
         // Configurações da janela principal
@@ -71,7 +118,8 @@ public class PeerGUI extends JFrame implements PeerGUIListener {
         panelBot.add(textFieldGroup, BorderLayout.CENTER); // Adiciona o campo ao painel superior
         
         // ComboBox para selecionar o destinatário
-        comboBoxDestinatario = new JComboBox<>(); // Inicializa o ComboBox
+        modeloDestinatarios = new DefaultComboBoxModel<>();
+        comboBoxDestinatario = new JComboBox<>(modeloDestinatarios); // Inicializa o ComboBox
         atualizarDestinatarios(); // Atualiza a lista de destinatários disponíveis
         panelTopo.add(comboBoxDestinatario, BorderLayout.WEST); // Adiciona o ComboBox ao painel superior
 
@@ -98,12 +146,18 @@ public class PeerGUI extends JFrame implements PeerGUIListener {
         scrollConversas.setBorder(BorderFactory.createTitledBorder("Conversas")); // Define título para a lista
         panelCentro.add(scrollConversas); // Adiciona a lista ao painel central
 
-        // Área de texto para exibir mensagens
-        textAreaConversa = new JTextArea(); // Inicializa a área de texto
-        textAreaConversa.setEditable(false); // Define a área como não editável
-        JScrollPane scrollArea = new JScrollPane(textAreaConversa); // Adiciona rolagem à área de texto
-        scrollArea.setBorder(BorderFactory.createTitledBorder("Mensagens")); // Define título para a área de texto
-        panelCentro.add(scrollArea); // Adiciona a área de texto ao painel central
+        // Lista para exibir mensagens: todas as linhas têm a mesma altura, pelo que a JList não mede
+        // as mensagens que não estão visíveis
+        modeloMensagens = new ModeloMensagens();
+        listaMensagens = new JList<>(modeloMensagens);
+        listaMensagens.setCellRenderer(new RenderizadorMensagem());
+        listaMensagens.setPrototypeCellValue(new RegistoMensagem(0, 0, "Remetente", "Mensagem"));
+        listaMensagens.setFixedCellWidth(1); // Largura da lista = largura visível (as linhas ocupam-na toda)
+        scrollMensagens = new JScrollPane(listaMensagens); // Adiciona rolagem à lista de mensagens
+        scrollMensagens.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
+        scrollMensagens.setBorder(BorderFactory.createTitledBorder("Mensagens")); // Define título para a lista
+        scrollMensagens.getVerticalScrollBar().addAdjustmentListener(e -> carregarMensagensAntigas());
+        panelCentro.add(scrollMensagens); // Adiciona a lista de mensagens ao painel central
 
         // Atualiza a lista de conversas ao iniciar
         atualizarListaConversas();
@@ -130,44 +184,70 @@ public class PeerGUI extends JFrame implements PeerGUIListener {
                 e1.printStackTrace();
             }
         }); // Ação ao clicar no botão de enviar
-
-        // Atualiza periodicamente a lista de destinatários a cada 5 segundos
-        Timer timer = new Timer(5000, e -> atualizarDestinatarios());
-        timer.start(); // Inicia o timer
+        // Os peers, grupos e conversas novos chegam depois pelos eventos do Peer (não há releitura periódica)
     }
 
-    // Método para atualizar a lista de destinatários disponíveis
+    // Método para carregar a lista de destinatários disponíveis ao abrir a janela
     private void atualizarDestinatarios() {
         SwingUtilities.invokeLater(() -> { // Garante que a atualização ocorra na thread da GUI
-            comboBoxDestinatario.removeAllItems(); // Remove todos os itens atuais
-            listModel.clear();
-            // Adiciona todos os peers conhecidos, exceto a si mesmo
-            for (String idPeer : peer.dht.keySet()) {
-                if (!idPeer.equals(peer.getIdPeer())) {
-                    comboBoxDestinatario.addItem(idPeer); // Adiciona o peer ao ComboBox  
-                    listModel.addElement(idPeer);
-                }
-            }
-            for(String idGroup : peer.mapGrupos.keySet()) {
-                comboBoxDestinatario.addItem(idGroup); // Adiciona o ID da conversa
-            }
+            adicionarPeers(peer.getPeersConhecidos());
+            adicionarGrupos(peer.getGrupos());
         });
     }
 
-    // Método para atualizar a lista de conversas
+    // Método para carregar a lista de conversas (ao abrir a janela, ou se o despachante descartou notificações)
     private void atualizarListaConversas() {
         SwingUtilities.invokeLater(() -> { // Garante que a atualização ocorra na thread da GUI
-            listModelConversas.clear(); // Limpa a lista de conversas
-            // Adiciona todos os IDs de conversa ao modelo
-            for (String id : peer.conversas.keySet()) {
-                for(String idGroup : peer.mapGrupos.keySet()) {
-                    listModelConversas.addElement(idGroup); // Adiciona o ID da conversa
-                }
-                listModelConversas.addElement(id); // Adiciona o ID da conversa
-            }
+            adicionarConversas(peer.getGrupos());
+            adicionarConversas(peer.getConversas());
         });
     }
 
+    // Acrescenta às listas os peers que ainda não estão nelas, exceto o próprio (chamado na thread da GUI)
+    private void adicionarPeers(Collection<String> idsPeers) {
+        List<String> novos = new ArrayList<>();
+        for (String idPeer : idsPeers) {
+            if (!idPeer.equals(peer.getIdPeer()) && destinatariosListados.add(idPeer)) {
+                novos.add(idPeer);
+            }
+        }
+        listModel.addAll(novos); // Um único evento da lista para todos os peers novos
+        adicionarDestinatarios(novos);
+    }
+
+    // Acrescenta os grupos novos aos destinatários e às conversas (chamado na thread da GUI)
+    private void adicionarGrupos(Collection<String> idsGrupos) {
+        List<String> novos = new ArrayList<>();
+        for (String idGrupo : idsGrupos) {
+            if (destinatariosListados.add(idGrupo)) {
+                novos.add(idGrupo);
+            }
+        }
+        adicionarDestinatarios(novos);
+        adicionarConversas(novos);
+    }
+
+    private void adicionarDestinatarios(List<String> novos) {
+        if (novos.isEmpty()) {
+            return;
+        }
+        modeloDestinatarios.addAll(novos);
+        if (modeloDestinatarios.getSelectedItem() == null) {
+            modeloDestinatarios.setSelectedItem(modeloDestinatarios.getElementAt(0));
+        }
+    }
+
+    // Acrescenta à lista as conversas que ainda não estão nela (chamado na thread da GUI)
+    private void adicionarConversas(Collection<String> idsConversas) {
+        List<String> novas = new ArrayList<>();
+        for (String id : idsConversas) {
+            if (conversasListadas.add(id)) {
+                novas.add(id);
+            }
+        }
+        listModelConversas.addAll(novas);
+    }
+
     // Método para enviar mensagem
     private void enviarMensagem() throws GeneralSecurityException {
         // Obtém o destinatário selecionado e a mensagem a ser enviada
@@ -187,7 +267,7 @@ public class PeerGUI extends JFrame implements PeerGUIListener {
         }
 
         // Envia a mensagem através do peer
-        if(peer.mapGrupos.containsKey(destinatario)) { // se o destinatario for um grupo
+        if(peer.isGrupo(destinatario)) { // se o destinatario for um grupo
             peer.enviarMensagemGrupo(destinatario, mensagem);
         }
         else {
@@ -195,8 +275,8 @@ public class PeerGUI extends JFrame implements PeerGUIListener {
         }
         textFieldMensagem.setText(""); // Limpa o campo de texto após enviar
 
-        // Atualiza a lista de conversas
-        atualizarListaConversas();
+        // Acrescenta a conversa à lista, se for a primeira mensagem
+        adicionarConversas(List.of(destinatario));
         exibirMensagens(destinatario); // Exibe as mensagens enviadas
     }
 
@@ -224,8 +304,7 @@ public class PeerGUI extends JFrame implements PeerGUIListener {
         selectedPeers.add(peer.getIdPeer()); // Adicionamos o proprio ID para fazer parte do grupo
         peer.enviarMensagemGrupo(nomeGrupo, String.join("|", selectedPeers));
         textFieldGroup.setText("Nome do Grupo"); // Limpa o campo de texto após enviar
-        // Atualiza a lista de conversas
-        atualizarListaConversas();
+        // O novo grupo chega às listas pelo evento de grupo do Peer
     }
 
     // Método para exibir conversas selecionadas
@@ -236,38 +315,119 @@ public class PeerGUI extends JFrame implements PeerGUIListener {
         }
     }
 
-    // Método para exibir mensagens de uma conversa
+    // Método para exibir mensagens de uma conversa: apenas as últimas JANELA_MENSAGENS são lidas do histórico
     private void exibirMensagens(String idPeer) {
-    List<String> mensagens = peer.getMensagens(idPeer); // Obtém mensagens da conversa
-    StringBuilder sb = new StringBuilder(); // Cria um StringBuilder para compor as mensagens
-    String meuId = peer.getIdPeer(); // Obtém o ID do próprio peer para verificar autor da mensagem
-    
-        for (int i = 0; i < mensagens.size(); i += 2) {
-        String remetente = mensagens.get(i);
-        String conteudo = mensagens.get(i + 1);
-        
-        if (remetente.equals(meuId)) {
-            sb.append(" ".repeat(40)); // Adiciona espaço para alinhamento à direita
-            sb.append("Eu: ").append(conteudo).append("\n"); // Exibe a mensagem com rótulo "Eu"
-        } else {
-            sb.append(remetente).append(": ").append(conteudo).append("\n"); // Alinhamento padrão para mensagens recebidas
+        conversaExibida = idPeer;
+        modeloMensagens.carregar(peer.getUltimasMensagens(idPeer, JANELA_MENSAGENS)); // Obtém mensagens da conversa
+        irParaFim();
+    }
+
+    // Acrescenta as mensagens da conversa exibida posteriores à última carregada, uma linha de cada vez (chamado na thread da GUI)
+    private void acrescentarNovasMensagens() {
+        if (conversaExibida == null) {
+            return;
+        }
+        boolean noFim = estaNoFim(); // Só acompanha as novas mensagens se o utilizador não tiver subido
+        List<RegistoMensagem> novas = peer.getMensagensDepois(conversaExibida, modeloMensagens.getUltimaSequencia(), JANELA_MENSAGENS);
+        if (novas.size() == JANELA_MENSAGENS && noFim) {
+            exibirMensagens(conversaExibida); // Chegaram muitas de uma vez: passa a mostrar apenas a janela mais recente
+            return;
+        }
+        for (RegistoMensagem registo : novas) {
+            modeloMensagens.acrescentar(registo);
+        }
+        if (noFim && !novas.isEmpty()) {
+            modeloMensagens.descartarAntigas(MAXIMO_CARREGADAS); // Limita a memória de uma conversa muito ativa
+            irParaFim();
+        }
+    }
+
+    // Carrega a página anterior do histórico quando o utilizador se aproxima do topo (chamado na thread da GUI)
+    private void carregarMensagensAntigas() {
+        if (conversaExibida == null || modeloMensagens.getPrimeiraSequencia() <= 0
+                || listaMensagens.getFirstVisibleIndex() > LIMIAR_CARREGAR_ANTIGAS) {
+            return;
+        }
+        List<RegistoMensagem> antigas = peer.getMensagensAntes(conversaExibida, modeloMensagens.getPrimeiraSequencia(), JANELA_MENSAGENS);
+        if (antigas.isEmpty()) {
+            return;
+        }
+        // Mantém as mesmas mensagens à vista: desce a posição a altura das linhas acrescentadas por cima
+        JScrollBar barra = scrollMensagens.getVerticalScrollBar();
+        int posicao = barra.getValue();
+        modeloMensagens.juntarNoInicio(antigas);
+        scrollMensagens.validate();
+        barra.setValue(posicao + antigas.size() * listaMensagens.getFixedCellHeight());
+    }
+
+    // Indica se a última mensagem está visível
+    private boolean estaNoFim() {
+        int ultima = modeloMensagens.getSize() - 1;
+        return ultima < 0 || listaMensagens.getLastVisibleIndex() >= ultima - 1 || listaMensagens.getLastVisibleIndex() < 0;
+    }
+
+    private void irParaFim() {
+        int ultima = modeloMensagens.getSize() - 1;
+        if (ultima >= 0) {
+            scrollMensagens.validate();
+            listaMensagens.ensureIndexIsVisible(ultima);
+        }
+    }
+
+    // Desenha cada mensagem numa linha: as do próprio utilizador alinhadas à direita, com o rótulo "Eu"
+    private class RenderizadorMensagem extends DefaultListCellRenderer {
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+            RegistoMensagem registo = (RegistoMensagem) value;
+            boolean propria = registo.remetente().equals(peer.getIdPeer()); // Verifica o autor da mensagem
+            String texto = (propria ? "Eu" : registo.remetente()) + ": " + registo.mensagem();
+            super.getListCellRendererComponent(list, texto, index, isSelected, cellHasFocus);
+            setHorizontalAlignment(propria ? RIGHT : LEFT);
+            setToolTipText(registo.mensagem().length() > 60 ? registo.mensagem() : null); // Texto completo das mensagens longas
+            return this;
         }
     }
-    
-    textAreaConversa.setText(sb.toString()); // Atualiza a área de texto com as mensagens formatadas
-}
 
 
     // Método chamado quando uma nova mensagem é recebida
     @Override
     public void onNewMessage(String idDestinatario, String mensagem) {
-        // Atualiza a lista de conversas
-        atualizarListaConversas();
+        onNewMessages(Map.of(idDestinatario, mensagem));
+    }
 
-        // Se a conversa atual for a mesma, atualiza a área de mensagens
-        String selecionado = listConversas.getSelectedValue();
-        if (selecionado != null && selecionado.equals(idDestinatario)) {
-            exibirMensagens(idDestinatario); // Exibe as mensagens da conversa atualizada
+    // Método chamado com um lote de novas mensagens (no máximo uma vez por intervalo do despachante de eventos)
+    @Override
+    public void onNewMessages(Map<String, String> ultimasMensagens) {
+        conversasAlteradas.addAll(ultimasMensagens.keySet());
+        // Se a thread da GUI ainda não fez a atualização anterior, esta junta-se a ela: a GUI nunca acumula trabalho
+        if (atualizacaoAgendada.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(() -> {
+                atualizacaoAgendada.set(false);
+                List<String> alteradas = new ArrayList<>();
+                for (Iterator<String> it = conversasAlteradas.iterator(); it.hasNext(); ) {
+                    alteradas.add(it.next());
+                    it.remove();
+                }
+                adicionarConversas(alteradas);
+                long descartados = peer.getDespachanteEventos().getDescartados();
+                if (descartados != descartadosVistos) { // Perderam-se notificações: relê a lista de conversas
+                    descartadosVistos = descartados;
+                    atualizarListaConversas();
+                }
+                acrescentarNovasMensagens();
+            });
         }
     }
+
+    // Método chamado quando são registados novos peers
+    @Override
+    public void onPeersAdded(Set<String> idsPeers) {
+        SwingUtilities.invokeLater(() -> adicionarPeers(idsPeers));
+    }
+
+    // Método chamado quando este peer entra em novos grupos
+    @Override
+    public void onGroupsAdded(Set<String> idsGrupos) {
+        SwingUtilities.invokeLater(() -> adicionarGrupos(idsGrupos));
+    }
 }
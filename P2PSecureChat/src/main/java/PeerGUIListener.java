@@ -1,9 +1,13 @@
+import java.util.Map;
+import java.util.Set;
+
 /**
  * Interface PeerGUIListener.
  * Esta interface é utilizada para notificar mudanças no estado de mensagens
  * entre a lógica de backend e a interface gráfica do usuário (GUI) de um peer.
  * Classes que implementam esta interface podem ser notificadas quando
- * novas mensagens são recebidas.
+ * novas mensagens são recebidas, e quando surgem novos peers ou grupos.
+ * As notificações são entregues pelo {@link DespachanteEventos}, numa thread própria (não na thread da GUI).
  */
 public interface PeerGUIListener {
     /**
@@ -13,4 +17,35 @@ public interface PeerGUIListener {
      * @param mensagem       A mensagem recebida.
      */
     void onNewMessage(String idDestinatario, String mensagem);
+
+    /**
+     * Método chamado com um lote de notificações, no máximo uma vez por intervalo do despachante.
+     * Cada conversa aparece uma única vez, com a última mensagem recebida desde o lote anterior.
+     * Por omissão chama {@link #onNewMessage(String, String)} para cada conversa.
+     *
+     * @param ultimasMensagens ID da conversa -> última mensagem
+     */
+    default void onNewMessages(Map<String, String> ultimasMensagens) {
+        for (Map.Entry<String, String> entrada : ultimasMensagens.entrySet()) {
+            onNewMessage(entrada.getKey(), entrada.getValue());
+        }
+    }
+
+    /**
+     * Método chamado quando são registados peers que ainda não estavam na DHT.
+     * Contém apenas os peers novos desde a notificação anterior. Por omissão não faz nada.
+     *
+     * @param idsPeers IDs dos novos peers
+     */
+    default void onPeersAdded(Set<String> idsPeers) {
+    }
+
+    /**
+     * Método chamado quando este peer passa a pertencer a novos grupos.
+     * Contém apenas os grupos novos desde a notificação anterior. Por omissão não faz nada.
+     *
+     * @param idsGrupos IDs dos novos grupos
+     */
+    default void onGroupsAdded(Set<String> idsGrupos) {
+    }
 }
@@ -0,0 +1,237 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Classe ProtocoloBinario que codifica e descodifica frames no formato binário versionado.
+ *
+ * Formato (inteiros em big-endian):
+ * <pre>
+ *   magic (1 byte, 0xB1) | versão (1) | tipo (1) | flags (1) | comprimento dos campos (4) | campos
+ *   campo: tag (1) | comprimento (4) | valor
+ * </pre>
+ * O byte 0xB1 nunca inicia uma linha UTF-8 válida, o que permite distinguir um frame binário
+ * de uma linha do formato de texto antigo na mesma ligação. Campos com tags desconhecidas são
+ * ignorados, para que versões futuras possam acrescentar campos sem quebrar peers existentes.
+ */
+public final class ProtocoloBinario {
+    public static final int MAGIC = 0xB1;
+    public static final byte VERSAO = 1;
+
+    // Tamanho do cabeçalho fixo (magic, versão, tipo, flags, comprimento)
+    public static final int TAMANHO_CABECALHO = 8;
+
+    // Tamanho máximo dos campos de um frame
+    public static final int TAMANHO_MAXIMO = 16 * 1024 * 1024;
+
+    // Tags dos campos
+    static final byte CAMPO_GRUPO = 1;
+    static final byte CAMPO_REMETENTE = 2;
+    static final byte CAMPO_PAYLOAD = 3;
+    static final byte CAMPO_HASH = 4;
+    static final byte CAMPO_MEMBRO = 5; // Repetido uma vez por membro
+    static final byte CAMPO_ORIGEM = 6; // Autor de uma mensagem de grupo retransmitida
+    static final byte CAMPO_ID_MENSAGEM = 7; // ID (8 bytes) da mensagem de grupo retransmitida
+    static final byte CAMPO_FANOUT = 8; // Fanout (4 bytes) da árvore de difusão da mensagem retransmitida
+    static final byte CAMPO_CORRELACAO = 9; // ID de correlação (8 bytes) dos eventos JFR; ignorado por peers antigos
+
+    private ProtocoloBinario() {
+    }
+
+    /**
+     * Codifica um frame no formato binário.
+     *
+     * @param frame Frame a codificar
+     * @return Bytes do frame, incluindo o cabeçalho
+     */
+    public static byte[] codificar(Frame frame) {
+        ByteArrayOutputStream campos = new ByteArrayOutputStream(frame.getPayload().length + 96);
+        escreverCampo(campos, CAMPO_GRUPO, frame.getIdGrupo().getBytes(StandardCharsets.UTF_8));
+        escreverCampo(campos, CAMPO_REMETENTE, frame.getIdRemetente().getBytes(StandardCharsets.UTF_8));
+        escreverCampo(campos, CAMPO_PAYLOAD, frame.getPayload());
+        if (frame.getHash() != null) {
+            escreverCampo(campos, CAMPO_HASH, frame.getHash());
+        }
+        for (String membro : frame.getMembros()) {
+            escreverCampo(campos, CAMPO_MEMBRO, membro.getBytes(StandardCharsets.UTF_8));
+        }
+        if (frame.getOrigem() != null) {
+            escreverCampo(campos, CAMPO_ORIGEM, frame.getOrigem().getBytes(StandardCharsets.UTF_8));
+            escreverCampo(campos, CAMPO_ID_MENSAGEM, ByteBuffer.allocate(8).putLong(frame.getIdMensagem()).array());
+            escreverCampo(campos, CAMPO_FANOUT, ByteBuffer.allocate(4).putInt(frame.getFanout()).array());
+        }
+        if (frame.getIdCorrelacao() != 0) {
+            escreverCampo(campos, CAMPO_CORRELACAO, ByteBuffer.allocate(8).putLong(frame.getIdCorrelacao()).array());
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(TAMANHO_CABECALHO + campos.size());
+        buffer.put((byte) MAGIC).put(VERSAO).put(frame.getTipo()).put(frame.getFlags()).putInt(campos.size());
+        buffer.put(campos.toByteArray());
+        return buffer.array();
+    }
+
+    /**
+     * Lê um frame completo a partir da posição atual do buffer.
+     * Se o buffer ainda não contiver o frame inteiro, a posição não é alterada e é devolvido null.
+     *
+     * @param buffer Buffer com os bytes recebidos, posicionado no magic do frame
+     * @return Frame lido, ou null se o frame estiver incompleto
+     * @throws IOException Caso o frame seja inválido
+     */
+    public static Frame ler(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < TAMANHO_CABECALHO) {
+            return null;
+        }
+        int inicio = buffer.position();
+        int comprimento = buffer.getInt(inicio + 4);
+        validarCabecalho(buffer.get(inicio), buffer.get(inicio + 1), comprimento);
+        if (buffer.remaining() < TAMANHO_CABECALHO + comprimento) {
+            return null;
+        }
+        byte tipo = buffer.get(inicio + 2);
+        byte flags = buffer.get(inicio + 3);
+        ByteBuffer campos = buffer.duplicate();
+        campos.position(inicio + TAMANHO_CABECALHO).limit(inicio + TAMANHO_CABECALHO + comprimento);
+        buffer.position(inicio + TAMANHO_CABECALHO + comprimento);
+        return lerCampos(tipo, flags, campos);
+    }
+
+    /**
+     * Lê o resto de um frame de uma stream bloqueante, depois de o byte magic já ter sido lido.
+     *
+     * @param in Stream da ligação
+     * @return Frame lido
+     * @throws IOException Caso a ligação termine a meio do frame ou o frame seja inválido
+     */
+    public static Frame lerDepoisDoMagic(DataInputStream in) throws IOException {
+        byte versao = in.readByte();
+        byte tipo = in.readByte();
+        byte flags = in.readByte();
+        int comprimento = in.readInt();
+        validarCabecalho((byte) MAGIC, versao, comprimento);
+        byte[] campos = new byte[comprimento];
+        in.readFully(campos);
+        return lerCampos(tipo, flags, ByteBuffer.wrap(campos));
+    }
+
+    private static void validarCabecalho(byte magic, byte versao, int comprimento) throws IOException {
+        if ((magic & 0xFF) != MAGIC) {
+            throw new IOException("Frame binário inválido: magic " + (magic & 0xFF));
+        }
+        if (versao != VERSAO) {
+            throw new IOException("Versão do protocolo binário não suportada: " + versao);
+        }
+        if (comprimento < 0 || comprimento > TAMANHO_MAXIMO) {
+            throw new IOException("Comprimento de frame inválido: " + comprimento);
+        }
+    }
+
+    // Lê os campos de um frame; os campos com tags desconhecidas são ignorados
+    private static Frame lerCampos(byte tipo, byte flags, ByteBuffer campos) throws IOException {
+        String idGrupo = "";
+        String idRemetente = null;
+        byte[] payload = null;
+        byte[] hash = null;
+        List<String> membros = new ArrayList<>();
+        String origem = null;
+        long idMensagem = 0;
+        int fanout = 0;
+        long idCorrelacao = 0;
+        while (campos.hasRemaining()) {
+            if (campos.remaining() < 5) {
+                throw new IOException("Campo de frame truncado");
+            }
+            byte tag = campos.get();
+            int comprimento = campos.getInt();
+            if (comprimento < 0 || comprimento > campos.remaining()) {
+                throw new IOException("Comprimento de campo inválido: " + comprimento);
+            }
+            switch (tag) {
+                case CAMPO_GRUPO:
+                    idGrupo = lerString(campos, comprimento);
+                    break;
+                case CAMPO_REMETENTE:
+                    idRemetente = lerString(campos, comprimento);
+                    break;
+                case CAMPO_PAYLOAD:
+                    payload = lerBytes(campos, comprimento);
+                    break;
+                case CAMPO_HASH:
+                    hash = lerBytes(campos, comprimento);
+                    break;
+                case CAMPO_MEMBRO:
+                    membros.add(lerString(campos, comprimento));
+                    break;
+                case CAMPO_ORIGEM:
+                    origem = lerString(campos, comprimento);
+                    break;
+                case CAMPO_ID_MENSAGEM:
+                    if (comprimento != 8) {
+                        throw new IOException("Comprimento de ID de mensagem inválido: " + comprimento);
+                    }
+                    idMensagem = campos.getLong();
+                    break;
+                case CAMPO_FANOUT:
+                    if (comprimento != 4) {
+                        throw new IOException("Comprimento de fanout inválido: " + comprimento);
+                    }
+                    fanout = campos.getInt();
+                    break;
+                case CAMPO_CORRELACAO:
+                    if (comprimento != 8) {
+                        throw new IOException("Comprimento de ID de correlação inválido: " + comprimento);
+                    }
+                    idCorrelacao = campos.getLong();
+                    break;
+                default:
+                    campos.position(campos.position() + comprimento); // Campo de uma versão futura
+            }
+        }
+        if (idRemetente == null || payload == null) {
+            throw new IOException("Frame sem remetente ou sem payload");
+        }
+        Frame frame = new Frame(tipo, idGrupo, idRemetente, payload, hash);
+        frame.setFlags(flags);
+        frame.setIdCorrelacao(idCorrelacao);
+        if (!membros.isEmpty()) {
+            frame.setMembros(membros);
+        }
+        if (origem != null) {
+            frame.setOrigem(origem);
+            frame.setIdMensagem(idMensagem);
+            frame.setFanout(fanout);
+        }
+        return frame;
+    }
+
+    private static void escreverCampo(ByteArrayOutputStream out, byte tag, byte[] valor) {
+        out.write(tag);
+        int comprimento = valor.length;
+        out.write(comprimento >>> 24);
+        out.write(comprimento >>> 16);
+        out.write(comprimento >>> 8);
+        out.write(comprimento);
+        out.write(valor, 0, comprimento);
+    }
+
+    private static String lerString(ByteBuffer campos, int comprimento) {
+        String valor;
+        if (campos.hasArray()) { // Descodifica diretamente do array, sem cópia intermédia
+            valor = new String(campos.array(), campos.arrayOffset() + campos.position(), comprimento, StandardCharsets.UTF_8);
+            campos.position(campos.position() + comprimento);
+        } else {
+            valor = new String(lerBytes(campos, comprimento), StandardCharsets.UTF_8);
+        }
+        return valor;
+    }
+
+    private static byte[] lerBytes(ByteBuffer campos, int comprimento) {
+        byte[] valor = new byte[comprimento];
+        campos.get(valor);
+        return valor;
+    }
+}
@@ -0,0 +1,29 @@
+import java.util.Set;
+
+/**
+ * Interface RecetorMensagens.
+ * Esta interface é utilizada pelos servidores de rede para entregar ao Peer os dados recebidos,
+ * independentemente do modelo de execução (NIO ou threads virtuais) e do formato usado pelo remetente.
+ */
+public interface RecetorMensagens {
+    /**
+     * Método chamado para cada linha recebida no formato de texto antigo.
+     *
+     * @param linha Linha recebida, sem terminador
+     */
+    void processarMensagem(String linha);
+
+    /**
+     * Método chamado para cada frame recebido no formato binário.
+     *
+     * @param frame Frame recebido
+     */
+    void processarFrame(Frame frame);
+
+    /**
+     * Obtém as capacidades a anunciar em resposta a um HELLO.
+     *
+     * @return Capacidades suportadas pelo recetor
+     */
+    Set<String> getCapacidades();
+}
@@ -0,0 +1,10 @@
+/**
+ * Registo RegistoMensagem com uma mensagem do histórico de uma conversa.
+ *
+ * @param sequencia Posição da mensagem na conversa (0 para a primeira); serve de cursor na paginação do histórico
+ * @param instante Instante (ms desde 1970) em que a mensagem foi guardada
+ * @param remetente ID do Peer que escreveu a mensagem
+ * @param mensagem Texto da mensagem
+ */
+public record RegistoMensagem(long sequencia, long instante, String remetente, String mensagem) {
+}
@@ -0,0 +1,59 @@
+/**
+ * Classe ResultadoEnvio que descreve a entrega de uma mensagem a um membro de um grupo.
+ */
+public class ResultadoEnvio {
+    /**
+     * Estado final da entrega.
+     */
+    public enum Estado {
+        ENTREGUE,        // O frame foi escrito na ligação do membro
+        NAO_ENCONTRADO,  // O membro não está registado na DHT
+        FALHOU,          // Não foi possível ligar ou escrever
+        TIMEOUT          // A ligação ou a escrita excederam o tempo máximo
+    }
+
+    private final String idPeer;
+    private final Estado estado;
+    private final long latenciaNanos;
+    private final String erro;
+
+    /**
+     * Construtor da classe ResultadoEnvio.
+     *
+     * @param idPeer ID do membro
+     * @param estado Estado final da entrega
+     * @param latenciaNanos Tempo (ns) desde o início do envio para o grupo até ao fim da entrega a este membro
+     * @param erro Descrição do erro, ou null se a entrega foi bem sucedida
+     */
+    public ResultadoEnvio(String idPeer, Estado estado, long latenciaNanos, String erro) {
+        this.idPeer = idPeer;
+        this.estado = estado;
+        this.latenciaNanos = latenciaNanos;
+        this.erro = erro;
+    }
+
+    public String getIdPeer() {
+        return idPeer;
+    }
+
+    public Estado getEstado() {
+        return estado;
+    }
+
+    public boolean isEntregue() {
+        return estado == Estado.ENTREGUE;
+    }
+
+    public long getLatenciaNanos() {
+        return latenciaNanos;
+    }
+
+    public String getErro() {
+        return erro;
+    }
+
+    @Override
+    public String toString() {
+        return idPeer + ": " + estado + " (" + latenciaNanos / 1_000_000 + " ms)" + (erro != null ? " - " + erro : "");
+    }
+}
@@ -0,0 +1,57 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Classe ResultadoEnvioGrupo com o resultado do envio de uma mensagem para todos os membros de um grupo.
+ */
+public class ResultadoEnvioGrupo {
+    private final String idGrupo;
+    private final List<ResultadoEnvio> resultados;
+    private final long latenciaNanos;
+
+    /**
+     * Construtor da classe ResultadoEnvioGrupo.
+     *
+     * @param idGrupo ID do grupo
+     * @param resultados Resultado da entrega a cada membro
+     * @param latenciaNanos Tempo (ns) total do envio para o grupo
+     */
+    public ResultadoEnvioGrupo(String idGrupo, List<ResultadoEnvio> resultados, long latenciaNanos) {
+        this.idGrupo = idGrupo;
+        this.resultados = Collections.unmodifiableList(resultados);
+        this.latenciaNanos = latenciaNanos;
+    }
+
+    public String getIdGrupo() {
+        return idGrupo;
+    }
+
+    public List<ResultadoEnvio> getResultados() {
+        return resultados;
+    }
+
+    public long getLatenciaNanos() {
+        return latenciaNanos;
+    }
+
+    /**
+     * Obtém o número de membros a quem a mensagem foi entregue.
+     *
+     * @return Número de entregas bem sucedidas
+     */
+    public int getEntregues() {
+        int entregues = 0;
+        for (ResultadoEnvio resultado : resultados) {
+            if (resultado.isEntregue()) {
+                entregues++;
+            }
+        }
+        return entregues;
+    }
+
+    @Override
+    public String toString() {
+        return "Grupo " + idGrupo + ": entregue a " + getEntregues() + "/" + resultados.size()
+                + " membros em " + latenciaNanos / 1_000_000 + " ms";
+    }
+}
@@ -0,0 +1,139 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Classe SimuladorRede que arranca N peers na mesma JVM, sem interface gráfica, em portas consecutivas
+ * de localhost. Cada peer entra na rede DHT através do primeiro, pelo que os peers só se conhecem pela DHT,
+ * como numa rede real. Serve para testes de carga com centenas de nós numa única máquina.
+ *
+ * Uso: java -cp target/classes SimuladorRede [peers] [mensagensPorPeer] [tamanhoMensagem] [portaBase]
+ */
+public class SimuladorRede {
+    // Tempo máximo de espera pela entrega de todas as mensagens
+    private static final long TEMPO_MAXIMO_ENTREGA_MS = 60_000;
+
+    private final int numeroPeers;
+    private final int portaBase;
+    private final List<Peer> peers = new ArrayList<>();
+
+    /**
+     * Construtor da classe SimuladorRede.
+     *
+     * @param numeroPeers Número de peers a arrancar
+     * @param portaBase Porta do primeiro peer; o peer i usa a porta portaBase + i
+     */
+    public SimuladorRede(int numeroPeers, int portaBase) {
+        this.numeroPeers = numeroPeers;
+        this.portaBase = portaBase;
+    }
+
+    /**
+     * Cria e inicia os peers ("sim0", "sim1", ...) e junta cada um à rede através do primeiro.
+     *
+     * @throws IOException Caso uma das portas não possa ser aberta
+     * @throws NoSuchAlgorithmException Caso as chaves não possam ser geradas
+     */
+    public void iniciar() throws IOException, NoSuchAlgorithmException {
+        InetSocketAddress entrada = new InetSocketAddress("localhost", portaBase);
+        for (int i = 0; i < numeroPeers; i++) {
+            Peer peer = new Peer(portaBase + i, "sim" + i);
+            peer.iniciar();
+            peers.add(peer);
+            if (i > 0 && !peer.juntarRede(entrada)) {
+                // DHT desligada: regista diretamente os peers já criados (e este neles)
+                for (Peer outro : peers.subList(0, i)) {
+                    ligar(peer, outro);
+                    ligar(outro, peer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Obtém os peers do simulador.
+     *
+     * @return Peers, pela ordem das portas
+     */
+    public List<Peer> getPeers() {
+        return Collections.unmodifiableList(peers);
+    }
+
+    /**
+     * Para todos os peers.
+     */
+    public void parar() {
+        for (Peer peer : peers) {
+            peer.parar();
+        }
+    }
+
+    // Regista o endereço e a chave pública de um peer noutro
+    private void ligar(Peer peer, Peer contacto) {
+        peer.armazenarChavePublica(contacto.getIdPeer(), contacto.getChavePublica());
+        peer.registrarPeer(contacto.getIdPeer(), new InetSocketAddress("localhost", portaBase + peers.indexOf(contacto)));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numeroPeers = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int mensagensPorPeer = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int tamanhoMensagem = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        int portaBase = args.length > 3 ? Integer.parseInt(args[3]) : 20000;
+
+        // Os logs de centenas de peers tornariam a medição inútil: só o relatório é escrito
+        PrintStream saida = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        saida.printf("%d peers, %d mensagens de %d carateres por peer%n", numeroPeers, mensagensPorPeer, tamanhoMensagem);
+        SimuladorRede simulador = new SimuladorRede(numeroPeers, portaBase);
+        long inicio = System.nanoTime();
+        simulador.iniciar();
+        saida.printf("Arranque e entrada na rede: %d ms%n", (System.nanoTime() - inicio) / 1_000_000);
+
+        String mensagem = "x".repeat(tamanhoMensagem);
+        long esperadas = (long) numeroPeers * mensagensPorPeer;
+        List<Peer> peers = simulador.getPeers();
+        inicio = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Peer peer : peers) {
+                executor.execute(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < mensagensPorPeer; i++) {
+                        Peer destino;
+                        do {
+                            destino = peers.get(random.nextInt(peers.size()));
+                        } while (destino == peer && peers.size() > 1);
+                        peer.enviarMensagem(destino.getIdPeer(), mensagem);
+                    }
+                });
+            }
+        }
+
+        long recebidas = 0;
+        long limite = System.currentTimeMillis() + TEMPO_MAXIMO_ENTREGA_MS;
+        while ((recebidas = recebidas(peers)) < esperadas && System.currentTimeMillis() < limite) {
+            Thread.sleep(20);
+        }
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        saida.printf("Entregues: %d/%d em %.2f s (%.0f mensagens/s)%n", recebidas, esperadas, segundos, recebidas / segundos);
+
+        simulador.parar();
+        System.exit(recebidas == esperadas ? 0 : 1);
+    }
+
+    private static long recebidas(List<Peer> peers) {
+        long total = 0;
+        for (Peer peer : peers) {
+            total += peer.getMensagensRecebidas();
+        }
+        return total;
+    }
+}
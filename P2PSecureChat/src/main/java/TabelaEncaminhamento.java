@@ -0,0 +1,152 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Classe TabelaEncaminhamento que guarda os contactos conhecidos de um nó da DHT em k-buckets.
+ * O bucket i contém os contactos a uma distância XOR entre 2^i e 2^(i+1), no máximo k por bucket,
+ * do visto há mais tempo para o visto mais recentemente. Como há poucos contactos distantes por
+ * cada metade do espaço de IDs, cada passo de uma procura fica, pelo menos, a metade da distância do
+ * alvo, e uma procura precisa de O(log n) passos.
+ * Pode ser usada por várias threads (os métodos são sincronizados).
+ */
+public class TabelaEncaminhamento {
+    private final IdNo proprio;
+    private final int k;
+    private final List<ArrayDeque<Contacto>> buckets = new ArrayList<>(IdNo.BITS);
+
+    /**
+     * Construtor da classe TabelaEncaminhamento.
+     *
+     * @param proprio Identificador do próprio nó
+     * @param k Número máximo de contactos por bucket
+     */
+    public TabelaEncaminhamento(IdNo proprio, int k) {
+        this.proprio = proprio;
+        this.k = k;
+        for (int i = 0; i < IdNo.BITS; i++) {
+            buckets.add(new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * Regista um contacto que acabou de comunicar com este nó: passa a ser o mais recente do seu bucket.
+     *
+     * @param contacto Contacto visto
+     * @return null se o contacto ficou na tabela; se o bucket estiver cheio, o contacto visto há mais tempo,
+     *         que deve ser testado e substituído por este com {@link #substituir(Contacto, Contacto)} se não responder
+     */
+    public synchronized Contacto atualizar(Contacto contacto) {
+        int indice = proprio.indiceBucket(contacto.id());
+        if (indice < 0) {
+            return null; // O próprio nó não entra na tabela
+        }
+        ArrayDeque<Contacto> bucket = buckets.get(indice);
+        remover(bucket, contacto.id());
+        if (bucket.size() < k) {
+            bucket.addLast(contacto);
+            return null;
+        }
+        return bucket.peekFirst();
+    }
+
+    /**
+     * Substitui um contacto que deixou de responder por um novo, se o primeiro ainda estiver na tabela.
+     *
+     * @param antigo Contacto que não respondeu
+     * @param novo Contacto que o substitui
+     */
+    public synchronized void substituir(Contacto antigo, Contacto novo) {
+        ArrayDeque<Contacto> bucket = buckets.get(proprio.indiceBucket(antigo.id()));
+        if (remover(bucket, antigo.id())) {
+            remover(bucket, novo.id());
+            bucket.addLast(novo);
+        }
+    }
+
+    /**
+     * Remove um contacto (por exemplo, depois de falhar um pedido).
+     *
+     * @param id Identificador do contacto
+     */
+    public synchronized void remover(IdNo id) {
+        int indice = proprio.indiceBucket(id);
+        if (indice >= 0) {
+            remover(buckets.get(indice), id);
+        }
+    }
+
+    /**
+     * Procura um contacto pelo identificador exato.
+     *
+     * @param id Identificador do nó
+     * @return Contacto, ou null se não estiver na tabela
+     */
+    public synchronized Contacto obter(IdNo id) {
+        int indice = proprio.indiceBucket(id);
+        if (indice >= 0) {
+            for (Contacto contacto : buckets.get(indice)) {
+                if (contacto.id().equals(id)) {
+                    return contacto;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Obtém os contactos conhecidos mais próximos de um alvo.
+     *
+     * @param alvo Identificador alvo
+     * @param n Número máximo de contactos
+     * @return Contactos, do mais próximo para o mais distante
+     */
+    public synchronized List<Contacto> maisProximos(IdNo alvo, int n) {
+        List<Contacto> todos = new ArrayList<>();
+        for (ArrayDeque<Contacto> bucket : buckets) {
+            todos.addAll(bucket);
+        }
+        todos.sort(Comparator.comparing(contacto -> contacto.id().distancia(alvo)));
+        return todos.size() > n ? new ArrayList<>(todos.subList(0, n)) : todos;
+    }
+
+    /**
+     * Obtém o índice do bucket não vazio mais próximo do próprio nó.
+     *
+     * @return Índice do bucket, ou -1 se a tabela estiver vazia
+     */
+    public synchronized int indiceMaisProximo() {
+        for (int i = 0; i < IdNo.BITS; i++) {
+            if (!buckets.get(i).isEmpty()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Obtém o número de contactos na tabela.
+     *
+     * @return Número de contactos
+     */
+    public synchronized int tamanho() {
+        int total = 0;
+        for (ArrayDeque<Contacto> bucket : buckets) {
+            total += bucket.size();
+        }
+        return total;
+    }
+
+    // Remove um contacto de um bucket; devolve true se existia
+    private static boolean remover(ArrayDeque<Contacto> bucket, IdNo id) {
+        for (Iterator<Contacto> it = bucket.iterator(); it.hasNext(); ) {
+            if (it.next().id().equals(id)) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+}